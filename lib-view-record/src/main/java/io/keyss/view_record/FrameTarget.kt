@@ -0,0 +1,58 @@
+package io.keyss.view_record
+
+import android.graphics.Bitmap
+import io.keyss.view_record.utils.BitmapPool
+import io.keyss.view_record.utils.yuv.YuvColorSpace
+import java.nio.ByteBuffer
+
+/**
+ * Description: 录制方交给[IFrameSource]填充的目标，整个录制过程只有一个，每帧复用
+ */
+class FrameTarget internal constructor(
+    val width: Int,
+    val height: Int,
+    /**
+     * 编码器的输入颜色格式，MediaCodecInfo.CodecCapabilities.COLOR_Format*，写buffer时按此排列
+     */
+    val colorFormat: Int,
+    /**
+     * 写buffer时使用的颜色标准和范围
+     */
+    val colorSpace: YuvColorSpace,
+    private val pool: BitmapPool,
+) {
+    private var mBitmap: Bitmap? = null
+
+    /**
+     * [SourceProviderAdapter]用来把旧接口返回的Bitmap直接交给录制方，不多拷贝一次
+     */
+    internal var substitute: Bitmap? = null
+
+    /**
+     * 编码器的输入buffer，isFillYuvBuffer时每帧不同，写入前已clear，其余时候为null
+     */
+    var buffer: ByteBuffer? = null
+        internal set
+
+    /**
+     * 写buffer时需要写满的字节数
+     */
+    val frameSize: Int
+        get() = width * height * 3 / 2
+
+    /**
+     * width * height的ARGB_8888，第一次取时才从pool中取，内容是上一帧留下的
+     */
+    val bitmap: Bitmap
+        get() = substitute ?: mBitmap ?: pool.obtain(width, height, Bitmap.Config.ARGB_8888).also { mBitmap = it }
+
+    /**
+     * 录制结束时归还到pool
+     */
+    internal fun release() {
+        mBitmap?.let { pool.release(it) }
+        mBitmap = null
+        substitute = null
+        buffer = null
+    }
+}
@@ -0,0 +1,49 @@
+package io.keyss.view_record
+
+/**
+ * Description: 填充录制方给的目标的数据源，目标每帧复用，源不用每帧新建Bitmap再由录制方recycle
+ * 图表、摄像头叠加等自定义源在[fill]里画到target.bitmap，或直接往target.buffer写YUV
+ * 旧的[ISourceProvider]通过[SourceProviderAdapter]继续使用
+ */
+interface IFrameSource {
+    companion object {
+        /**
+         * [fill]不知道画面对应的时间时返回，录制方按取帧开始的时间处理
+         */
+        const val NO_TIMESTAMP = -1L
+    }
+
+    /**
+     * 源的宽，start后在编码线程调用一次，决定编码尺寸和target的尺寸
+     */
+    val width: Int
+
+    /**
+     * 源的高，同[width]
+     */
+    val height: Int
+
+    /**
+     * 为true时每帧给target.buffer（编码器的输入buffer），按target.colorFormat写入紧凑排列的YUV420，不能有裁剪旋转
+     * 为false时给target.bitmap
+     */
+    val isFillYuvBuffer: Boolean
+        get() = false
+
+    /**
+     * 填充下一帧，在编码线程调用
+     * @return 画面对应的时间，System.nanoTime()，不知道时返回[NO_TIMESTAMP]
+     */
+    fun fill(target: FrameTarget): Long
+
+    /**
+     * 录制方用完这一帧的target后调用，之后下一次[fill]之前target不会再被读取
+     */
+    fun onFrameConsumed(target: FrameTarget) {
+    }
+
+    /**
+     * 结果回调
+     */
+    fun onResult(isSuccessful: Boolean, result: String)
+}
@@ -13,6 +13,14 @@ interface ISourceProvider {
      */
     operator fun next(): Bitmap
 
+    /**
+     * next()返回的Bitmap转换完成后由录制方调用，之后不再使用，默认直接recycle
+     * 从BitmapPool取的可以在这里归还
+     */
+    fun release(bitmap: Bitmap) {
+        bitmap.recycle()
+    }
+
     /**
      * 结果回调
      */
@@ -7,9 +7,13 @@ import android.media.MediaMuxer
 import android.view.View
 import android.view.Window
 import androidx.annotation.RequiresPermission
+import io.keyss.view_record.utils.BitmapPool
 import io.keyss.view_record.utils.EncoderTools
 import io.keyss.view_record.utils.RecordViewUtil
 import io.keyss.view_record.utils.VRLogger
+import io.keyss.view_record.utils.yuv.ConversionContext
+import io.keyss.view_record.utils.yuv.ConvertKernel
+import io.keyss.view_record.utils.yuv.YuvColorSpace
 import java.io.File
 import java.nio.ByteBuffer
 
@@ -51,6 +55,26 @@ class RecordAsyncEncoder {
     ////// Video
     private lateinit var mVideoRecordConfig: VideoRecordConfig
 
+    /**
+     * 转换用的中间数组，整个录制过程复用
+     */
+    private val mConversionContext = ConversionContext()
+
+    /**
+     * start(window, view)截图用的Bitmap池，转换完归还，可以看hitCount、missCount
+     */
+    val bitmapPool = BitmapPool()
+
+    /**
+     * 输入YUV的颜色标准和范围，会写入编码器的MediaFormat，需在start前设置
+     */
+    var colorSpace: YuvColorSpace = YuvColorSpace.BT601_LIMITED
+
+    /**
+     * ARGB转YUV的计算方式，需在start前设置，LOOKUP_TABLE与ARITHMETIC结果相同，BLOCK_2X2的色度为2x2平均值
+     */
+    var convertKernel: ConvertKernel = ConvertKernel.ARITHMETIC
+
     // acv h264, hevc h265, 根据需要求改
     var videoMimeType = MediaFormat.MIMETYPE_VIDEO_AVC
 
@@ -116,6 +140,9 @@ class RecordAsyncEncoder {
         } catch (e: Exception) {
             onError("初始化错误：${e.message}")
             return
+        } finally {
+            // 只用来取尺寸
+            mSourceProvider.release(bitmap)
         }
     }
 
@@ -162,13 +189,17 @@ class RecordAsyncEncoder {
         VRLogger.d("start2() called with: isStarted = $isVideoStarted, isRunning = $isRunning, outputFile=$outputFile, minBitRate=$minBitRate")
         val provider = object : ISourceProvider {
             override fun next(): Bitmap {
-                return RecordViewUtil.getBitmapFromView(window, view, width)
+                return RecordViewUtil.getBitmapFromView(window, view, pool = bitmapPool, width = width)
             }
 
             override fun onResult(isSuccessful: Boolean, result: String) {
                 VRLogger.i("start2 onResult() isSuccessful: $isSuccessful, result: $result")
                 onResult.invoke(isSuccessful, result)
             }
+
+            override fun release(bitmap: Bitmap) {
+                bitmapPool.release(bitmap)
+            }
         }
         // 确认文件路径可用性
         var finalOutputFile =
@@ -224,6 +255,8 @@ class RecordAsyncEncoder {
             onResult(false, "录制结束失败：${e.message}")
         } finally {
             isRunning = false
+            mConversionContext.release()
+            bitmapPool.clear()
         }
     }
 
@@ -249,7 +282,9 @@ class RecordAsyncEncoder {
             outHeight = height,
             bitRate = minBitRate,
             frameRate = frameRate,
-            iFrameInterval = iFrameInterval
+            iFrameInterval = iFrameInterval,
+            colorSpace = colorSpace,
+            convertKernel = convertKernel
         )
         mVideoRecordConfig.videoMediaCodec.setCallback(object : MediaCodec.Callback() {
             override fun onInputBufferAvailable(codec: MediaCodec, inputBufferId: Int) {
@@ -308,11 +343,10 @@ class RecordAsyncEncoder {
         val ptsUsec = (System.nanoTime() - mRecordStartTime) / 1000
         VRLogger.v("视频pts=${ptsUsec}us")
         // 获取屏幕数据
-        val inputData: ByteArray = getCurrentPixelsData()
         // todo 第一次changed 待修改 buffer is inaccessible
-        inputBuffer.put(inputData)
+        val inputSize = fillCurrentPixelsData(inputBuffer)
         // 压入缓冲区，准备编码
-        codec.queueInputBuffer(inputBufferId, 0, inputData.size, ptsUsec, 0)
+        codec.queueInputBuffer(inputBufferId, 0, inputSize, ptsUsec, 0)
     }
 
     /**
@@ -368,23 +402,28 @@ class RecordAsyncEncoder {
     }
 
     /**
-     * 从源提取像素数据
+     * 从源提取像素数据，直接写入编码器的输入buffer
+     * @return 写入的字节数
      */
-    private fun getCurrentPixelsData(): ByteArray {
+    private fun fillCurrentPixelsData(inputBuffer: ByteBuffer): Int {
         val start = System.currentTimeMillis()
         // 这一步10ms左右
         val bitmap = mSourceProvider.next()
         VRLogger.v("提取完bitmap, size=${bitmap.byteCount / 1024}KB, 耗时=${System.currentTimeMillis() - start}ms")
         // 需要时间，400宽的都要10ms左右，1024*1024 S9耗时50ms左右，如果异步按帧率取，内存可能会爆炸， 800*800耗时21ms
-        val inputData: ByteArray = EncoderTools.getPixels(
+        val size = EncoderTools.getPixels(
             mVideoRecordConfig.colorFormat,
             mVideoRecordConfig.outWidth,
             mVideoRecordConfig.outHeight,
-            bitmap
+            bitmap,
+            inputBuffer,
+            mConversionContext,
+            mVideoRecordConfig.colorSpace,
+            mVideoRecordConfig.convertKernel
         )
         VRLogger.v("从bitmap提取像素 ${System.currentTimeMillis() - start}ms")
-        bitmap.recycle()
-        return inputData
+        mSourceProvider.release(bitmap)
+        return size
     }
 
     private fun runAudio() {
@@ -1,6 +1,7 @@
 package io.keyss.view_record
 
 import android.graphics.Bitmap
+import android.graphics.Rect
 import android.media.AudioFormat
 import android.media.AudioRecord
 import android.media.MediaCodec
@@ -8,15 +9,33 @@ import android.media.MediaCodecInfo
 import android.media.MediaFormat
 import android.media.MediaMuxer
 import android.media.MediaRecorder
+import android.os.Build
 import android.os.SystemClock
 import android.view.View
 import android.view.Window
 import androidx.annotation.RequiresPermission
+import io.keyss.view_record.utils.BitmapPool
+import io.keyss.view_record.utils.CaptureLatency
+import io.keyss.view_record.utils.CaptureThread
+import io.keyss.view_record.utils.DisplayListCapture
 import io.keyss.view_record.utils.EncoderTools
+import io.keyss.view_record.utils.FrameLatencyTracker
+import io.keyss.view_record.utils.MemoryBudget
+import io.keyss.view_record.utils.PipelinedPixelCopy
 import io.keyss.view_record.utils.RecordViewUtil
 import io.keyss.view_record.utils.VRLogger
+import io.keyss.view_record.utils.yuv.ConversionContext
+import io.keyss.view_record.utils.yuv.ConvertKernel
+import io.keyss.view_record.utils.yuv.ConvertUtil
+import io.keyss.view_record.utils.yuv.FrameTransform
+import io.keyss.view_record.utils.yuv.YuvColorSpace
+import io.keyss.view_record.utils.yuv.FrameHasher
+import io.keyss.view_record.video.DuplicateFrameFilter
+import io.keyss.view_record.video.ViewDrawTrigger
 import java.io.File
+import java.nio.ByteBuffer
 import kotlin.concurrent.thread
+import kotlin.math.max
 import kotlin.math.min
 
 /**
@@ -55,11 +74,131 @@ class RecordEncoder {
     @Volatile
     private var isMuxerStarted = false
     private var mRecordStartTime = -1L
+
+    /**
+     * 当前帧数据源给出的截图时间，System.nanoTime()，作为pts
+     */
+    private var mFrameCaptureTime = IFrameSource.NO_TIMESTAMP
+    private var mLastVideoPtsUs = -1L
     private var mLastFrameTime = -1L
 
     ////// Video
     private lateinit var mVideoRecordConfig: VideoRecordConfig
 
+    /**
+     * 转换用的中间数组，整个录制过程复用
+     */
+    private val mConversionContext = ConversionContext()
+
+    /**
+     * start(window, view)截图用的Bitmap池，转换完归还，可以看hitCount、missCount
+     */
+    val bitmapPool = BitmapPool()
+
+    /**
+     * 一次录制的内存上限，截图的Bitmap和转换缓冲都计入，为null时不限制，需在start前设置
+     * 开始时按预估检查，放不下直接onError；录制中超出时以"视频录制失败"结束，可以看peakBytes调整
+     */
+    var memoryBudget: MemoryBudget? = null
+
+    /**
+     * start(window, view)时使用流水线截图，转换编码当前帧时下一帧已经在PixelCopy，Android 8.0以下无效
+     */
+    var isPipelinedCapture: Boolean = false
+
+    /**
+     * 流水线截图同时进行的请求数
+     */
+    var captureInFlight: Int = PipelinedPixelCopy.DEFAULT_MAX_IN_FLIGHT
+
+    @Volatile
+    private var mPipelinedCapture: PipelinedPixelCopy? = null
+
+    /**
+     * start(window, view)时主线程只录Picture，光栅化在编码线程，不使用PixelCopy，优先于isPipelinedCapture，需在start前设置
+     */
+    var isDisplayListCapture: Boolean = false
+
+    @Volatile
+    private var mDisplayListCapture: DisplayListCapture? = null
+
+    /**
+     * 显示列表截图时每帧占用主线程的耗时
+     */
+    val displayListUiThreadCost = CaptureLatency()
+
+    /**
+     * start(window, view)时由view的绘制驱动取帧，没有绘制时不截图，超过drawTriggerMaxGapMs时重复一帧，需在start前设置
+     * 帧率仍不超过frameRate
+     */
+    var isDrawTriggeredCapture: Boolean = false
+
+    /**
+     * 绘制驱动时两帧之间的最长间隔
+     */
+    var drawTriggerMaxGapMs: Long = DuplicateFrameFilter.DEFAULT_MAX_GAP_MS
+
+    @Volatile
+    private var mDrawTrigger: ViewDrawTrigger? = null
+
+    /**
+     * 绘制驱动时上一次取帧的时间，用于按帧率合并
+     */
+    private var mLastCaptureTime = 0L
+
+    /**
+     * start(window, view)录制期间接收PixelCopy回调的线程
+     */
+    private val mCaptureThread = CaptureThread()
+
+    /**
+     * PixelCopy回调仍走主线程，只用来和专用线程对比captureLatency，需在start前设置
+     */
+    var isCaptureOnMainThread: Boolean = false
+
+    /**
+     * 本次录制PixelCopy请求到回调的耗时和超时次数
+     */
+    val captureLatency: CaptureLatency
+        get() = mCaptureThread.latency
+
+    /**
+     * 每帧截图→送入编码器→编码输出→写入文件各阶段的耗时，每次录制开始时清零
+     */
+    val latencyTracker = FrameLatencyTracker()
+
+    /**
+     * 输入YUV的颜色标准和范围，会写入编码器的MediaFormat，需在start前设置
+     */
+    var colorSpace: YuvColorSpace = YuvColorSpace.BT601_LIMITED
+
+    /**
+     * ARGB转YUV的计算方式，需在start前设置，LOOKUP_TABLE与ARITHMETIC结果相同，BLOCK_2X2的色度为2x2平均值
+     */
+    var convertKernel: ConvertKernel = ConvertKernel.ARITHMETIC
+
+    /**
+     * 源图像中要录制的区域，为null时录制整张，由start的参数传入，每次start都重新指定
+     */
+    private var mCrop: Rect? = null
+
+    /**
+     * 顺时针旋转角度，0、90、180、270之一，由start的参数传入
+     * 与crop一样在转换时完成，不额外变换bitmap
+     */
+    private var mRotation: Int = 0
+
+    /**
+     * 有crop或rotation时，旋转后的输出宽度，为null时与裁剪区域相同
+     */
+    private var mTransformWidth: Int? = null
+    private var mFrameTransform: FrameTransform? = null
+
+    /**
+     * 画面没变时跳过编码，超过最长间隔后强制编码一帧，为null时每帧都编码，需在start前设置
+     */
+    var duplicateFrameFilter: DuplicateFrameFilter? = null
+
     // acv h264, hevc h265, 根据需要求改
     var videoMimeType = MediaFormat.MIMETYPE_VIDEO_AVC
 
@@ -112,7 +251,12 @@ class RecordEncoder {
     /**
      * 数据源
      */
-    private lateinit var mSourceProvider: ISourceProvider
+    private lateinit var mFrameSource: IFrameSource
+
+    /**
+     * 每帧交给数据源填充的目标，start后创建
+     */
+    private var mFrameTarget: FrameTarget? = null
 
     /**
      * 输出文件，存在则覆盖
@@ -126,11 +270,18 @@ class RecordEncoder {
      * 前置配置，可以不从start加参数
      */
     fun setUp(provider: ISourceProvider, outputFile: File, minBitRate: Int, isRecordAudio: Boolean = true) {
+        setUp(SourceProviderAdapter(provider), outputFile, minBitRate, isRecordAudio)
+    }
+
+    /**
+     * 前置配置，数据源填充复用的目标
+     */
+    fun setUp(source: IFrameSource, outputFile: File, minBitRate: Int, isRecordAudio: Boolean = true) {
         if (isVideoStarted || isRunning) {
             return
         }
         mOutputFile = outputFile
-        mSourceProvider = provider
+        mFrameSource = source
         mVideoBitRate = minBitRate
         // TODO: 2023/6/6 判断没有权限的话再改成false或者抛出异常
         this.isRecordAudio = isRecordAudio
@@ -141,7 +292,7 @@ class RecordEncoder {
         if (isVideoStarted || isRunning) {
             return
         }
-        if (::mSourceProvider.isInitialized.not() || ::mOutputFile.isInitialized.not()) {
+        if (::mFrameSource.isInitialized.not() || ::mOutputFile.isInitialized.not()) {
             onError("请先调用setUp()方法")
             return
         }
@@ -154,15 +305,42 @@ class RecordEncoder {
         ////////////////////////////////////////////////
         isRunning = true
         thread {
-            val bitmap = try {
-                mSourceProvider.next()
+            val source = mFrameSource
+            val (sourceWidth, sourceHeight) = try {
+                source.width to source.height
             } catch (e: Exception) {
                 VRLogger.e("初始化错误: 第一次取bitmap异常", e)
                 onError("初始化错误：无法获取到屏幕图像或者超过内存大小")
                 return@thread
             }
             try {
-                init(bitmap.width, bitmap.height, mVideoBitRate)
+                val crop = mCrop
+                val rotation = mRotation
+                val transform = if (crop != null || rotation != 0) {
+                    if (source.isFillYuvBuffer) {
+                        throw IllegalArgumentException("直接写YUV的数据源不支持裁剪旋转")
+                    }
+                    RecordViewUtil.createFrameTransform(sourceWidth, sourceHeight, mTransformWidth, crop, rotation)
+                } else {
+                    null
+                }
+                mFrameTransform = transform
+                val outWidth = transform?.outWidth ?: sourceWidth
+                val outHeight = transform?.outHeight ?: sourceHeight
+                applyMemoryBudget(source, sourceWidth, sourceHeight, outWidth, outHeight)
+                init(outWidth, outHeight, mVideoBitRate)
+                // 编码器会把奇数宽高减一，直接写YUV时按编码尺寸写
+                mFrameTarget = if (source.isFillYuvBuffer) {
+                    FrameTarget(
+                        mVideoRecordConfig.outWidth,
+                        mVideoRecordConfig.outHeight,
+                        mVideoRecordConfig.colorFormat,
+                        mVideoRecordConfig.colorSpace,
+                        bitmapPool
+                    )
+                } else {
+                    FrameTarget(sourceWidth, sourceHeight, mVideoRecordConfig.colorFormat, mVideoRecordConfig.colorSpace, bitmapPool)
+                }
             } catch (e: Exception) {
                 onError("初始化错误：${e.message}")
                 return@thread
@@ -175,18 +353,83 @@ class RecordEncoder {
         }
     }
 
+    /**
+     * 按这次录制的尺寸预估占用，超出时抛出，不等到录制中分配失败
+     * 只算截图Bitmap、argb和yuv，编码器内部和队列里的不在其中
+     */
+    private fun applyMemoryBudget(source: IFrameSource, sourceWidth: Int, sourceHeight: Int, outWidth: Int, outHeight: Int) {
+        val budget = memoryBudget
+        bitmapPool.memoryBudget = budget
+        mConversionContext.setMemoryBudget(budget)
+        if (budget == null) {
+            return
+        }
+        budget.reset()
+        val yuvBytes = outWidth.toLong() * outHeight * 3 / 2
+        val estimated = if (source.isFillYuvBuffer) {
+            yuvBytes
+        } else {
+            // 流水线截图时同时借出的Bitmap有captureInFlight + 1张
+            val bitmapCount = if (mPipelinedCapture != null) captureInFlight + 1 else 1
+            sourceWidth.toLong() * sourceHeight * 4 * bitmapCount + outWidth.toLong() * outHeight * 4 + yuvBytes
+        }
+        if (estimated > budget.limitBytes) {
+            throw IllegalStateException("超过内存预算: 预计需要${estimated}字节, 上限${budget.limitBytes}")
+        }
+    }
+
     /**
      * 自定义源更灵活
+     * @see start(IFrameSource, File, Int, Boolean, Rect?, Int, Int?)
+     */
+    fun start(
+        provider: ISourceProvider,
+        outputFile: File,
+        minBitRate: Int,
+        isRecordAudio: Boolean = true,
+        crop: Rect? = null,
+        rotation: Int = 0,
+        width: Int? = null,
+    ) {
+        start(SourceProviderAdapter(provider), outputFile, minBitRate, isRecordAudio, crop, rotation, width)
+    }
+
+    /**
+     * 自定义源，每帧填充复用的目标，不需要每帧新建Bitmap
+     * @param crop 源图像中要录制的区域，为null时录制整张，不支持直接写YUV的源
+     * @param rotation 顺时针旋转角度，0、90、180、270之一
+     * @param width 有crop或rotation时旋转后的输出宽度，为null时与裁剪区域相同
      */
-    fun start(provider: ISourceProvider, outputFile: File, minBitRate: Int, isRecordAudio: Boolean = true) {
+    fun start(
+        source: IFrameSource,
+        outputFile: File,
+        minBitRate: Int,
+        isRecordAudio: Boolean = true,
+        crop: Rect? = null,
+        rotation: Int = 0,
+        width: Int? = null,
+    ) {
         VRLogger.d("start() called with: isStarted = $isVideoStarted, isRunning = $isRunning, outputFile=$outputFile, minBitRate=$minBitRate")
-        setUp(provider, outputFile, minBitRate, isRecordAudio)
+        if (isVideoStarted || isRunning) {
+            return
+        }
+        mCrop = crop
+        mRotation = rotation
+        mTransformWidth = width
+        mPipelinedCapture?.close()
+        mPipelinedCapture = null
+        mDisplayListCapture = null
+        mDrawTrigger?.detach()
+        mDrawTrigger = null
+        setUp(source, outputFile, minBitRate, isRecordAudio)
         start()
     }
 
     /**
      * 更轻便
-     * @param width 为null时，使用view的原始宽高
+     * @param width 为null时，使用view的原始宽高，有rotation时为旋转后的宽度
+     * @param crop view中要录制的区域，为null时录制整个view
+     * @param rotation 顺时针旋转角度，0、90、180、270之一
      * @param onResult 最简洁的方式下可以用lambda表达式拿结果
      */
     fun start(
@@ -196,12 +439,72 @@ class RecordEncoder {
         width: Int? = null,
         minBitRate: Int = 1024_000,
         isRecordAudio: Boolean = true,
+        crop: Rect? = null,
+        rotation: Int = 0,
         onResult: (isSuccessful: Boolean, result: String) -> Unit,
     ) {
         VRLogger.d("start2() called with: isStarted = $isVideoStarted, isRunning = $isRunning, outputFile=$outputFile, minBitRate=$minBitRate")
-        val provider = object : ISourceProvider {
-            override fun next(): Bitmap {
-                return RecordViewUtil.getBitmapFromView(window, view, width)
+        if (isVideoStarted || isRunning) {
+            return
+        }
+        mCrop = crop
+        mRotation = rotation
+        // 有裁剪或旋转时按原尺寸截图，缩放在转换时一起完成
+        val isTransform = crop != null || rotation != 0
+        val captureWidth = if (isTransform) null else width
+        mCaptureThread.latency.reset()
+        if (!isCaptureOnMainThread) {
+            mCaptureThread.start()
+        }
+        displayListUiThreadCost.reset()
+        val displayListCapture = if (isDisplayListCapture) {
+            DisplayListCapture(view, captureWidth, bitmapPool, displayListUiThreadCost)
+        } else {
+            null
+        }
+        mDisplayListCapture = displayListCapture
+        val pipelinedCapture = if (displayListCapture == null && isPipelinedCapture && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            PipelinedPixelCopy(window, view, captureWidth, bitmapPool, captureInFlight, mCaptureThread)
+        } else {
+            null
+        }
+        mPipelinedCapture = pipelinedCapture
+        mDrawTrigger = if (isDrawTriggeredCapture) ViewDrawTrigger(view, drawTriggerMaxGapMs).also { it.attach() } else null
+        val source = object : IFrameSource {
+            // 各种截图方式的尺寸都按这个计算，不需要先截一帧
+            private val recordSize: Pair<Int, Int>
+                get() {
+                    val finalWidth = captureWidth ?: view.width
+                    if (finalWidth <= 0) {
+                        throw IllegalArgumentException("宽度小于等于0, finalWidth=$finalWidth")
+                    }
+                    return RecordViewUtil.calculateRecordSize(view, finalWidth)
+                }
+
+            override val width: Int
+                get() = recordSize.first
+
+            override val height: Int
+                get() = recordSize.second
+
+            override fun fill(target: FrameTarget): Long {
+                // 截图的bitmap都来自bitmapPool，直接交给录制方，不再拷贝到target
+                displayListCapture?.let {
+                    target.substitute = it.capture()
+                    return it.lastCaptureTimeNanos
+                }
+                pipelinedCapture?.let {
+                    val frame = it.next()
+                    target.substitute = frame.bitmap
+                    return frame.captureTimeNanos
+                }
+                target.substitute = RecordViewUtil.getBitmapFromView(window, view, captureWidth, bitmapPool, mCaptureThread)
+                return System.nanoTime()
+            }
+
+            override fun onFrameConsumed(target: FrameTarget) {
+                target.substitute?.let { bitmapPool.release(it) }
+                target.substitute = null
             }
 
             override fun onResult(isSuccessful: Boolean, result: String) {
@@ -225,8 +528,9 @@ class RecordEncoder {
         } catch (e: Exception) {
             e.printStackTrace()
         }
+        mTransformWidth = width
         setUp(
-            provider = provider,
+            source = source,
             outputFile = finalOutputFile,
             minBitRate = minBitRate,
             isRecordAudio = isRecordAudio,
@@ -263,6 +567,16 @@ class RecordEncoder {
             onResult(false, "录制结束失败：${e.message}")
         } finally {
             isRunning = false
+            mConversionContext.release()
+            mPipelinedCapture?.close()
+            mPipelinedCapture = null
+            mDisplayListCapture = null
+            mFrameTarget?.release()
+            mFrameTarget = null
+            mCaptureThread.quit()
+            mDrawTrigger?.detach()
+            mDrawTrigger = null
+            bitmapPool.clear()
         }
     }
 
@@ -314,7 +628,9 @@ class RecordEncoder {
             outHeight = height,
             bitRate = minBitRate,
             frameRate = frameRate,
-            iFrameInterval = iFrameInterval
+            iFrameInterval = iFrameInterval,
+            colorSpace = colorSpace,
+            convertKernel = convertKernel
         )
     }
 
@@ -338,9 +654,19 @@ class RecordEncoder {
     private fun recordVideo() {
         isVideoStarted = true
         mRecordStartTime = System.nanoTime()
+        mLastVideoPtsUs = -1L
+        latencyTracker.reset()
+        duplicateFrameFilter?.reset()
+        // 重复帧没有queue，留给下一帧继续用的buffer
+        var heldInputBufferIndex = -1
         while (isVideoStarted) {
             // 从队列中去一个可用的buffer的index
-            val inputBufferIndex = mVideoRecordConfig.videoMediaCodec.dequeueInputBuffer(defaultTimeOutUs)
+            val inputBufferIndex = if (heldInputBufferIndex >= 0) {
+                heldInputBufferIndex
+            } else {
+                mVideoRecordConfig.videoMediaCodec.dequeueInputBuffer(defaultTimeOutUs)
+            }
+            heldInputBufferIndex = -1
             //VRLogger.i( "视频: inputBufferIndex=$inputBufferIndex, 第${mVideoRecordConfig.mGenerateVideoFrameIndex}帧数据")
             // 无可用缓冲区，丢掉（这个模式下实为等待，不取下一帧图像数据），下一帧
             if (inputBufferIndex < 0) {
@@ -351,12 +677,24 @@ class RecordEncoder {
             // 取个输入buffer
             val inputBuffer = mVideoRecordConfig.videoMediaCodec.getInputBuffer(inputBufferIndex) ?: continue
             inputBuffer.clear()
-            // 计算pts，取帧的时间（getCurrentPixelsData）
-            val ptsUsec = (System.nanoTime() - mRecordStartTime) / 1000
-            VRLogger.v("视频pts=${ptsUsec}us")
+            if (!awaitDrawTrigger()) {
+                // 没有绘制，不取帧，上一帧的时长自然延长，这个buffer留给下一帧
+                heldInputBufferIndex = inputBufferIndex
+                continue
+            }
             // 录制
-            val inputData: ByteArray = getCurrentPixelsData()
-            inputBuffer.put(inputData)
+            val fillStartTime = System.nanoTime()
+            val inputSize = fillCurrentPixelsData(inputBuffer)
+            // pts用数据源给出的截图时间，不受截图、转换耗时波动的影响；没有时用取帧开始的时间
+            val captureTime = mFrameCaptureTime.takeIf { it != IFrameSource.NO_TIMESTAMP } ?: fillStartTime
+            val ptsUsec = max((captureTime - mRecordStartTime) / 1000, mLastVideoPtsUs + 1)
+            VRLogger.v("视频pts=${ptsUsec}us")
+            if (isRunning && duplicateFrameFilter?.isDuplicate(FrameHasher.hash(inputBuffer, 0, inputSize)) == true) {
+                // 画面没变，不编码，上一帧的时长自然延长，这个buffer留给下一帧
+                heldInputBufferIndex = inputBufferIndex
+                SystemClock.sleep(fpsMs.toLong())
+                continue
+            }
             // Put the data on the encoding queue, 把buffer传给codec
             // 所以目前这里不可能出现false
             val inputFlags = if (isRunning) {
@@ -369,10 +707,12 @@ class RecordEncoder {
             mVideoRecordConfig.videoMediaCodec.queueInputBuffer(
                 inputBufferIndex,
                 0,
-                inputData.size,
+                inputSize,
                 ptsUsec,
                 inputFlags
             )
+            mLastVideoPtsUs = ptsUsec
+            latencyTracker.onQueued(ptsUsec, captureTime / 1000)
             while (true) {
                 // Returns the index of an output buffer that has been successfully decoded or one of the INFO_* constants.
                 val outputBufferIndex =
@@ -407,11 +747,14 @@ class RecordEncoder {
                             outputBuffer.limit(mVideoBufferInfo.offset + mVideoBufferInfo.size)
                             // isMuxerStarted应该包在这里，把数据取出来丢掉
                             if (isMuxerStarted) {
+                                val ptsUs = mVideoBufferInfo.presentationTimeUs
+                                latencyTracker.onEncoded(ptsUs)
                                 mMediaMuxer.writeSampleData(
                                     mVideoRecordConfig.videoTrackIndex,
                                     outputBuffer,
                                     mVideoBufferInfo
                                 )
+                                latencyTracker.onMuxed(ptsUs)
                             }
                             mVideoRecordConfig.generateVideoFrameIndex++
                             // 输入渲染，释放
@@ -475,23 +818,80 @@ class RecordEncoder {
     }
 
     /**
-     * 从源提取像素数据
+     * 绘制驱动时先按帧率合并，再等到有绘制或超过最长间隔
+     * @return false为等待超时且没有需要取的帧
      */
-    private fun getCurrentPixelsData(): ByteArray {
+    private fun awaitDrawTrigger(): Boolean {
+        val trigger = mDrawTrigger ?: return true
+        if (!isRunning) {
+            // 结束帧不等
+            return true
+        }
+        val wait = mLastCaptureTime + fpsMs.toLong() - SystemClock.elapsedRealtime()
+        if (wait > 0) {
+            SystemClock.sleep(wait)
+        }
+        if (!trigger.awaitFrame(100)) {
+            return false
+        }
+        mLastCaptureTime = SystemClock.elapsedRealtime()
+        return true
+    }
+
+    /**
+     * 从源提取像素数据，直接写入编码器的输入buffer
+     * @return 写入的字节数
+     */
+    private fun fillCurrentPixelsData(inputBuffer: ByteBuffer): Int {
         val start = System.currentTimeMillis()
-        // 这一步10ms左右
-        val bitmap = mSourceProvider.next()
-        VRLogger.v("提取完bitmap, size=${bitmap.byteCount / 1024}KB, 耗时=${System.currentTimeMillis() - start}ms")
-        // 需要时间，400宽的都要10ms左右，1024*1024 S9耗时50ms左右，如果异步按帧率取，内存可能会爆炸， 800*800耗时21ms
-        val inputData: ByteArray = EncoderTools.getPixels(
-            mVideoRecordConfig.colorFormat,
-            mVideoRecordConfig.outWidth,
-            mVideoRecordConfig.outHeight,
-            bitmap
-        )
-        VRLogger.v("从bitmap提取像素 ${System.currentTimeMillis() - start}ms")
-        bitmap.recycle()
-        return inputData
+        val source = mFrameSource
+        val target = mFrameTarget ?: throw IllegalStateException("frame target is not initialized")
+        if (source.isFillYuvBuffer) {
+            target.buffer = inputBuffer
+            try {
+                mFrameCaptureTime = source.fill(target)
+            } finally {
+                target.buffer = null
+                source.onFrameConsumed(target)
+            }
+            VRLogger.v("数据源写入YUV 耗时=${System.currentTimeMillis() - start}ms")
+            return target.frameSize
+        }
+        try {
+            // 这一步10ms左右
+            mFrameCaptureTime = source.fill(target)
+            val bitmap = target.bitmap
+            VRLogger.v("提取完bitmap, size=${bitmap.byteCount / 1024}KB, 耗时=${System.currentTimeMillis() - start}ms")
+            // 需要时间，400宽的都要10ms左右，1024*1024 S9耗时50ms左右，如果异步按帧率取，内存可能会爆炸， 800*800耗时21ms
+            val transform = mFrameTransform
+            val size = if (transform != null) {
+                ConvertUtil.convertBitmapToYUVBuffer(
+                    bitmap,
+                    transform,
+                    mVideoRecordConfig.colorFormat,
+                    mVideoRecordConfig.convertKernel,
+                    mVideoRecordConfig.colorSpace,
+                    inputBuffer,
+                    mConversionContext
+                )
+            } else {
+                EncoderTools.getPixels(
+                    mVideoRecordConfig.colorFormat,
+                    mVideoRecordConfig.outWidth,
+                    mVideoRecordConfig.outHeight,
+                    bitmap,
+                    inputBuffer,
+                    mConversionContext,
+                    mVideoRecordConfig.colorSpace,
+                    mVideoRecordConfig.convertKernel
+                )
+            }
+            VRLogger.v("从bitmap提取像素 ${System.currentTimeMillis() - start}ms")
+            return size
+        } finally {
+            // 转换失败也要通知，源借出的Bitmap才能归还
+            source.onFrameConsumed(target)
+        }
     }
 
     private fun runAudio() {
@@ -646,6 +1046,6 @@ class RecordEncoder {
             return
         }
         isResulted = true
-        mSourceProvider.onResult(isSuccessful, result)
+        mFrameSource.onResult(isSuccessful, result)
     }
 }
@@ -0,0 +1,40 @@
+package io.keyss.view_record
+
+/**
+ * Description: 把[ISourceProvider]当作[IFrameSource]使用，next()返回的Bitmap直接交给录制方，用完后release
+ * 第一次取宽高时取一帧，只用来取尺寸，和原来一样
+ */
+class SourceProviderAdapter(private val provider: ISourceProvider) : IFrameSource {
+    private var mSize: Pair<Int, Int>? = null
+
+    override val width: Int
+        get() = size().first
+
+    override val height: Int
+        get() = size().second
+
+    private fun size(): Pair<Int, Int> {
+        mSize?.let { return it }
+        val bitmap = provider.next()
+        try {
+            return (bitmap.width to bitmap.height).also { mSize = it }
+        } finally {
+            provider.release(bitmap)
+        }
+    }
+
+    override fun fill(target: FrameTarget): Long {
+        val captureTime = System.nanoTime()
+        target.substitute = provider.next()
+        return captureTime
+    }
+
+    override fun onFrameConsumed(target: FrameTarget) {
+        target.substitute?.let { provider.release(it) }
+        target.substitute = null
+    }
+
+    override fun onResult(isSuccessful: Boolean, result: String) {
+        provider.onResult(isSuccessful, result)
+    }
+}
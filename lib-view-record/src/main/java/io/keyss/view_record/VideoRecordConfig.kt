@@ -2,7 +2,10 @@ package io.keyss.view_record
 
 import android.media.MediaCodec
 import android.media.MediaFormat
+import android.os.Build
 import io.keyss.view_record.utils.VRLogger
+import io.keyss.view_record.utils.yuv.ConvertKernel
+import io.keyss.view_record.utils.yuv.YuvColorSpace
 import kotlin.math.max
 
 data class VideoRecordConfig(
@@ -17,6 +20,10 @@ data class VideoRecordConfig(
     val frameRate: Float,
     /** I帧间隔：秒 */
     val iFrameInterval: Float,
+    /** 输入YUV的颜色标准和范围 */
+    val colorSpace: YuvColorSpace = YuvColorSpace.BT601_LIMITED,
+    /** ARGB转YUV的计算方式，只影响转换，不写入MediaFormat */
+    val convertKernel: ConvertKernel = ConvertKernel.ARITHMETIC,
 ) {
     val videoMediaCodec: MediaCodec
     var videoTrackIndex: Int = -1
@@ -41,6 +48,12 @@ data class VideoRecordConfig(
         mediaFormat.setFloat(MediaFormat.KEY_FRAME_RATE, frameRate)
         // 关键帧，单位居然是秒，25开始可以float
         mediaFormat.setFloat(MediaFormat.KEY_I_FRAME_INTERVAL, iFrameInterval)
+        // 默认的BT601_LIMITED不声明，保持原来的配置
+        if (colorSpace != YuvColorSpace.BT601_LIMITED && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            mediaFormat.setInteger(MediaFormat.KEY_COLOR_STANDARD, colorSpace.colorStandard)
+            mediaFormat.setInteger(MediaFormat.KEY_COLOR_RANGE, colorSpace.colorRange)
+            mediaFormat.setInteger(MediaFormat.KEY_COLOR_TRANSFER, MediaFormat.COLOR_TRANSFER_SDR_VIDEO)
+        }
         videoMediaCodec = MediaCodec.createEncoderByType(videoMimeType)
         videoMediaCodec.configure(mediaFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE)
         VRLogger.d(
@@ -28,6 +28,7 @@ import java.util.List;
 
 import io.keyss.view_record.base.BaseEncoder;
 import io.keyss.view_record.base.Frame;
+import io.keyss.view_record.base.OverflowPolicy;
 import io.keyss.view_record.utils.CodecUtil;
 
 /**
@@ -37,16 +38,62 @@ import io.keyss.view_record.utils.CodecUtil;
  */
 
 public class AudioEncoder extends BaseEncoder {
+    /**
+     * COALESCE时最多拼成几段，编码器的输入buffer按这个倍数加大
+     */
+    public static final int COALESCE_MAX_FRAMES = 4;
+
+    public interface DropListener {
+        /**
+         * 丢掉一段PCM时在麦克风线程回调，可以用来报警
+         *
+         * @param durationUs      这次丢掉的时长
+         * @param totalDurationUs 本次录制累计丢掉的时长
+         */
+        void onPcmDropped(long durationUs, long totalDurationUs);
+    }
 
     private final GetAacData getAacData;
     private int bitRate = 192 * 1024;  //in kbps
     private int sampleRate = 44100; //in hz
     private int maxInputSize = 0;
     private boolean isStereo = true;
+    /**
+     * 与MicrophoneManager共用，编码器用完的PCM buffer归还到这里，为null时不归还
+     */
+    private volatile PcmBufferPool<byte[]> pcmBufferPool;
+    /**
+     * 与MicrophoneManager共用，direct的Frame用完归还到这里
+     */
+    private volatile PcmBufferPool<ByteBuffer> directBufferPool;
+    private PcmBackpressure backpressure = PcmBackpressure.DROP_NEWEST;
+    private volatile DropListener dropListener;
+    // 丢弃都发生在麦克风线程
+    private volatile long droppedCount;
+    private volatile long droppedDurationUs;
+    private volatile long coalescedCount;
+    /**
+     * COALESCE时拼接用的buffer，只在麦克风线程写
+     */
+    private byte[] coalesceBuffer = new byte[0];
+    /**
+     * 拼好还没送入队列的字节数，0为没有
+     */
+    private int coalesceSize;
+    private long coalesceTimeStamp;
+    /**
+     * coalesceBuffer在队列里等编码器取走，这期间不能再拼
+     */
+    private volatile boolean isCoalesceQueued;
 
     public AudioEncoder(GetAacData getAacData) {
         this.getAacData = getAacData;
         TAG = "AudioEncoder";
+        // DROP_OLDEST丢掉的同样计入并归还
+        queue.setEvictionListener(frame -> {
+            onDropped(frame.getSize());
+            onInputConsumed(frame);
+        });
     }
 
     /**
@@ -70,7 +117,12 @@ public class AudioEncoder extends BaseEncoder {
             int channelCount = (isStereo) ? 2 : 1;
             MediaFormat audioFormat = MediaFormat.createAudioFormat(CodecUtil.AAC_MIME, sampleRate, channelCount);
             audioFormat.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
-            audioFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, maxInputSize);
+            if (backpressure == PcmBackpressure.COALESCE) {
+                coalesceBuffer = new byte[maxInputSize * COALESCE_MAX_FRAMES];
+                audioFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, coalesceBuffer.length);
+            } else {
+                audioFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, maxInputSize);
+            }
             audioFormat.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
             setCallback();
             codec.configure(audioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
@@ -95,6 +147,11 @@ public class AudioEncoder extends BaseEncoder {
     @Override
     public void start(boolean resetTs) {
         shouldReset = resetTs;
+        droppedCount = 0;
+        droppedDurationUs = 0;
+        coalescedCount = 0;
+        coalesceSize = 0;
+        isCoalesceQueued = false;
         Log.i(TAG, "started");
     }
 
@@ -115,6 +172,108 @@ public class AudioEncoder extends BaseEncoder {
         return queue.take();
     }
 
+    @Override
+    protected void onInputConsumed(@NonNull Frame frame) {
+        if (frame.getBuffer() == coalesceBuffer) {
+            isCoalesceQueued = false;
+            return;
+        }
+        releasePcm(frame);
+    }
+
+    public void setPcmBufferPool(PcmBufferPool<byte[]> pcmBufferPool) {
+        this.pcmBufferPool = pcmBufferPool;
+    }
+
+    public PcmBufferPool<byte[]> getPcmBufferPool() {
+        return pcmBufferPool;
+    }
+
+    public void setDirectBufferPool(PcmBufferPool<ByteBuffer> directBufferPool) {
+        this.directBufferPool = directBufferPool;
+    }
+
+    public PcmBufferPool<ByteBuffer> getDirectBufferPool() {
+        return directBufferPool;
+    }
+
+    /**
+     * 输入队列满时的处理，COALESCE需在prepareAudioEncoder前设置
+     *
+     * @param blockTimeoutMs 只对BLOCK生效，麦克风线程最多等待的时间，一段PCM一般20ms左右，不宜超过
+     */
+    public void setBackpressure(@NonNull PcmBackpressure backpressure, long blockTimeoutMs) {
+        this.backpressure = backpressure;
+        OverflowPolicy policy = switch (backpressure) {
+            case DROP_OLDEST -> OverflowPolicy.DROP_OLDEST;
+            case BLOCK -> OverflowPolicy.BLOCK;
+            default -> OverflowPolicy.DROP_NEWEST;
+        };
+        queue.setOverflowPolicy(policy, blockTimeoutMs);
+    }
+
+    @NonNull
+    public PcmBackpressure getBackpressure() {
+        return backpressure;
+    }
+
+    public void setDropListener(DropListener dropListener) {
+        this.dropListener = dropListener;
+    }
+
+    /**
+     * @return 本次录制丢掉的段数
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return 本次录制丢掉的PCM时长，微秒
+     */
+    public long getDroppedDurationUs() {
+        return droppedDurationUs;
+    }
+
+    /**
+     * @return COALESCE时经拼接送入的段数
+     */
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * 麦克风侧读到了但没能送进来的一段，如PcmBufferPool用完，同样计入丢弃
+     */
+    public void inputPCMDropped(int size) {
+        if (running) {
+            onDropped(size);
+        }
+    }
+
+    private void onDropped(int size) {
+        int channelCount = isStereo ? 2 : 1;
+        // 16位PCM
+        long durationUs = size * 1_000_000L / ((long) sampleRate * channelCount * 2);
+        droppedCount++;
+        droppedDurationUs += durationUs;
+        DropListener listener = dropListener;
+        if (listener != null) {
+            listener.onPcmDropped(durationUs, droppedDurationUs);
+        }
+    }
+
+    private void releasePcm(@NonNull Frame frame) {
+        ByteBuffer directBuffer = frame.getDirectBuffer();
+        if (directBuffer != null) {
+            PcmBufferPool<ByteBuffer> pool = directBufferPool;
+            if (pool != null) pool.release(directBuffer);
+            return;
+        }
+        PcmBufferPool<byte[]> pool = pcmBufferPool;
+        if (pool != null) pool.release(frame.getBuffer());
+    }
+
     @Override
     protected long calculatePts(Frame frame, long presentTimeUs) {
         return Math.max(0, frame.getTimeStamp() - presentTimeUs);
@@ -137,9 +296,71 @@ public class AudioEncoder extends BaseEncoder {
      * Used too with microphone.
      */
     public void inputPCMData(@NonNull Frame frame) {
-        if (running && !queue.offer(frame)) {
-            Log.i(TAG, "frame discarded");
+        if (!running) {
+            releasePcm(frame);
+            return;
+        }
+        boolean isQueued = backpressure == PcmBackpressure.COALESCE ? inputCoalesced(frame) : queue.offer(frame);
+        if (isQueued) {
+            return;
+        }
+        Log.i(TAG, "frame discarded");
+        onDropped(frame.getSize());
+        // 没进队列的直接归还
+        releasePcm(frame);
+    }
+
+    /**
+     * @return false为这一段要丢掉；拼进coalesceBuffer的也返回true，buffer在这里归还
+     */
+    private boolean inputCoalesced(@NonNull Frame frame) {
+        if (coalesceSize > 0) {
+            // 先拼在积压的后面，保证时间顺序
+            if (coalesceSize + frame.getSize() <= coalesceBuffer.length) {
+                appendCoalesced(frame);
+                flushCoalesced();
+                return true;
+            }
+            if (!flushCoalesced()) {
+                return false;
+            }
+        }
+        if (queue.offer(frame)) {
+            return true;
+        }
+        if (isCoalesceQueued || frame.getSize() > coalesceBuffer.length) {
+            return false;
+        }
+        coalesceTimeStamp = frame.getTimeStamp();
+        appendCoalesced(frame);
+        return true;
+    }
+
+    private void appendCoalesced(@NonNull Frame frame) {
+        ByteBuffer directBuffer = frame.getDirectBuffer();
+        if (directBuffer != null) {
+            directBuffer.limit(frame.getOffset() + frame.getSize()).position(frame.getOffset());
+            directBuffer.get(coalesceBuffer, coalesceSize, frame.getSize());
+        } else {
+            System.arraycopy(frame.getBuffer(), frame.getOffset(), coalesceBuffer, coalesceSize, frame.getSize());
+        }
+        coalesceSize += frame.getSize();
+        coalescedCount++;
+        releasePcm(frame);
+    }
+
+    /**
+     * @return false为队列仍满，继续积压
+     */
+    private boolean flushCoalesced() {
+        // 先置位，编码器可能在offer返回前就取走并清掉
+        isCoalesceQueued = true;
+        if (!queue.offer(coalesceBuffer, 0, coalesceSize, coalesceTimeStamp)) {
+            isCoalesceQueued = false;
+            return false;
         }
+        coalesceSize = 0;
+        return true;
     }
 
     @Override
@@ -21,5 +21,14 @@ import io.keyss.view_record.base.Frame
  * Created by pedro on 19/01/17.
  */
 interface GetMicrophoneData {
+    /**
+     * MicrophoneManager设置了PcmBufferPool时frame对象每次复用，需在回调内取走字段，buffer用完归还到池
+     */
     fun inputPCMData(frame: Frame)
+
+    /**
+     * 读到了但没有交给inputPCMData的一段，如PcmBufferPool没有空闲buffer
+     * @param size 字节数
+     */
+    fun onPCMDropped(size: Int) {}
 }
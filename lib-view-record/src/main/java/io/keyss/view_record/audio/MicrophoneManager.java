@@ -24,6 +24,9 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.Log;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import io.keyss.view_record.base.Frame;
 
 /**
@@ -51,6 +54,19 @@ public class MicrophoneManager {
     private AudioPostProcessEffect audioPostProcessEffect;
     protected HandlerThread handlerThread;
     protected CustomAudioEffect customAudioEffect = new NoAudioEffect();
+    /**
+     * 不为null时每次读取到池中独立的buffer，由编码器用完后归还，为null时都读到pcmBuffer
+     */
+    private volatile PcmBufferPool<byte[]> pcmBufferPool;
+    /**
+     * 不为null时优先于pcmBufferPool，AudioRecord直接读到池中的direct buffer，编码器buffer到buffer拷贝
+     */
+    private volatile PcmBufferPool<ByteBuffer> directBufferPool;
+    /**
+     * 有pcmBufferPool时每次读取复用，inputPCMData中需要取走字段，不能持有
+     */
+    private final Frame pcmFrame = new Frame(new byte[0], 0, 0, 0);
+    private final Frame directFrame = new Frame(ByteBuffer.allocate(0), 0, 0, 0);
 
     public MicrophoneManager(GetMicrophoneData getMicrophoneData) {
         this.getMicrophoneData = getMicrophoneData;
@@ -60,6 +76,28 @@ public class MicrophoneManager {
         this.customAudioEffect = customAudioEffect;
     }
 
+    /**
+     * 需在start前设置，buffer大小不小于{@link #getInputBufferSize()}，接收方用完buffer后归还到同一个池
+     */
+    public void setPcmBufferPool(PcmBufferPool<byte[]> pcmBufferPool) {
+        this.pcmBufferPool = pcmBufferPool;
+    }
+
+    public PcmBufferPool<byte[]> getPcmBufferPool() {
+        return pcmBufferPool;
+    }
+
+    /**
+     * 需在start前设置，优先于pcmBufferPool，buffer大小不小于{@link #getInputBufferSize()}，接收方用完buffer后归还到同一个池
+     */
+    public void setDirectBufferPool(PcmBufferPool<ByteBuffer> directBufferPool) {
+        this.directBufferPool = directBufferPool;
+    }
+
+    public PcmBufferPool<ByteBuffer> getDirectBufferPool() {
+        return directBufferPool;
+    }
+
     /**
      * Create audio record
      */
@@ -114,6 +152,12 @@ public class MicrophoneManager {
      */
     public synchronized void start() {
         init();
+        if (pcmBufferPool != null) {
+            pcmBufferPool.reset();
+        }
+        if (directBufferPool != null) {
+            directBufferPool.reset();
+        }
         handlerThread = new HandlerThread(TAG);
         handlerThread.start();
         Handler handler = new Handler(handlerThread.getLooper());
@@ -153,6 +197,14 @@ public class MicrophoneManager {
      * @return Object with size and PCM buffer data
      */
     protected Frame read() {
+        PcmBufferPool<ByteBuffer> directPool = directBufferPool;
+        if (directPool != null) {
+            return readDirect(directPool);
+        }
+        PcmBufferPool<byte[]> pool = pcmBufferPool;
+        if (pool != null) {
+            return readPooled(pool);
+        }
         long timeStamp = System.nanoTime() / 1000;
         int size = audioRecord.read(pcmBuffer, 0, pcmBuffer.length);
         if (size < 0) {
@@ -162,6 +214,83 @@ public class MicrophoneManager {
         return new Frame(muted ? pcmBufferMuted : customAudioEffect.process(pcmBuffer), 0, size, timeStamp);
     }
 
+    /**
+     * 读到池中的buffer，静音和音效都写回这个buffer，Frame不会和下一次读取共用数据
+     */
+    private Frame readPooled(PcmBufferPool<byte[]> pool) {
+        long timeStamp = System.nanoTime() / 1000;
+        byte[] buffer = pool.obtain();
+        if (buffer == null) {
+            // 编码器积压到没有空闲buffer，照常读走避免AudioRecord溢出，这一段丢掉
+            int size = audioRecord.read(pcmBuffer, 0, pcmBuffer.length);
+            if (size < 0) {
+                Log.e(TAG, "read error: " + size);
+            } else {
+                getMicrophoneData.onPCMDropped(size);
+            }
+            return null;
+        }
+        int size = audioRecord.read(buffer, 0, Math.min(buffer.length, pcmBuffer.length));
+        if (size < 0) {
+            Log.e(TAG, "read error: " + size);
+            pool.release(buffer);
+            return null;
+        }
+        if (muted) {
+            Arrays.fill(buffer, 0, size, (byte) 0);
+        } else {
+            byte[] processed = customAudioEffect.process(buffer);
+            if (processed != buffer) {
+                System.arraycopy(processed, 0, buffer, 0, Math.min(size, processed.length));
+            }
+        }
+        pcmFrame.setBuffer(buffer);
+        pcmFrame.setOffset(0);
+        pcmFrame.setSize(size);
+        pcmFrame.setTimeStamp(timeStamp);
+        return pcmFrame;
+    }
+
+    /**
+     * 读到池中的direct buffer，没有音效时数据不进堆；有音效时拷到pcmBuffer处理后写回
+     */
+    private Frame readDirect(PcmBufferPool<ByteBuffer> pool) {
+        long timeStamp = System.nanoTime() / 1000;
+        ByteBuffer buffer = pool.obtain();
+        if (buffer == null) {
+            // 编码器积压到没有空闲buffer，照常读走避免AudioRecord溢出，这一段丢掉
+            int size = audioRecord.read(pcmBuffer, 0, pcmBuffer.length);
+            if (size < 0) {
+                Log.e(TAG, "read error: " + size);
+            } else {
+                getMicrophoneData.onPCMDropped(size);
+            }
+            return null;
+        }
+        buffer.clear();
+        int size = audioRecord.read(buffer, Math.min(buffer.capacity(), pcmBuffer.length));
+        if (size < 0) {
+            Log.e(TAG, "read error: " + size);
+            pool.release(buffer);
+            return null;
+        }
+        if (muted) {
+            for (int i = 0; i < size; i++) {
+                buffer.put(i, (byte) 0);
+            }
+        } else if (!(customAudioEffect instanceof NoAudioEffect)) {
+            buffer.get(pcmBuffer, 0, size);
+            byte[] processed = customAudioEffect.process(pcmBuffer);
+            buffer.clear();
+            buffer.put(processed, 0, Math.min(size, processed.length));
+        }
+        directFrame.setDirectBuffer(buffer);
+        directFrame.setOffset(0);
+        directFrame.setSize(size);
+        directFrame.setTimeStamp(timeStamp);
+        return directFrame;
+    }
+
     /**
      * Stop and release microphone
      */
@@ -0,0 +1,23 @@
+package io.keyss.view_record.audio;
+
+/**
+ * Description: 编码器跟不上、输入队列满时麦克风数据怎么处理
+ */
+public enum PcmBackpressure {
+    /**
+     * 丢掉新读到的这一段，原来的行为
+     */
+    DROP_NEWEST,
+    /**
+     * 丢掉队列里最早的一段，保证声音是最新的
+     */
+    DROP_OLDEST,
+    /**
+     * 麦克风线程等待编码器取走，超过blockTimeoutMs仍满时丢掉新的；等太久AudioRecord自己会溢出
+     */
+    BLOCK,
+    /**
+     * 队列满时把后续几段拼成一帧，有空位时整帧送入，编码器的输入buffer相应加大，最多拼COALESCE_MAX_FRAMES段
+     */
+    COALESCE,
+}
@@ -0,0 +1,129 @@
+package io.keyss.view_record.audio;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Description: 固定数量的PCM buffer，麦克风每次读取取一个，编码器把数据放进输入buffer后归还
+ * <p>
+ * 原来每次读取都写同一个pcmBuffer，前一帧还在编码器队列里时就被下一次读取覆盖，负载高时编码出错乱的声音
+ * 每帧一个独立的buffer就不会互相覆盖，又不用每次读取都分配
+ * 没有空闲的说明编码器积压了，这一段丢掉，记在exhaustedCount
+ * 麦克风线程取、编码器线程还，方法都加锁，一秒几十次，不会有竞争
+ * buffer由factory创建，堆上的byte[]用{@link #heap(int)}，AudioRecord直接读入、编码器buffer到buffer拷贝的direct ByteBuffer用{@link #direct(int)}
+ */
+public class PcmBufferPool<T> {
+    /**
+     * 与编码器队列的80个对应，加上正在读取的和编码器正在使用的各一个
+     */
+    public static final int DEFAULT_COUNT = 82;
+
+    /**
+     * java.util.function.IntFunction要API 24
+     */
+    public interface Factory<T> {
+        @NonNull
+        T create(int bufferSize);
+    }
+
+    private final Object[] buffers;
+    private final int bufferSize;
+    private final boolean[] inUse;
+    /**
+     * 空闲buffer的下标，栈
+     */
+    private final int[] free;
+    private int freeCount;
+    private long exhaustedCount;
+
+    /**
+     * @param factory 按bufferSize创建一个buffer，启动时调用count次
+     */
+    public PcmBufferPool(int count, int bufferSize, @NonNull Factory<T> factory) {
+        if (count <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException("invalid pool: count=" + count + ", bufferSize=" + bufferSize);
+        }
+        buffers = new Object[count];
+        for (int i = 0; i < count; i++) {
+            buffers[i] = factory.create(bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        inUse = new boolean[count];
+        free = new int[count];
+        reset();
+    }
+
+    public static PcmBufferPool<byte[]> heap(int bufferSize) {
+        return new PcmBufferPool<>(DEFAULT_COUNT, bufferSize, byte[]::new);
+    }
+
+    /**
+     * 取出的buffer的position和limit是上一次使用留下的，写入前由使用方clear
+     */
+    public static PcmBufferPool<ByteBuffer> direct(int bufferSize) {
+        return new PcmBufferPool<>(DEFAULT_COUNT, bufferSize, ByteBuffer::allocateDirect);
+    }
+
+    /**
+     * @return 没有空闲的时返回null
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public synchronized T obtain() {
+        if (freeCount == 0) {
+            exhaustedCount++;
+            return null;
+        }
+        int index = free[--freeCount];
+        inUse[index] = true;
+        return (T) buffers[index];
+    }
+
+    /**
+     * 不是从池里取的或已经归还过的忽略
+     */
+    public synchronized void release(T buffer) {
+        for (int i = 0; i < buffers.length; i++) {
+            if (buffers[i] == buffer) {
+                if (inUse[i]) {
+                    inUse[i] = false;
+                    free[freeCount++] = i;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 全部标记为空闲，开始录制时调用，上一次停止时还在队列里的不再归还
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < buffers.length; i++) {
+            inUse[i] = false;
+            free[i] = i;
+        }
+        freeCount = buffers.length;
+        exhaustedCount = 0;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getCount() {
+        return buffers.length;
+    }
+
+    public synchronized int getFreeCount() {
+        return freeCount;
+    }
+
+    /**
+     * @return 没有空闲buffer的次数，即丢掉的读取次数
+     */
+    public synchronized long getExhaustedCount() {
+        return exhaustedCount;
+    }
+}
@@ -26,10 +26,9 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 
 import java.nio.ByteBuffer;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 
 import io.keyss.view_record.utils.CodecUtil;
+import io.keyss.view_record.utils.FrameLatencyTracker;
 import io.keyss.view_record.video.EncoderCallback;
 import io.keyss.view_record.video.EncoderErrorCallback;
 import io.keyss.view_record.video.IFrameDataGetter;
@@ -41,8 +40,8 @@ public abstract class BaseEncoder implements EncoderCallback {
     protected String TAG = "BaseEncoder";
     private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
     private HandlerThread handlerThread;
-    // 持续输入数据的队列
-    protected BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(80);
+    // 持续输入数据的队列，生产者和编码器回调线程各一个，take到的Frame在下一次take前有效
+    protected final FrameRing queue = new FrameRing(80);
     // 实时型
     protected boolean isRealTime = false;
     // 获取当前数据帧接口
@@ -57,6 +56,10 @@ public abstract class BaseEncoder implements EncoderCallback {
     protected boolean prepared = false;
     private Handler handler;
     private EncoderErrorCallback encoderErrorCallback;
+    /**
+     * 为null时不统计每帧各阶段的耗时
+     */
+    private volatile FrameLatencyTracker latencyTracker;
 
     public void setEncoderErrorCallback(EncoderErrorCallback encoderErrorCallback) {
         this.encoderErrorCallback = encoderErrorCallback;
@@ -71,6 +74,42 @@ public abstract class BaseEncoder implements EncoderCallback {
         isRealTime = realTime;
     }
 
+    public void setLatencyTracker(FrameLatencyTracker latencyTracker) {
+        this.latencyTracker = latencyTracker;
+    }
+
+    public FrameLatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
+    /**
+     * 输入队列除了80帧外再按字节数限制，满时按policy处理，需在start前设置
+     *
+     * @param maxBytes       小于等于0为不限制
+     * @param blockTimeoutMs 只对{@link OverflowPolicy#BLOCK}生效
+     */
+    public void setInputQueueLimit(long maxBytes, @NonNull OverflowPolicy policy, long blockTimeoutMs) {
+        queue.setMaxBytes(maxBytes);
+        queue.setOverflowPolicy(policy, blockTimeoutMs);
+    }
+
+    /**
+     * 可以看丢帧的统计，不要在外部offer或take
+     */
+    public FrameRing getInputQueue() {
+        return queue;
+    }
+
+    /**
+     * queueInputBuffer之后调用
+     *
+     * @param captureTimeUs 这一帧数据取到的时间，System.nanoTime() / 1000
+     */
+    protected void onInputQueued(long pts, long captureTimeUs) {
+        FrameLatencyTracker tracker = latencyTracker;
+        if (tracker != null) tracker.onQueued(pts, captureTimeUs);
+    }
+
     public void restart() {
         start(false);
         initCodec();
@@ -159,8 +198,8 @@ public abstract class BaseEncoder implements EncoderCallback {
             } catch (Exception ignored) {
             }
         }
+        // 编码线程已经退出，可以在这里清空
         queue.clear();
-        queue = new ArrayBlockingQueue<>(80);
         try {
             codec.stop();
             codec.release();
@@ -178,8 +217,24 @@ public abstract class BaseEncoder implements EncoderCallback {
 
     protected abstract Frame getInputFrame() throws InterruptedException;
 
+    /**
+     * 直接把数据写入编码器的输入buffer（或getInputImage的Image）并queue，不经过{@link Frame}
+     *
+     * @return 是否已处理（包括停止时放弃），false时走{@link #getInputFrame()}
+     */
+    protected boolean queueInputDirectly(@NonNull MediaCodec mediaCodec, int inBufferIndex,
+                                         @NonNull ByteBuffer byteBuffer) throws InterruptedException {
+        return false;
+    }
+
     protected abstract long calculatePts(Frame frame, long presentTimeUs);
 
+    /**
+     * frame的数据已经拷贝到编码器的输入buffer，frame.buffer可以交还给生产者复用
+     */
+    protected void onInputConsumed(@NonNull Frame frame) {
+    }
+
     /**
      * 这个方法里多处耗时的地方，都要处理终止状态，否则会报个不大不小，毫无影响的异常，就是这个byteBuffer已经不可用了
      */
@@ -192,18 +247,37 @@ public abstract class BaseEncoder implements EncoderCallback {
             return;
         }
         try {
+            if (queueInputDirectly(mediaCodec, inBufferIndex, byteBuffer)) {
+                return;
+            }
             Frame frame = getInputFrame();
             // 如果停止的时候返回null，那这里就会死循环，所以上一层不可以给null
             while (frame == null && running) frame = getInputFrame();
             // 在这里终止掉
             if (!running) {
                 Log.d(TAG, "processInput3: not running");
+                // 已经取出的帧同样要归还，否则池里的buffer少一个
+                if (frame != null) onInputConsumed(frame);
                 return;
             }
-            int size = Math.max(0, Math.min(frame.getSize(), byteBuffer.remaining()) - frame.getOffset());
-            byteBuffer.put(frame.getBuffer(), frame.getOffset(), size);
+            int size;
+            try {
+                ByteBuffer directBuffer = frame.getDirectBuffer();
+                if (directBuffer != null) {
+                    // direct到direct，一次memcpy；directBuffer在归还前只有这里在用，直接改position和limit
+                    size = Math.max(0, Math.min(frame.getSize(), byteBuffer.remaining()));
+                    directBuffer.limit(frame.getOffset() + size).position(frame.getOffset());
+                    byteBuffer.put(directBuffer);
+                } else {
+                    size = Math.max(0, Math.min(frame.getSize(), byteBuffer.remaining()) - frame.getOffset());
+                    byteBuffer.put(frame.getBuffer(), frame.getOffset(), size);
+                }
+            } finally {
+                onInputConsumed(frame);
+            }
             long pts = calculatePts(frame, presentTimeUs);
             mediaCodec.queueInputBuffer(inBufferIndex, 0, size, pts, 0);
+            onInputQueued(pts, frame.getTimeStamp());
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         } catch (NullPointerException | IndexOutOfBoundsException e) {
@@ -217,8 +291,13 @@ public abstract class BaseEncoder implements EncoderCallback {
 
     private void processOutput(@NonNull ByteBuffer byteBuffer, @NonNull MediaCodec mediaCodec,
                                int outBufferIndex, @NonNull MediaCodec.BufferInfo bufferInfo) throws IllegalStateException {
+        FrameLatencyTracker tracker = latencyTracker;
+        // checkBuffer可能改pts，按送入时的pts对应
+        long pts = bufferInfo.presentationTimeUs;
+        if (tracker != null) tracker.onEncoded(pts);
         checkBuffer(byteBuffer, bufferInfo);
         sendBuffer(byteBuffer, bufferInfo);
+        if (tracker != null) tracker.onMuxed(pts);
         mediaCodec.releaseOutputBuffer(outBufferIndex, false);
     }
 
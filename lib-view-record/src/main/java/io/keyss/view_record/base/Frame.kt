@@ -15,6 +15,8 @@
  */
 package io.keyss.view_record.base
 
+import java.nio.ByteBuffer
+
 /**
  * Created by pedro on 17/02/18.
  */
@@ -24,6 +26,12 @@ class Frame {
     var size: Int
     var timeStamp: Long
 
+    /**
+     * 不为null时数据在这个direct buffer的[offset, offset + size)，buffer不使用
+     * 编码器直接buffer到buffer拷贝，不经过堆上的数组
+     */
+    var directBuffer: ByteBuffer? = null
+
     constructor(buffer: ByteArray, timeStamp: Long = System.nanoTime() / 1000) {
         this.buffer = buffer
         offset = 0
@@ -41,7 +49,22 @@ class Frame {
         this.timeStamp = timeStamp
     }
 
+    /**
+     * 数据在direct buffer中，一般来自PcmBufferPool.direct
+     */
+    constructor(directBuffer: ByteBuffer, offset: Int, size: Int, timeStamp: Long = System.nanoTime() / 1000) {
+        this.buffer = EMPTY_BUFFER
+        this.directBuffer = directBuffer
+        this.offset = offset
+        this.size = size
+        this.timeStamp = timeStamp
+    }
+
+    private companion object {
+        val EMPTY_BUFFER = ByteArray(0)
+    }
+
     override fun toString(): String {
-        return "Frame(offset=$offset, size=$size, timeStamp=$timeStamp)"
+        return "Frame(offset=$offset, size=$size, timeStamp=$timeStamp, isDirect=${directBuffer != null})"
     }
 }
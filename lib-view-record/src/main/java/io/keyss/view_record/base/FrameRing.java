@@ -0,0 +1,396 @@
+package io.keyss.view_record.base;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Description: 单生产者单消费者的无锁环形队列，槽位是预先分配的{@link Frame}，入队只改槽位的字段，不再每帧新建Frame
+ * <p>
+ * 生产者（麦克风线程、取帧线程）只写tail，head由消费者（编码器回调线程）推进，DROP_OLDEST时生产者也会推进，都用CAS
+ * 取出的Frame在消费者下一次take/poll之前不会被覆盖，为此多分配一个槽位，可用容量仍为capacity
+ * 消费者卡在一帧上时（没有再take/poll），队列写满后DROP_OLDEST也只能丢新来的
+ * take在空时park等待，生产者入队后unpark，被中断时抛InterruptedException，与BlockingQueue.take相同
+ * <p>
+ * 除了帧数，还可以按字节数限制（maxBytes），1080p的NV12一帧3M，80帧就是250M
+ * 满时按{@link OverflowPolicy}处理，丢掉的帧数和字节数都有统计
+ */
+public class FrameRing {
+    private static final byte[] EMPTY = new byte[0];
+    /**
+     * 兜底的等待时间，正常由另一方unpark
+     */
+    private static final long PARK_NANOS = 10_000_000L;
+    /**
+     * park前先让出几次CPU，生产者紧接着入队时省掉一次park/unpark
+     */
+    private static final int YIELD_TRIES = 16;
+
+    public interface EvictionListener {
+        /**
+         * DROP_OLDEST丢掉队列里的一帧时在生产者线程回调，返回后槽位会被复用
+         */
+        void onEvicted(@NonNull Frame frame);
+    }
+
+    private final int capacity;
+    private final Frame[] slots;
+    /**
+     * 消费者下一次取的位置
+     */
+    private final AtomicLong head = new AtomicLong();
+    /**
+     * 生产者下一次写的位置，只有生产者写
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * 队列中的字节数，两边都会改
+     */
+    private final AtomicLong queuedBytes = new AtomicLong();
+    /**
+     * 消费者正在使用的位置，这个槽位在消费者下一次take/poll之前不能写；-1为没有
+     */
+    private volatile long inUse = -1;
+    /**
+     * 在take中等待的消费者线程
+     */
+    private volatile Thread waiter;
+    /**
+     * BLOCK时等待空间的生产者线程
+     */
+    private volatile Thread producerWaiter;
+
+    private volatile long maxBytes = 0;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+    private volatile long blockTimeoutMs = 0;
+    private volatile EvictionListener evictionListener;
+
+    // 丢帧只发生在生产者线程
+    private volatile long droppedNewestCount;
+    private volatile long droppedOldestCount;
+    private volatile long droppedBytes;
+    private volatile long blockTimeoutCount;
+
+    public FrameRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        slots = new Frame[capacity + 1];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Frame(EMPTY, 0, 0, 0);
+        }
+    }
+
+    /**
+     * @param maxBytes 队列中最多的字节数，小于等于0为不限制；队列为空时超出的一帧也能进去
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @param blockTimeoutMs 只对BLOCK生效，生产者最多等待的时间
+     */
+    public void setOverflowPolicy(@NonNull OverflowPolicy overflowPolicy, long blockTimeoutMs) {
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMs = blockTimeoutMs;
+    }
+
+    @NonNull
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setEvictionListener(@Nullable EvictionListener evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * 生产者取一个空槽位自己填写，填完调用{@link #publish()}；没有空槽位时返回null，只检查帧数
+     * 槽位的buffer是上一次使用留下的，可以直接复用
+     */
+    @Nullable
+    public Frame claim() {
+        long t = tail.get();
+        if (!hasRoom(t, 0)) {
+            return null;
+        }
+        return slots[index(t)];
+    }
+
+    /**
+     * 把{@link #claim()}取到的槽位交给消费者
+     */
+    public void publish() {
+        long t = tail.get();
+        queuedBytes.addAndGet(slots[index(t)].getSize());
+        // volatile写，与take中写waiter再读tail配对，不会漏掉唤醒
+        tail.set(t + 1);
+        Thread w = waiter;
+        if (w != null) {
+            LockSupport.unpark(w);
+        }
+    }
+
+    /**
+     * 只引用buffer，不拷贝；满时按overflowPolicy处理
+     *
+     * @return false为新来的这一帧被丢掉
+     */
+    public boolean offer(byte[] buffer, int offset, int size, long timeStamp) {
+        return offer(buffer, null, offset, size, timeStamp);
+    }
+
+    private boolean offer(byte[] buffer, @Nullable ByteBuffer directBuffer, int offset, int size, long timeStamp) {
+        long t = tail.get();
+        if (!hasRoom(t, size) && !makeRoom(t, size)) {
+            droppedNewestCount++;
+            droppedBytes += size;
+            return false;
+        }
+        Frame slot = slots[index(t)];
+        slot.setBuffer(buffer);
+        slot.setDirectBuffer(directBuffer);
+        slot.setOffset(offset);
+        slot.setSize(size);
+        slot.setTimeStamp(timeStamp);
+        publish();
+        return true;
+    }
+
+    /**
+     * 把frame的字段写入槽位，包括directBuffer，frame本身可以由调用方继续复用
+     */
+    public boolean offer(@NonNull Frame frame) {
+        return offer(frame.getBuffer(), frame.getDirectBuffer(), frame.getOffset(), frame.getSize(), frame.getTimeStamp());
+    }
+
+    /**
+     * 不等待，空时返回null；返回的Frame在下一次take/poll前有效
+     */
+    @Nullable
+    public Frame poll() {
+        // 再次来取说明上一帧已经用完
+        inUse = -1;
+        while (true) {
+            long h = head.get();
+            if (h >= tail.get()) {
+                inUse = -1;
+                return null;
+            }
+            // CAS之前先登记：CAS成功的同时生产者就可能DROP_OLDEST绕回到这个槽位，成功后再登记就晚了
+            // CAS失败时登记的是别人已经拿走的位置，只会让生产者多等一轮
+            inUse = h;
+            if (head.compareAndSet(h, h + 1)) {
+                Frame frame = slots[index(h)];
+                queuedBytes.addAndGet(-frame.getSize());
+                Thread w = producerWaiter;
+                if (w != null) {
+                    LockSupport.unpark(w);
+                }
+                return frame;
+            }
+            // 被DROP_OLDEST抢先，重新取
+        }
+    }
+
+    /**
+     * 空时等待；返回的Frame在下一次take/poll前有效
+     */
+    @NonNull
+    public Frame take() throws InterruptedException {
+        while (true) {
+            Frame frame = poll();
+            if (frame != null) {
+                return frame;
+            }
+            for (int i = 0; i < YIELD_TRIES; i++) {
+                Thread.yield();
+                frame = poll();
+                if (frame != null) {
+                    return frame;
+                }
+            }
+            waiter = Thread.currentThread();
+            try {
+                frame = poll();
+                if (frame != null) {
+                    return frame;
+                }
+                LockSupport.parkNanos(this, PARK_NANOS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            } finally {
+                waiter = null;
+            }
+        }
+    }
+
+    /**
+     * 只在生产者线程调用
+     */
+    private boolean hasRoom(long t, int size) {
+        long h = head.get();
+        if (t - h >= capacity || isInUse(t)) {
+            return false;
+        }
+        long max = maxBytes;
+        return max <= 0 || t == h || queuedBytes.get() + size <= max;
+    }
+
+    /**
+     * 消费者正在用的槽位不能写，head之后的都已被DROP_OLDEST丢掉时会遇到
+     */
+    private boolean isInUse(long t) {
+        long u = inUse;
+        return u >= 0 && t - u > capacity;
+    }
+
+    /**
+     * 按overflowPolicy腾出空间
+     *
+     * @return false为没有腾出，新来的要丢掉
+     */
+    private boolean makeRoom(long t, int size) {
+        return switch (overflowPolicy) {
+            case DROP_OLDEST -> {
+                while (!hasRoom(t, size)) {
+                    // 丢掉队列里的也腾不出正在用的槽位
+                    if (isInUse(t) || !evictOldest()) {
+                        yield false;
+                    }
+                }
+                yield true;
+            }
+            case BLOCK -> awaitRoom(t, size);
+            default -> false;
+        };
+    }
+
+    /**
+     * @return false为队列已空，没有可以丢的
+     */
+    private boolean evictOldest() {
+        long h = head.get();
+        if (h >= tail.get()) {
+            return false;
+        }
+        if (head.compareAndSet(h, h + 1)) {
+            Frame frame = slots[index(h)];
+            queuedBytes.addAndGet(-frame.getSize());
+            droppedOldestCount++;
+            droppedBytes += frame.getSize();
+            EvictionListener listener = evictionListener;
+            if (listener != null) {
+                listener.onEvicted(frame);
+            }
+        }
+        // CAS失败是消费者刚取走，同样腾出了空间
+        return true;
+    }
+
+    private boolean awaitRoom(long t, int size) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+        while (true) {
+            if (hasRoom(t, size)) {
+                return true;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                blockTimeoutCount++;
+                return false;
+            }
+            producerWaiter = Thread.currentThread();
+            try {
+                if (hasRoom(t, size)) {
+                    return true;
+                }
+                LockSupport.parkNanos(this, Math.min(remaining, PARK_NANOS));
+                if (Thread.currentThread().isInterrupted()) {
+                    // 保留中断状态，交给生产者的循环处理
+                    return false;
+                }
+            } finally {
+                producerWaiter = null;
+            }
+        }
+    }
+
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return 队列中的字节数
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * @return 满时丢掉新来的帧数，包括BLOCK超时的
+     */
+    public long getDroppedNewestCount() {
+        return droppedNewestCount;
+    }
+
+    /**
+     * @return DROP_OLDEST丢掉的队列中的帧数
+     */
+    public long getDroppedOldestCount() {
+        return droppedOldestCount;
+    }
+
+    /**
+     * @return 丢掉的总字节数
+     */
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    /**
+     * @return BLOCK等待超时的次数
+     */
+    public long getBlockTimeoutCount() {
+        return blockTimeoutCount;
+    }
+
+    /**
+     * 丢掉所有未取的，只能在消费者和生产者都已停止时调用，统计清零
+     */
+    public void clear() {
+        head.set(tail.get());
+        inUse = -1;
+        queuedBytes.set(0);
+        droppedNewestCount = 0;
+        droppedOldestCount = 0;
+        droppedBytes = 0;
+        blockTimeoutCount = 0;
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % slots.length);
+    }
+}
@@ -0,0 +1,19 @@
+package io.keyss.view_record.base;
+
+/**
+ * Description: 队列满（帧数或字节数超出）时新来的一帧怎么处理
+ */
+public enum OverflowPolicy {
+    /**
+     * 丢掉新来的，offer返回false，原来ArrayBlockingQueue.offer的行为
+     */
+    DROP_NEWEST,
+    /**
+     * 丢掉队列里最早的，保证最新的数据能进去，适合实时性优先
+     */
+    DROP_OLDEST,
+    /**
+     * 生产者等待消费者取走，超过blockTimeoutMs仍没有空间时丢掉新来的
+     */
+    BLOCK,
+}
@@ -1,9 +1,12 @@
 package io.keyss.view_record.recording
 
+import android.graphics.Bitmap
+import android.graphics.Rect
 import android.media.AudioFormat
 import android.media.MediaCodec
 import android.media.MediaFormat
 import android.media.MediaRecorder
+import android.os.Build
 import android.util.Log
 import android.view.View
 import android.view.Window
@@ -11,15 +14,35 @@ import io.keyss.view_record.audio.AudioEncoder
 import io.keyss.view_record.audio.GetAacData
 import io.keyss.view_record.audio.GetMicrophoneData
 import io.keyss.view_record.audio.MicrophoneManager
+import io.keyss.view_record.audio.PcmBackpressure
+import io.keyss.view_record.audio.PcmBufferPool
 import io.keyss.view_record.base.Frame
 import io.keyss.view_record.recording.RecordController.Listener
+import io.keyss.view_record.utils.BitmapPool
+import io.keyss.view_record.utils.CaptureLatency
+import io.keyss.view_record.utils.CaptureThread
+import io.keyss.view_record.utils.DisplayListCapture
+import io.keyss.view_record.utils.FrameLatencyTracker
+import io.keyss.view_record.utils.MemoryBudget
+import io.keyss.view_record.utils.PipelinedPixelCopy
 import io.keyss.view_record.utils.RecordViewUtil
+import io.keyss.view_record.utils.yuv.ConversionContext
+import io.keyss.view_record.utils.yuv.ConvertKernel
 import io.keyss.view_record.utils.yuv.ConvertUtil
+import io.keyss.view_record.utils.yuv.DirtyTileConverter
+import io.keyss.view_record.utils.yuv.FrameTransform
+import io.keyss.view_record.utils.yuv.ParallelConverter
+import io.keyss.view_record.utils.yuv.ScaleFilter
+import io.keyss.view_record.utils.yuv.YuvColorSpace
+import io.keyss.view_record.utils.yuv.YuvPlanes
+import io.keyss.view_record.video.DuplicateFrameFilter
 import io.keyss.view_record.video.EncoderErrorCallback
 import io.keyss.view_record.video.FormatVideoEncoder
 import io.keyss.view_record.video.GetVideoData
 import io.keyss.view_record.video.IFrameDataGetter
+import io.keyss.view_record.video.QualityGovernor
 import io.keyss.view_record.video.VideoEncoder
+import io.keyss.view_record.video.ViewDrawTrigger
 import java.nio.ByteBuffer
 
 /**
@@ -53,8 +76,217 @@ class ViewRecorder {
 
     private lateinit var recordController: AndroidMuxerRecordController
 
+    /**
+     * ARGB转YUV的计算方式，每次录制前可单独设置，LOOKUP_TABLE与ARITHMETIC结果相同，BLOCK_2X2的色度为2x2平均值
+     */
+    var convertKernel: ConvertKernel = ConvertKernel.ARITHMETIC
+
+    /**
+     * 转换和编码使用的颜色标准和范围，需在init前设置，会写入编码器的MediaFormat
+     */
+    var colorSpace: YuvColorSpace = YuvColorSpace.BT601_LIMITED
+
+    /**
+     * 参与ARGB转YUV的线程数，包括编码回调线程本身，1为单线程，需在startRecord前设置
+     * 一般设为CPU核数即可，1080p以上提升明显
+     */
+    var convertThreadCount: Int = 1
+
+    /**
+     * 像素数小于该值时仍然单线程转换
+     */
+    var parallelConvertMinPixels: Int = ParallelConverter.DEFAULT_MIN_PARALLEL_PIXELS
+
+    @Volatile
+    private var parallelConverter: ParallelConverter? = null
+
+    /**
+     * 转换用的argb、yuv等中间数组，录制过程中复用，只在编码线程使用
+     */
+    private val conversionContext = ConversionContext()
+
+    /**
+     * 用Bitmap.copyPixelsToBuffer取像素并直接从RGBA转换，省掉getPixels的逐像素格式转换和整帧的IntArray，需在startRecord前设置
+     * 半透明像素的颜色会不同（预乘alpha），不透明的界面结果相同
+     * 融合缩放、裁剪、旋转时同样生效
+     */
+    var isCopyPixelsToBuffer: Boolean = false
+
+    /**
+     * 按原尺寸截取，缩放在转换时一起完成，不再让PixelCopy或Canvas先缩放出一张小bitmap，需在init前设置
+     * 开启后不使用增量转换；init时指定了crop或rotation时总是这样转换
+     */
+    var isFusedScale: Boolean = false
+
+    /**
+     * 开启isFusedScale时的缩放取样方式
+     */
+    var scaleFilter: ScaleFilter = ScaleFilter.BOX
+
+    @Volatile
+    private var frameTransform: FrameTransform? = null
+
+    /**
+     * 增量转换，只重新转换相对上一帧变化了的块，适合大部分区域静止的界面，需在startRecord前设置
+     * 开启后不再使用多线程转换
+     */
+    var isDirtyTileConvert: Boolean = false
+
+    @Volatile
+    private var dirtyTileConverter: DirtyTileConverter? = null
+
+    /**
+     * 画面没变时跳过编码，上一帧的时长自然延长，需在startRecord前设置
+     */
+    var isSkipDuplicateFrames: Boolean = false
+
+    /**
+     * 跳过重复帧时，两帧之间的最长间隔，超过后强制编码一帧
+     */
+    var duplicateFrameMaxGapMs: Long = DuplicateFrameFilter.DEFAULT_MAX_GAP_MS
+
+    /**
+     * 由view的绘制驱动取帧，没有绘制时不截图不转换，超过duplicateFrameMaxGapMs时重复一帧，需在startRecord前设置
+     * 帧率仍不超过init时的fps
+     */
+    var isDrawTriggeredCapture: Boolean = false
+
+    @Volatile
+    private var drawTrigger: ViewDrawTrigger? = null
+
+    /**
+     * 绘制驱动时收到的绘制次数，未开启时为0
+     */
+    val drawCount: Long
+        get() = drawTrigger?.drawCount ?: 0L
+
+    /**
+     * 本次录制跳过的重复帧数
+     */
+    val skippedDuplicateFrames: Long
+        get() = if (this::videoEncoder.isInitialized) videoEncoder.duplicateFrameFilter?.skippedCount ?: 0L else 0L
+
+    /**
+     * 增量转换时上一帧重新转换的块占比，[0, 1]；未开启时为1
+     */
+    val lastChangedTileRatio: Float
+        get() = dirtyTileConverter?.lastChangedRatio ?: 1f
+
+    /**
+     * 截图用的Bitmap池，转换完就归还，可以看hitCount、missCount
+     */
+    val bitmapPool = BitmapPool()
+
+    /**
+     * 一次录制的内存上限，截图的Bitmap和转换缓冲都计入，为null时不限制，需在startRecord前设置
+     * startRecord时按预估检查，放不下直接抛出；录制中超出时截图或转换抛出IllegalStateException
+     */
+    var memoryBudget: MemoryBudget? = null
+
+    /**
+     * 音频编码跟不上、输入队列满时麦克风数据的处理，需在init前设置
+     */
+    var audioBackpressure: PcmBackpressure = PcmBackpressure.DROP_NEWEST
+
+    /**
+     * audioBackpressure为BLOCK时麦克风线程最多等待的时间
+     */
+    var audioBlockTimeoutMs: Long = 20L
+
+    /**
+     * 麦克风直接读到池中的direct buffer，编码器buffer到buffer拷贝，不经过堆上的数组，需在init前设置
+     */
+    var isDirectAudioBuffer: Boolean = false
+
+    /**
+     * 丢掉一段PCM时在麦克风线程回调，可以用来报警
+     */
+    var audioDropListener: AudioEncoder.DropListener? = null
+        set(value) {
+            field = value
+            if (this::audioEncoder.isInitialized) {
+                audioEncoder.setDropListener(value)
+            }
+        }
+
+    /**
+     * 本次录制丢掉的音频时长，微秒，包括队列满和PcmBufferPool用完丢掉的
+     */
+    val droppedAudioDurationUs: Long
+        get() = if (this::audioEncoder.isInitialized) audioEncoder.droppedDurationUs else 0L
+
+    /**
+     * 流水线截图，转换编码当前帧时下一帧已经在PixelCopy，需在startRecord前设置，Android 8.0以下无效
+     */
+    var isPipelinedCapture: Boolean = false
+
+    /**
+     * 流水线截图同时进行的请求数，2为双缓冲，3为三缓冲
+     */
+    var captureInFlight: Int = PipelinedPixelCopy.DEFAULT_MAX_IN_FLIGHT
+
+    @Volatile
+    private var pipelinedCapture: PipelinedPixelCopy? = null
+
+    /**
+     * 主线程只录Picture，光栅化在编码线程，不使用PixelCopy，优先于isPipelinedCapture，需在startRecord前设置
+     */
+    var isDisplayListCapture: Boolean = false
+
+    @Volatile
+    private var displayListCapture: DisplayListCapture? = null
+
+    /**
+     * 显示列表截图时每帧占用主线程的耗时
+     */
+    val displayListUiThreadCost = CaptureLatency()
+
+    /**
+     * 录制期间接收PixelCopy回调的线程
+     */
+    private val captureThread = CaptureThread()
+
+    /**
+     * PixelCopy回调仍走主线程，只用来和专用线程对比captureLatency，需在startRecord前设置
+     */
+    var isCaptureOnMainThread: Boolean = false
+
+    /**
+     * 本次录制PixelCopy请求到回调的耗时和超时次数
+     */
+    val captureLatency: CaptureLatency
+        get() = captureThread.latency
+
+    /**
+     * 按截图、转换耗时自动升降截图宽度、帧率和码率，需在init前设置
+     * 降截图宽度只在没有裁剪且不是流水线、显示列表截图时生效，截得小的在转换时放大到编码尺寸
+     * 所以截图宽度只降低截图（绘制、PixelCopy和读取像素）的开销；转换和编码按编码尺寸逐像素进行，录制中不能改，
+     * 这部分开销只能靠降帧率减少，qualityGovernor按截图和转换各自的耗时选择降哪一项
+     * 截图与编码尺寸相同时（最高档）跳过融合缩放，按原像素直接转换
+     */
+    var qualityGovernor: QualityGovernor? = null
+
+    /**
+     * qualityGovernor给出的截图宽度比例
+     */
+    @Volatile
+    private var captureScale = 1f
+
+    /**
+     * 每帧截图→送入编码器→编码输出→交给muxer各阶段的耗时，每次startRecord时清零
+     */
+    val latencyTracker = FrameLatencyTracker()
+
+    /**
+     * 当前帧截图完成的System.nanoTime()，作为这一帧的时间戳，只在编码线程读写
+     */
+    private var frameCaptureTime = 0L
+
     /**
      * 只录视频时只初始化视频编码器
+     * @param width 输出宽度，有rotation时为旋转后的宽度
+     * @param crop view中要录制的区域，为null时录制整个view
+     * @param rotation 顺时针旋转角度，0、90、180、270之一，如横屏的view录成竖屏视频
      */
     @Throws
     fun initJustVideo(
@@ -64,6 +296,8 @@ class ViewRecorder {
         fps: Int = 24,
         videoBitRate: Int = 4_000_000,
         iFrameInterval: Int = 1,
+        crop: Rect? = null,
+        rotation: Int = 0,
     ) {
         if (isStartRecord) {
             throw IllegalStateException("recording is running")
@@ -86,14 +320,35 @@ class ViewRecorder {
         // 设置获取帧的方法
         videoEncoder.setFrameDataGetter(object : IFrameDataGetter {
             override fun getFrameData(): Frame {
-                return Frame(getFrameBytes())
+                // 时间戳用截图完成的时间，不是转换完成的时间
+                val bytes = getFrameBytes()
+                return Frame(bytes, frameCaptureTime / 1000)
+            }
+
+            override fun fillFrameData(planes: YuvPlanes): Long {
+                fillFrameBytes(planes)
+                return frameCaptureTime / 1000
             }
+
+            override fun isFillFrameDataSupported(): Boolean = true
         })
-        // 通过获取一帧来初始化视频参数
-        val frameBitmap = getFrameBitmap(width)
+        videoEncoder.colorSpace = colorSpace
+        val (recordWidth, recordHeight) = if (isFusedScale || crop != null || rotation != 0 || qualityGovernor != null) {
+            // 输出尺寸按原尺寸截图计算，不需要先截一帧
+            val (sourceWidth, sourceHeight) = RecordViewUtil.calculateRecordSize(view, view.width)
+            val transform = RecordViewUtil.createFrameTransform(sourceWidth, sourceHeight, width, crop, rotation, scaleFilter)
+            frameTransform = transform
+            transform.outWidth to transform.outHeight
+        } else {
+            frameTransform = null
+            // 通过获取一帧来初始化视频参数
+            val frameBitmap = getFrameBitmap(width)
+            bitmapPool.release(frameBitmap)
+            frameBitmap.width to frameBitmap.height
+        }
         videoInitSuccess = videoEncoder.prepareVideoEncoder(
-            frameBitmap.width,
-            frameBitmap.height,
+            recordWidth,
+            recordHeight,
             fps,
             videoBitRate,
             iFrameInterval,
@@ -120,9 +375,11 @@ class ViewRecorder {
         audioBitRate: Int = 192_000,
         audioSampleRate: Int = 44_100,
         isStereo: Boolean = true,
+        crop: Rect? = null,
+        rotation: Int = 0,
     ) {
         // 视频设置
-        initJustVideo(window, view, width, fps, videoBitRate, iFrameInterval)
+        initJustVideo(window, view, width, fps, videoBitRate, iFrameInterval, crop, rotation)
 
         // 音频设置
         audioEncoder = AudioEncoder(object : GetAacData {
@@ -135,12 +392,18 @@ class ViewRecorder {
             }
         })
         audioEncoder.setRealTime(true)
+        audioEncoder.setBackpressure(audioBackpressure, audioBlockTimeoutMs)
+        audioEncoder.setDropListener(audioDropListener)
         //audioEncoder.setForce(CodecUtil.Force.SOFTWARE)
 
         microphoneManager = MicrophoneManager(object : GetMicrophoneData {
             override fun inputPCMData(frame: Frame) {
                 audioEncoder.inputPCMData(frame)
             }
+
+            override fun onPCMDropped(size: Int) {
+                audioEncoder.inputPCMDropped(size)
+            }
         })
 
         audioInitSuccess = microphoneManager.createMicrophone(
@@ -160,6 +423,16 @@ class ViewRecorder {
             microphoneManager.channel == AudioFormat.CHANNEL_IN_STEREO,
             microphoneManager.inputBufferSize
         )
+        // 每次读取一个独立的buffer，编码器用完归还，不会被下一次读取覆盖
+        if (isDirectAudioBuffer) {
+            val directBufferPool = PcmBufferPool.direct(microphoneManager.inputBufferSize)
+            microphoneManager.directBufferPool = directBufferPool
+            audioEncoder.directBufferPool = directBufferPool
+        } else {
+            val pcmBufferPool = PcmBufferPool.heap(microphoneManager.inputBufferSize)
+            microphoneManager.pcmBufferPool = pcmBufferPool
+            audioEncoder.pcmBufferPool = pcmBufferPool
+        }
     }
 
     @Throws
@@ -171,16 +444,86 @@ class ViewRecorder {
         if (isStartRecord) {
             return
         }
+        checkMemoryBudget()
         isStartRecord = true
         // 设置错误回调
         videoEncoder.setEncoderErrorCallback(errorListener)
         // 启动并设置正确的回调
         recordController.startRecord(path, statusListener)
+        videoEncoder.duplicateFrameFilter = if (isSkipDuplicateFrames) DuplicateFrameFilter(duplicateFrameMaxGapMs) else null
+        drawTrigger = if (isDrawTriggeredCapture) ViewDrawTrigger(view, duplicateFrameMaxGapMs).also { it.attach() } else null
+        videoEncoder.frameTrigger = drawTrigger
+        latencyTracker.reset()
+        videoEncoder.latencyTracker = latencyTracker
+        conversionContext.isCopyPixelsToBuffer = isCopyPixelsToBuffer
+        if (isDirtyTileConvert && frameTransform == null) {
+            dirtyTileConverter = DirtyTileConverter().also { it.setMemoryBudget(memoryBudget) }
+        } else if (convertThreadCount > 1) {
+            parallelConverter = ParallelConverter(convertThreadCount, parallelConvertMinPixels)
+        }
+        captureThread.latency.reset()
+        if (!isCaptureOnMainThread) {
+            captureThread.start()
+        }
+        displayListUiThreadCost.reset()
+        if (isDisplayListCapture) {
+            val captureWidth = if (frameTransform != null) null else videoEncoder.width
+            displayListCapture = DisplayListCapture(view, captureWidth, bitmapPool, displayListUiThreadCost)
+        } else if (isPipelinedCapture && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            val captureWidth = if (frameTransform != null) null else videoEncoder.width
+            pipelinedCapture = PipelinedPixelCopy(window, view, captureWidth, bitmapPool, captureInFlight, captureThread)
+        }
         if (audioInitSuccess) {
             microphoneManager.start()
             audioEncoder.start()
         }
         videoEncoder.start()
+        captureScale = 1f
+        qualityGovernor?.let { governor ->
+            governor.reset()
+            // 只有getBitmapFromView按governedCaptureWidth截图
+            governor.setCaptureScaleEnabled(frameTransform?.crop == null && displayListCapture == null && pipelinedCapture == null)
+            governor.setListener { applyQuality(it) }
+            applyQuality(governor.currentLevel)
+        }
+    }
+
+    /**
+     * 按编码尺寸预估截图Bitmap、argb和yuv的占用，超出时抛出，不等到录制中分配失败
+     */
+    private fun checkMemoryBudget() {
+        val budget = memoryBudget
+        bitmapPool.memoryBudget = budget
+        conversionContext.setMemoryBudget(budget)
+        if (budget == null) {
+            return
+        }
+        budget.reset()
+        // 有裁剪旋转时按view原尺寸截图
+        val captureBytes = if (frameTransform != null) {
+            view.width.toLong() * view.height * 4
+        } else {
+            videoEncoder.width.toLong() * videoEncoder.height * 4
+        }
+        // 流水线截图时同时借出的Bitmap有captureInFlight + 1张
+        val bitmapCount = if (isPipelinedCapture && !isDisplayListCapture) captureInFlight + 1 else 1
+        val outPixels = videoEncoder.width.toLong() * videoEncoder.height
+        // 增量转换同时保留上一帧和本帧的argb
+        val argbCount = if (isDirtyTileConvert && frameTransform == null) 2 else 1
+        val estimated = captureBytes * bitmapCount + outPixels * 4 * argbCount + outPixels * 3 / 2
+        if (estimated > budget.limitBytes) {
+            throw IllegalStateException("超过内存预算: 预计需要${estimated}字节, 上限${budget.limitBytes}")
+        }
+    }
+
+    /**
+     * 在startRecord和qualityGovernor的回调（取帧线程）中调用，帧率由取帧线程在下一帧前应用
+     */
+    private fun applyQuality(level: QualityGovernor.Level) {
+        Log.i(TAG, "applyQuality: $level")
+        captureScale = level.captureScale
+        videoEncoder.setFpsOnFly(level.fps)
+        videoEncoder.setVideoBitrateOnFly(level.bitRate)
     }
 
     fun stopRecord() {
@@ -198,6 +541,19 @@ class ViewRecorder {
             }
             recordController.resetFormats()
         }
+        drawTrigger?.detach()
+        drawTrigger = null
+        qualityGovernor?.setListener(null)
+        parallelConverter?.release()
+        parallelConverter = null
+        conversionContext.release()
+        pipelinedCapture?.close()
+        pipelinedCapture = null
+        displayListCapture = null
+        captureThread.quit()
+        bitmapPool.clear()
+        dirtyTileConverter?.reset()
+        dirtyTileConverter = null
         videoInitSuccess = false
         audioInitSuccess = false
     }
@@ -207,15 +563,102 @@ class ViewRecorder {
             throw IllegalStateException("view or window is not initialized")
         }
         //val start = System.currentTimeMillis()
+        val start = System.nanoTime()
         val bitmap = getFrameBitmap(videoEncoder.width)
         //val getBitmapCost = System.currentTimeMillis() - start
-        val inputData: ByteArray = ConvertUtil.convertBitmapToYUVByteArray(
-            bitmap,
-            videoEncoder.formatVideoEncoder.formatCodec
-        )
-        //VRLogger.v("getFrameBytes() bitmap width=${videoEncoder.width}, colorFormat: ${videoEncoder.formatVideoEncoder.formatCodec}, getBitmapCost: ${getBitmapCost}ms, total cost: ${System.currentTimeMillis() - start}ms")
-        return inputData
+        val captured = System.nanoTime()
+        try {
+            val colorFormat = videoEncoder.formatVideoEncoder.formatCodec
+            val colorSpace = videoEncoder.colorSpace
+            // qualityGovernor在最高档时截图已经是编码尺寸，不再逐像素取样
+            frameTransform?.takeUnless { it.isIdentity(bitmap.width, bitmap.height) }?.let { transform ->
+                return parallelConverter?.convertBitmapToYUVByteArray(
+                    bitmap, transform, colorFormat, convertKernel, colorSpace, conversionContext
+                ) ?: ConvertUtil.convertBitmapToYUVByteArray(
+                    bitmap, transform, colorFormat, convertKernel, colorSpace, conversionContext
+                )
+            }
+            val inputData: ByteArray = dirtyTileConverter?.convertBitmapToYUVByteArray(
+                bitmap,
+                colorFormat,
+                convertKernel,
+                colorSpace
+            ) ?: parallelConverter?.convertBitmapToYUVByteArray(
+                bitmap,
+                colorFormat,
+                convertKernel,
+                colorSpace,
+                conversionContext
+            ) ?: ConvertUtil.convertBitmapToYUVByteArray(
+                bitmap,
+                colorFormat,
+                convertKernel,
+                colorSpace,
+                conversionContext
+            )
+            //VRLogger.v("getFrameBytes() bitmap width=${videoEncoder.width}, colorFormat: ${videoEncoder.formatVideoEncoder.formatCodec}, getBitmapCost: ${getBitmapCost}ms, total cost: ${System.currentTimeMillis() - start}ms")
+            return inputData
+        } finally {
+            bitmapPool.release(bitmap)
+            qualityGovernor?.onFrameCost(captured - start, System.nanoTime() - captured)
+        }
     }
 
-    private fun getFrameBitmap(width: Int) = RecordViewUtil.getBitmapFromView(window, view, width)
+    /**
+     * 直接转换到编码器的输入buffer或Image
+     */
+    private fun fillFrameBytes(planes: YuvPlanes): Int {
+        if (!this::view.isInitialized || !this::window.isInitialized) {
+            throw IllegalStateException("view or window is not initialized")
+        }
+        val start = System.nanoTime()
+        val bitmap = getFrameBitmap(videoEncoder.width)
+        val captured = System.nanoTime()
+        try {
+            val colorSpace = videoEncoder.colorSpace
+            frameTransform?.takeUnless { it.isIdentity(bitmap.width, bitmap.height) }?.let { transform ->
+                return parallelConverter?.convertBitmapToYUVPlanes(bitmap, transform, convertKernel, colorSpace, planes, conversionContext)
+                    ?: ConvertUtil.convertBitmapToYUVPlanes(bitmap, transform, convertKernel, colorSpace, planes, conversionContext)
+            }
+            return dirtyTileConverter?.convertBitmapToYUVPlanes(bitmap, convertKernel, colorSpace, planes)
+                ?: parallelConverter?.convertBitmapToYUVPlanes(bitmap, convertKernel, colorSpace, planes, conversionContext)
+                ?: ConvertUtil.convertBitmapToYUVPlanes(bitmap, convertKernel, colorSpace, planes, conversionContext)
+        } finally {
+            bitmapPool.release(bitmap)
+            qualityGovernor?.onFrameCost(captured - start, System.nanoTime() - captured)
+        }
+    }
+
+    /**
+     * 有frameTransform时按原尺寸截图（有qualityGovernor时见governedCaptureWidth），缩放在转换时完成
+     */
+    private fun getFrameBitmap(width: Int): Bitmap {
+        displayListCapture?.let {
+            val bitmap = it.capture()
+            frameCaptureTime = it.lastCaptureTimeNanos
+            return bitmap
+        }
+        pipelinedCapture?.let {
+            // 帧的bitmap来自bitmapPool，转换完同样直接归还
+            val frame = it.next()
+            frameCaptureTime = frame.captureTimeNanos
+            return frame.bitmap
+        }
+        val captureWidth = if (frameTransform != null) governedCaptureWidth() else width
+        val bitmap = RecordViewUtil.getBitmapFromView(window, view, captureWidth, bitmapPool, captureThread)
+        frameCaptureTime = System.nanoTime()
+        return bitmap
+    }
+
+    /**
+     * 有qualityGovernor且没有裁剪时按编码尺寸乘以captureScale截图，其余情况按原尺寸
+     */
+    private fun governedCaptureWidth(): Int? {
+        val transform = frameTransform ?: return null
+        if (qualityGovernor == null || transform.crop != null) {
+            return null
+        }
+        val baseWidth = if (transform.rotation == 90 || transform.rotation == 270) transform.outHeight else transform.outWidth
+        return (baseWidth * captureScale).toInt().coerceAtLeast(2)
+    }
 }
@@ -0,0 +1,185 @@
+package io.keyss.view_record.utils
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.WeakHashMap
+
+/**
+ * Description: 按宽高和Config复用录制用的Bitmap，替代每帧createBitmap、转换完recycle
+ * 录制过程中尺寸基本不变，池里有两三张就够了，稳定录制后不再分配native内存
+ * 截图可能在取帧线程，编码完成后在编码线程归还，所以方法都加锁
+ */
+class BitmapPool @JvmOverloads constructor(
+    /**
+     * 池中最多保留的张数，超过的归还时直接recycle
+     */
+    private val maxSize: Int = DEFAULT_MAX_SIZE,
+) {
+    companion object {
+        const val DEFAULT_MAX_SIZE = 3
+    }
+
+    private val mBitmaps = ArrayDeque<Bitmap>()
+
+    /**
+     * 新建时登记，recycle时释放；为null时不限制
+     */
+    @Volatile
+    var memoryBudget: MemoryBudget? = null
+
+    /**
+     * 已在memoryBudget登记的字节数，包括借出未还的，clear时一并释放
+     */
+    private var mChargedBytes = 0L
+
+    /**
+     * 本次录制由池新建、已登记的Bitmap，包括借出未还的；外部release进来的不登记，recycle时也不释放
+     */
+    private val mOwned: MutableSet<Bitmap> = Collections.newSetFromMap(IdentityHashMap())
+
+    /**
+     * clear时还借出在外的，登记已经随clear释放，之后release时直接recycle，不再放回池里算到下一次录制
+     * 弱引用，一直不还的不会被这里留住；Bitmap没有重写equals，按对象比较
+     */
+    private val mAbandoned: MutableSet<Bitmap> = Collections.newSetFromMap(WeakHashMap())
+
+    /**
+     * 复用的Canvas，只在截图线程使用
+     */
+    private var mCanvas: Canvas? = null
+
+    /**
+     * 从池中取到的次数
+     */
+    @Volatile
+    var hitCount = 0L
+        private set
+
+    /**
+     * 池中没有合适的，新建的次数
+     */
+    @Volatile
+    var missCount = 0L
+        private set
+
+    /**
+     * 命中率，[0, 1]，还没取过时为0
+     */
+    val hitRate: Float
+        get() {
+            val total = hitCount + missCount
+            return if (total == 0L) 0f else hitCount.toFloat() / total
+        }
+
+    /**
+     * 取一张指定尺寸的Bitmap，内容是上一次使用留下的，需要时调用方自己清除
+     */
+    @Synchronized
+    fun obtain(width: Int, height: Int, config: Bitmap.Config): Bitmap {
+        val iterator = mBitmaps.iterator()
+        while (iterator.hasNext()) {
+            val bitmap = iterator.next()
+            if (bitmap.isRecycled) {
+                // 被外部recycle了，登记还要释放
+                iterator.remove()
+                recycle(bitmap)
+                continue
+            }
+            if (bitmap.width == width && bitmap.height == height && bitmap.config == config) {
+                iterator.remove()
+                hitCount++
+                return bitmap
+            }
+        }
+        missCount++
+        reserve(byteCountOf(width, height, config))
+        return Bitmap.createBitmap(width, height, config).also { mOwned.add(it) }
+    }
+
+    /**
+     * 超出预算时先recycle池中空闲的（多半是尺寸变化前留下的）再试一次，仍不够时抛出
+     */
+    private fun reserve(bytes: Long) {
+        val budget = memoryBudget ?: return
+        while (!budget.tryReserve(bytes)) {
+            if (mBitmaps.isEmpty()) {
+                throw IllegalStateException("超过内存预算: Bitmap需要${bytes}字节, $budget")
+            }
+            recycle(mBitmaps.removeFirst())
+        }
+        mChargedBytes += bytes
+    }
+
+    private fun recycle(bitmap: Bitmap) {
+        if (mOwned.remove(bitmap)) {
+            val bytes = byteCountOf(bitmap.width, bitmap.height, bitmap.config)
+            memoryBudget?.release(bytes)
+            mChargedBytes -= bytes
+        }
+        if (!bitmap.isRecycled) {
+            bitmap.recycle()
+        }
+    }
+
+    private fun byteCountOf(width: Int, height: Int, config: Bitmap.Config?): Long {
+        val bytesPerPixel = when (config) {
+            Bitmap.Config.ALPHA_8 -> 1
+            Bitmap.Config.RGB_565, Bitmap.Config.ARGB_4444 -> 2
+            else -> 4
+        }
+        return width.toLong() * height * bytesPerPixel
+    }
+
+    /**
+     * 用完归还，之后调用方不能再使用该Bitmap；池满时直接recycle
+     */
+    @Synchronized
+    fun release(bitmap: Bitmap) {
+        if (mAbandoned.remove(bitmap)) {
+            // 上一次录制借出的，clear时已经释放了登记
+            bitmap.recycle()
+            return
+        }
+        if (bitmap.isRecycled || mBitmaps.any { it === bitmap }) {
+            return
+        }
+        if (mBitmaps.size >= maxSize) {
+            // 尺寸变了时旧的先出去
+            recycle(mBitmaps.removeFirst())
+        }
+        mBitmaps.addLast(bitmap)
+    }
+
+    /**
+     * 绑定到bitmap的Canvas，每次都是初始状态（没有变换和裁剪）
+     * Canvas只有一个，截图线程和clear可能同时用到，也加锁
+     */
+    @Synchronized
+    fun obtainCanvas(bitmap: Bitmap): Canvas {
+        val canvas = mCanvas ?: Canvas().also { mCanvas = it }
+        canvas.setBitmap(bitmap)
+        // 恢复到初始状态，丢掉上一次的scale
+        canvas.restoreToCount(1)
+        return canvas
+    }
+
+    /**
+     * 录制结束时调用，recycle池中所有Bitmap，统计清零
+     * 借出未还的登记一并释放，之后release回来时直接recycle
+     */
+    @Synchronized
+    fun clear() {
+        mBitmaps.forEach { recycle(it) }
+        mBitmaps.clear()
+        // 剩下的都是借出未还的
+        mAbandoned.addAll(mOwned)
+        mOwned.clear()
+        memoryBudget?.release(mChargedBytes)
+        mChargedBytes = 0L
+        mCanvas?.setBitmap(null)
+        hitCount = 0L
+        missCount = 0L
+    }
+}
@@ -0,0 +1,58 @@
+package io.keyss.view_record.utils
+
+/**
+ * Description: PixelCopy请求到回调的耗时统计，线程安全；也用于[FrameLatencyTracker]各阶段的耗时
+ */
+class CaptureLatency {
+    private var mCount = 0L
+    private var mTotalNanos = 0L
+    private var mMaxNanos = 0L
+    private var mLastNanos = 0L
+    private var mTimeoutCount = 0L
+
+    @Synchronized
+    fun record(latencyNanos: Long) {
+        mCount++
+        mTotalNanos += latencyNanos
+        mLastNanos = latencyNanos
+        if (latencyNanos > mMaxNanos) {
+            mMaxNanos = latencyNanos
+        }
+    }
+
+    /**
+     * 等待回调超时，录进去的是错误图
+     */
+    @Synchronized
+    fun recordTimeout() {
+        mTimeoutCount++
+    }
+
+    val count: Long
+        @Synchronized get() = mCount
+
+    val timeoutCount: Long
+        @Synchronized get() = mTimeoutCount
+
+    val averageMs: Float
+        @Synchronized get() = if (mCount == 0L) 0f else mTotalNanos / mCount / 1_000_000f
+
+    val maxMs: Float
+        @Synchronized get() = mMaxNanos / 1_000_000f
+
+    val lastMs: Float
+        @Synchronized get() = mLastNanos / 1_000_000f
+
+    @Synchronized
+    fun reset() {
+        mCount = 0L
+        mTotalNanos = 0L
+        mMaxNanos = 0L
+        mLastNanos = 0L
+        mTimeoutCount = 0L
+    }
+
+    override fun toString(): String {
+        return "CaptureLatency(count=$count, timeout=$timeoutCount, avg=${averageMs}ms, max=${maxMs}ms, last=${lastMs}ms)"
+    }
+}
@@ -0,0 +1,49 @@
+package io.keyss.view_record.utils
+
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.Process
+
+/**
+ * Description: 录制期间接收PixelCopy回调的线程，startRecord时启动，stopRecord时退出
+ * 回调原来走主线程，主线程卡顿时（正好是最需要录下来的时候）回调被拖到超时，录出"图像丢失"
+ * 优先级与显示相关线程相同，回调里只有一次入队，不会和UI抢CPU
+ */
+class CaptureThread {
+    companion object {
+        private const val THREAD_NAME = "ViewRecord-Capture"
+    }
+
+    private var mThread: HandlerThread? = null
+
+    /**
+     * 未启动时为null，调用方此时退回主线程
+     */
+    @Volatile
+    var handler: Handler? = null
+        private set
+
+    /**
+     * PixelCopy请求到回调的耗时统计，开关线程前后对比即可看到差别
+     */
+    val latency = CaptureLatency()
+
+    @Synchronized
+    fun start(): Handler {
+        handler?.let { return it }
+        val thread = HandlerThread(THREAD_NAME, Process.THREAD_PRIORITY_DISPLAY)
+        thread.start()
+        mThread = thread
+        return Handler(thread.looper).also { handler = it }
+    }
+
+    /**
+     * 已经发出的请求回调会被丢掉，调用方等待超时后按失败处理
+     */
+    @Synchronized
+    fun quit() {
+        handler = null
+        mThread?.quitSafely()
+        mThread = null
+    }
+}
@@ -3,8 +3,9 @@ package io.keyss.view_record.utils
 /**
  * @author Key
  * Time: 2022/10/11 16:27
- * Description:
+ * Description: 已不再使用，39和20的排列与ConvertUtil不一致（色度写进了Y的区域），统一改用YuvConverters
  */
+@Deprecated("use YuvConverters / ConvertUtil")
 object ColorFormatUtil {
     fun encodeYUV420SP(yuv420sp: ByteArray, argb: IntArray, width: Int, height: Int) {
         val frameSize = width * height
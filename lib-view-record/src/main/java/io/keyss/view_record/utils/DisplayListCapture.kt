@@ -0,0 +1,134 @@
+package io.keyss.view_record.utils
+
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.graphics.Picture
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Log
+import android.view.View
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Description: 主线程只把view录成Picture（显示列表，只记录绘制命令），光栅化到Bitmap在调用线程（编码线程）完成
+ * convertViewToBitmap在调用线程直接view.draw，要么不在主线程不安全，要么在主线程上每帧6-9ms
+ * 录Picture不碰像素，主线程每帧在1ms以下，可以看[uiThreadCost]
+ * 与convertViewToBitmap一样录不到SurfaceView、TextureView的内容和硬件Bitmap
+ * capture只能在一条线程调用，Picture在两次capture之间复用
+ */
+class DisplayListCapture(
+    private val targetView: View,
+    width: Int?,
+    private val pool: BitmapPool,
+    /**
+     * 主线程录制Picture的耗时，不含排队等主线程的时间；超时记为timeout
+     */
+    val uiThreadCost: CaptureLatency = CaptureLatency(),
+) {
+    companion object {
+        private const val TAG = "DisplayListCapture"
+
+        /**
+         * 与copyPixelFromView的等待时间相同
+         */
+        const val DEFAULT_TIMEOUT_MS = 100L
+    }
+
+    val recordWidth: Int
+    val recordHeight: Int
+
+    private val mMainHandler = Handler(Looper.getMainLooper())
+
+    /**
+     * 超时后主线程可能还在往里录，换一个新的，旧的留给主线程
+     */
+    private var mPicture = Picture()
+
+    /**
+     * 最近一次在主线程录制完成的System.nanoTime()，画面是这个时刻的状态
+     */
+    @Volatile
+    var lastCaptureTimeNanos = 0L
+        private set
+
+    init {
+        val finalWidth = width ?: targetView.width
+        if (finalWidth <= 0) {
+            throw IllegalArgumentException("宽度小于等于0, finalWidth=$finalWidth")
+        }
+        RecordViewUtil.calculateRecordSize(targetView, finalWidth).let {
+            recordWidth = it.first
+            recordHeight = it.second
+        }
+    }
+
+    /**
+     * 在主线程录制，回到调用线程光栅化，超时返回写了"图像丢失"的帧
+     * @return 来自pool，用完后归还
+     */
+    fun capture(timeoutMs: Long = DEFAULT_TIMEOUT_MS): Bitmap {
+        val picture = mPicture
+        val bitmap = pool.obtain(recordWidth, recordHeight, Bitmap.Config.ARGB_8888)
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            record(picture)
+        } else {
+            val latch = CountDownLatch(1)
+            var error: Exception? = null
+            mMainHandler.post {
+                try {
+                    record(picture)
+                } catch (e: Exception) {
+                    error = e
+                } finally {
+                    latch.countDown()
+                }
+            }
+            val isRecorded = try {
+                latch.await(timeoutMs, TimeUnit.MILLISECONDS)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                false
+            }
+            if (!isRecorded) {
+                Log.w(TAG, "capture: 等待主线程录制超时")
+                uiThreadCost.recordTimeout()
+                lastCaptureTimeNanos = System.nanoTime()
+                mPicture = Picture()
+                RecordViewUtil.textErrorBitmap(bitmap)
+                return bitmap
+            }
+            error?.let {
+                Log.w(TAG, "capture: 录制失败", it)
+                lastCaptureTimeNanos = System.nanoTime()
+                mPicture = Picture()
+                RecordViewUtil.textErrorBitmap(bitmap, Log.getStackTraceString(it))
+                return bitmap
+            }
+        }
+        // 复用的bitmap有上一帧的内容，背景透明的view会叠在上面，先清成和新建时一样
+        bitmap.eraseColor(Color.TRANSPARENT)
+        val canvas = pool.obtainCanvas(bitmap)
+        canvas.scale(recordWidth.toFloat() / picture.width, recordHeight.toFloat() / picture.height)
+        picture.draw(canvas)
+        return bitmap
+    }
+
+    /**
+     * 只能在主线程调用
+     */
+    private fun record(picture: Picture) {
+        val start = SystemClock.elapsedRealtimeNanos()
+        // 录制期间view尺寸变了时按当前尺寸录，光栅化时再缩放到录制尺寸
+        val canvas = picture.beginRecording(targetView.width.coerceAtLeast(1), targetView.height.coerceAtLeast(1))
+        try {
+            targetView.draw(canvas)
+        } finally {
+            picture.endRecording()
+        }
+        val end = SystemClock.elapsedRealtimeNanos()
+        lastCaptureTimeNanos = System.nanoTime()
+        uiThreadCost.record(end - start)
+    }
+}
@@ -3,6 +3,11 @@ package io.keyss.view_record.utils
 import android.graphics.Bitmap
 import android.media.MediaCodecInfo
 import android.media.MediaCodecList
+import io.keyss.view_record.utils.yuv.ConversionContext
+import io.keyss.view_record.utils.yuv.ConvertKernel
+import io.keyss.view_record.utils.yuv.ConvertUtil
+import io.keyss.view_record.utils.yuv.YuvColorSpace
+import java.nio.ByteBuffer
 
 /**
  * @author Key
@@ -47,39 +52,65 @@ object EncoderTools {
     }
 
     fun getPixels(colorFormat: Int, inputWidth: Int, inputHeight: Int, scaled: Bitmap): ByteArray {
-        val argb = IntArray(inputWidth * inputHeight)
-        scaled.getPixels(argb, 0, inputWidth, 0, 0, inputWidth, inputHeight)
-        val yuv = ByteArray(inputWidth * inputHeight * 3 / 2)
-        when (colorFormat) {
-            MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar -> ColorFormatUtil.encodeYUV420SP(
-                yuv,
-                argb,
-                inputWidth,
-                inputHeight
-            )
-
-            MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar -> ColorFormatUtil.encodeYUV420P(
-                yuv,
-                argb,
-                inputWidth,
-                inputHeight
-            )
+        return getPixels(colorFormat, inputWidth, inputHeight, scaled, null as ConversionContext?)
+    }
 
-            MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar -> ColorFormatUtil.encodeYUV420PSP(
-                yuv,
-                argb,
-                inputWidth,
-                inputHeight
-            )
+    /**
+     * 与ViewRecorder相同，都通过YuvConverters按颜色格式取实现，同一个格式的UV顺序只有一种
+     * @param context 不为null时argb和yuv数组从中复用，返回值下一帧会被覆盖
+     * @param colorSpace 颜色标准和范围，编码器的MediaFormat需要声明同样的值
+     * @param kernel ARGB转YUV的计算方式
+     */
+    fun getPixels(
+        colorFormat: Int,
+        inputWidth: Int,
+        inputHeight: Int,
+        scaled: Bitmap,
+        context: ConversionContext?,
+        colorSpace: YuvColorSpace = YuvColorSpace.BT601_LIMITED,
+        kernel: ConvertKernel = ConvertKernel.ARITHMETIC
+    ): ByteArray {
+        val argb = obtainArgb(inputWidth, inputHeight, scaled, context)
+        val yuvSize = ConvertUtil.getYuvSize(inputWidth, inputHeight)
+        val yuv = context?.obtainYuv(yuvSize) ?: ByteArray(yuvSize)
+        ConvertUtil.convertToYUVBuffer(
+            argb, inputWidth, inputHeight, colorFormat, kernel, colorSpace, ByteBuffer.wrap(yuv), context
+        )
+        return yuv
+    }
 
-            MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar -> ColorFormatUtil.encodeYUV420PP(
-                yuv,
-                argb,
-                inputWidth,
-                inputHeight
+    /**
+     * 直接写入编码器的输入buffer，从position开始写，省掉整帧数组的分配和拷贝
+     * @param context 不为null时中间数组都从中复用，稳定录制时不再分配
+     * @return 写入的字节数
+     */
+    fun getPixels(
+        colorFormat: Int,
+        inputWidth: Int,
+        inputHeight: Int,
+        scaled: Bitmap,
+        output: ByteBuffer,
+        context: ConversionContext? = null,
+        colorSpace: YuvColorSpace = YuvColorSpace.BT601_LIMITED,
+        kernel: ConvertKernel = ConvertKernel.ARITHMETIC
+    ): Int {
+        if (context?.isCopyPixelsToBuffer == true && scaled.width == inputWidth && scaled.height == inputHeight) {
+            // 从RGBA按strip解包，不经过整帧的IntArray
+            return ConvertUtil.convertBitmapToYUVBuffer(
+                scaled, colorFormat, kernel, colorSpace, output, context
             )
         }
-        return yuv
+        val argb = obtainArgb(inputWidth, inputHeight, scaled, context)
+        return ConvertUtil.convertToYUVBuffer(
+            argb, inputWidth, inputHeight, colorFormat, kernel, colorSpace, output, context
+        )
+    }
+
+    private fun obtainArgb(inputWidth: Int, inputHeight: Int, scaled: Bitmap, context: ConversionContext?): IntArray {
+        val size = inputWidth * inputHeight
+        val argb = context?.obtainArgb(size) ?: IntArray(size)
+        scaled.getPixels(argb, 0, inputWidth, 0, 0, inputWidth, inputHeight)
+        return argb
     }
 
     /**
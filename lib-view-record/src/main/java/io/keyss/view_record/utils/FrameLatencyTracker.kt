@@ -0,0 +1,117 @@
+package io.keyss.view_record.utils
+
+/**
+ * Description: 每帧从截图完成到写入文件各阶段的耗时，按pts把输入和输出对应起来
+ * 截图→queueInputBuffer→编码输出→写入muxer，时间都是System.nanoTime() / 1000
+ * 输入和输出在不同线程，方法都加锁；只保留最近[capacity]帧未输出的记录，编码器积压更多时最早的丢掉
+ */
+class FrameLatencyTracker @JvmOverloads constructor(
+    private val capacity: Int = DEFAULT_CAPACITY,
+) {
+    companion object {
+        /**
+         * 编码器内部一般只缓存几帧
+         */
+        const val DEFAULT_CAPACITY = 32
+    }
+
+    private val mPts = LongArray(capacity)
+    private val mCaptureUs = LongArray(capacity)
+    private val mQueueUs = LongArray(capacity)
+    private val mEncodedUs = LongArray(capacity)
+    private var mNext = 0
+
+    /**
+     * 截图完成到送入编码器，主要是转换的耗时
+     */
+    val captureToQueue = CaptureLatency()
+
+    /**
+     * 送入编码器到编码输出
+     */
+    val queueToEncode = CaptureLatency()
+
+    /**
+     * 编码输出到写入muxer完成
+     */
+    val encodeToMux = CaptureLatency()
+
+    /**
+     * 截图完成到写入muxer完成，画面到文件的总延迟
+     */
+    val captureToMux = CaptureLatency()
+
+    init {
+        mPts.fill(-1L)
+    }
+
+    /**
+     * queueInputBuffer之后调用
+     * @param captureTimeUs 这一帧截图完成的时间
+     */
+    @Synchronized
+    fun onQueued(ptsUs: Long, captureTimeUs: Long) {
+        val now = System.nanoTime() / 1000
+        captureToQueue.record((now - captureTimeUs) * 1000)
+        mPts[mNext] = ptsUs
+        mCaptureUs[mNext] = captureTimeUs
+        mQueueUs[mNext] = now
+        mEncodedUs[mNext] = -1L
+        mNext = (mNext + 1) % capacity
+    }
+
+    /**
+     * 取到编码输出、写入muxer之前调用，配置帧等没有对应输入的忽略
+     */
+    @Synchronized
+    fun onEncoded(ptsUs: Long) {
+        val index = indexOf(ptsUs)
+        if (index < 0) {
+            return
+        }
+        val now = System.nanoTime() / 1000
+        queueToEncode.record((now - mQueueUs[index]) * 1000)
+        mEncodedUs[index] = now
+    }
+
+    /**
+     * 写入muxer之后调用，之后这一帧的记录不再使用
+     */
+    @Synchronized
+    fun onMuxed(ptsUs: Long) {
+        val index = indexOf(ptsUs)
+        if (index < 0 || mEncodedUs[index] < 0) {
+            return
+        }
+        val now = System.nanoTime() / 1000
+        encodeToMux.record((now - mEncodedUs[index]) * 1000)
+        captureToMux.record((now - mCaptureUs[index]) * 1000)
+        mPts[index] = -1L
+    }
+
+    @Synchronized
+    fun reset() {
+        mPts.fill(-1L)
+        mNext = 0
+        captureToQueue.reset()
+        queueToEncode.reset()
+        encodeToMux.reset()
+        captureToMux.reset()
+    }
+
+    private fun indexOf(ptsUs: Long): Int {
+        if (ptsUs < 0) {
+            return -1
+        }
+        for (i in 0 until capacity) {
+            if (mPts[i] == ptsUs) {
+                return i
+            }
+        }
+        return -1
+    }
+
+    override fun toString(): String {
+        return "FrameLatencyTracker(captureToQueue=$captureToQueue, queueToEncode=$queueToEncode, encodeToMux=$encodeToMux, captureToMux=$captureToMux)"
+    }
+}
@@ -0,0 +1,84 @@
+package io.keyss.view_record.utils
+
+/**
+ * Description: 一次录制的内存上限，截图的Bitmap、转换用的argb和yuv缓冲分配前先在这里登记
+ * 原来只能等OOM或者createBitmap失败后才知道超了，低内存设备上录1080p直接崩溃
+ * 超出时由分配方抛IllegalStateException，录制开始时按预估一次检查，不会录到一半才失败
+ * 截图线程和编码线程都会登记，方法都加锁
+ */
+class MemoryBudget(
+    /**
+     * 上限，字节
+     */
+    val limitBytes: Long,
+) {
+    init {
+        if (limitBytes <= 0) {
+            throw IllegalArgumentException("limitBytes must be positive: $limitBytes")
+        }
+    }
+
+    /**
+     * 当前登记的字节数
+     */
+    @get:Synchronized
+    var reservedBytes = 0L
+        private set
+
+    /**
+     * 录制以来的最高值
+     */
+    @get:Synchronized
+    var peakBytes = 0L
+        private set
+
+    /**
+     * 因超出而拒绝的次数
+     */
+    @get:Synchronized
+    var rejectedCount = 0L
+        private set
+
+    /**
+     * @return false为超出上限，没有登记
+     */
+    @Synchronized
+    fun tryReserve(bytes: Long): Boolean {
+        if (reservedBytes + bytes > limitBytes) {
+            rejectedCount++
+            return false
+        }
+        reservedBytes += bytes
+        peakBytes = maxOf(peakBytes, reservedBytes)
+        return true
+    }
+
+    /**
+     * 与[tryReserve]相同，超出时抛出
+     * @param what 用于异常信息
+     */
+    fun reserve(bytes: Long, what: String) {
+        if (!tryReserve(bytes)) {
+            throw IllegalStateException("超过内存预算: $what 需要${bytes}字节, 已用$reservedBytes/$limitBytes")
+        }
+    }
+
+    @Synchronized
+    fun release(bytes: Long) {
+        reservedBytes = (reservedBytes - bytes).coerceAtLeast(0L)
+    }
+
+    /**
+     * 录制开始时调用
+     */
+    @Synchronized
+    fun reset() {
+        reservedBytes = 0L
+        peakBytes = 0L
+        rejectedCount = 0L
+    }
+
+    override fun toString(): String {
+        return "MemoryBudget(reserved=$reservedBytes, peak=$peakBytes, limit=$limitBytes, rejected=$rejectedCount)"
+    }
+}
@@ -0,0 +1,211 @@
+package io.keyss.view_record.utils
+
+import android.graphics.Bitmap
+import android.graphics.Rect
+import android.os.Build
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import android.view.PixelCopy
+import android.view.View
+import android.view.Window
+import androidx.annotation.RequiresApi
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Description: 流水线式的PixelCopy，始终保持maxInFlight个请求在进行中，当前帧转换、编码的同时下一帧已经在拷贝
+ * copyPixelFromView每帧都要等PixelCopy回调（最多100ms），截图和转换编码是串行的，1080p时帧率上不去
+ * 进行中的加上已完成未取走的帧总数不超过maxInFlight，Bitmap都从pool中取，内存有上限；超时作废的请求回调前仍占着Bitmap，不计在内
+ * next只能在一条线程（编码线程）调用，回调在captureThread上，没有时在主线程
+ */
+@RequiresApi(Build.VERSION_CODES.O)
+class PipelinedPixelCopy(
+    private val window: Window,
+    private val targetView: View,
+    width: Int?,
+    private val pool: BitmapPool,
+    /**
+     * 同时进行的请求数，2为双缓冲，3为三缓冲
+     */
+    private val maxInFlight: Int = DEFAULT_MAX_IN_FLIGHT,
+    /**
+     * 不为null时回调到该线程（未启动时仍是主线程）并统计耗时
+     */
+    private val captureThread: CaptureThread? = null,
+) {
+    companion object {
+        private const val TAG = "PipelinedPixelCopy"
+        const val DEFAULT_MAX_IN_FLIGHT = 2
+
+        /**
+         * 与copyPixelFromView的等待时间相同
+         */
+        const val DEFAULT_TIMEOUT_MS = 100L
+    }
+
+    /**
+     * 一帧截图
+     * @param requestTimeNanos 发出请求时的System.nanoTime()
+     * @param isSuccessful 失败时bitmap上写了错误信息
+     * @param captureTimeNanos 拷贝完成（回调）时的System.nanoTime()，作为这一帧的时间
+     * @param generation 发出请求时的批次，超时后之前批次的请求都作废
+     */
+    class CapturedFrame(
+        val bitmap: Bitmap,
+        val requestTimeNanos: Long,
+        val isSuccessful: Boolean,
+        val captureTimeNanos: Long = System.nanoTime(),
+        internal val generation: Int = 0,
+    )
+
+    val recordWidth: Int
+    val recordHeight: Int
+
+    private val mMainHandler = Handler(Looper.getMainLooper())
+
+    private val mCompleted = LinkedBlockingQueue<CapturedFrame>()
+
+    /**
+     * 进行中的加上已完成未取走的
+     */
+    private val mOutstanding = AtomicInteger(0)
+
+    /**
+     * 超时时加一，之前发出的请求都不再计入mOutstanding，之后才完成的在next中直接归还
+     * 回调一直不来时也不会一直占着名额
+     */
+    @Volatile
+    private var mGeneration = 0
+
+    /**
+     * 最近一次交给调用方的帧的requestTimeNanos，比它早的请求完成后丢掉，时间不会倒退
+     * 只在next的调用线程读写
+     */
+    private var mLastRequestTimeNanos = Long.MIN_VALUE
+
+    @Volatile
+    private var isClosed = false
+
+    init {
+        val finalWidth = width ?: targetView.width
+        if (finalWidth <= 0) {
+            throw IllegalArgumentException("宽度小于等于0, finalWidth=$finalWidth")
+        }
+        RecordViewUtil.calculateRecordSize(targetView, finalWidth).let {
+            recordWidth = it.first
+            recordHeight = it.second
+        }
+    }
+
+    /**
+     * 取最早完成的一帧，取之前和之后都把请求补满，返回时下一帧已经在拷贝
+     * 超时返回写了"图像丢失"的帧，进行中的请求全部作废，完成后直接归还到pool，不会晚一帧再带着旧的时间交出去
+     * 比上一次交出的帧更早发出的请求同样丢掉
+     * 用完后调用[release]
+     */
+    fun next(timeoutMs: Long = DEFAULT_TIMEOUT_MS): CapturedFrame {
+        fill()
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs)
+        while (true) {
+            val frame = try {
+                mCompleted.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                null
+            }
+            if (frame == null) {
+                captureThread?.latency?.recordTimeout()
+                mGeneration++
+                mOutstanding.set(0)
+                val bitmap = pool.obtain(recordWidth, recordHeight, Bitmap.Config.ARGB_8888)
+                RecordViewUtil.textErrorBitmap(bitmap)
+                val requestTime = System.nanoTime()
+                mLastRequestTimeNanos = requestTime
+                return CapturedFrame(bitmap, requestTime, false, generation = mGeneration)
+            }
+            if (frame.generation != mGeneration) {
+                // 超时作废的，名额已经还了
+                release(frame)
+                continue
+            }
+            mOutstanding.decrementAndGet()
+            if (frame.requestTimeNanos < mLastRequestTimeNanos) {
+                release(frame)
+                fill()
+                continue
+            }
+            mLastRequestTimeNanos = frame.requestTimeNanos
+            fill()
+            return frame
+        }
+    }
+
+    /**
+     * 归还到pool，之后不能再使用
+     */
+    fun release(frame: CapturedFrame) {
+        pool.release(frame.bitmap)
+    }
+
+    /**
+     * 停止发出新请求，已完成的归还到pool，之后才完成的在回调中归还
+     */
+    fun close() {
+        isClosed = true
+        while (true) {
+            val frame = mCompleted.poll() ?: break
+            release(frame)
+        }
+    }
+
+    private fun fill() {
+        // 只有next的调用线程会增加，检查和增加之间不会被别的线程抢
+        while (!isClosed && mOutstanding.get() < maxInFlight) {
+            mOutstanding.incrementAndGet()
+            request()
+        }
+    }
+
+    private fun request() {
+        val bitmap = pool.obtain(recordWidth, recordHeight, Bitmap.Config.ARGB_8888)
+        val requestTime = System.nanoTime()
+        val generation = mGeneration
+        if (!window.isActive) {
+            RecordViewUtil.textErrorBitmap(bitmap, "窗口未激活")
+            onCompleted(CapturedFrame(bitmap, requestTime, false, generation = generation))
+            return
+        }
+        val location = IntArray(2)
+        targetView.getLocationInWindow(location)
+        try {
+            PixelCopy.request(
+                window,
+                Rect(location[0], location[1], location[0] + targetView.width, location[1] + targetView.height),
+                bitmap,
+                { copyResult ->
+                    captureThread?.latency?.record(System.nanoTime() - requestTime)
+                    val isSuccessful = copyResult == PixelCopy.SUCCESS
+                    if (!isSuccessful) {
+                        RecordViewUtil.textErrorBitmap(bitmap)
+                    }
+                    onCompleted(CapturedFrame(bitmap, requestTime, isSuccessful, generation = generation))
+                },
+                captureThread?.handler ?: mMainHandler
+            )
+        } catch (e: Exception) {
+            Log.w(TAG, "PixelCopy.request failed", e)
+            RecordViewUtil.textErrorBitmap(bitmap, Log.getStackTraceString(e))
+            onCompleted(CapturedFrame(bitmap, requestTime, false, generation = generation))
+        }
+    }
+
+    private fun onCompleted(frame: CapturedFrame) {
+        if (isClosed) {
+            release(frame)
+            return
+        }
+        mCompleted.offer(frame)
+    }
+}
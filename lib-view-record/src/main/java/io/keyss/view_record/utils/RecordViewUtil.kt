@@ -2,6 +2,7 @@ package io.keyss.view_record.utils
 
 import android.graphics.Bitmap
 import android.graphics.Canvas
+import android.graphics.Color
 import android.graphics.Rect
 import android.os.Build
 import android.os.Handler
@@ -11,8 +12,11 @@ import android.view.PixelCopy
 import android.view.View
 import android.view.Window
 import androidx.annotation.RequiresApi
+import io.keyss.view_record.utils.yuv.FrameTransform
+import io.keyss.view_record.utils.yuv.ScaleFilter
 import java.util.concurrent.CompletableFuture
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
 
 
 /**
@@ -27,45 +31,100 @@ object RecordViewUtil {
 
     /**
      * @param width 指定宽度，等比例缩放高度
+     * @param pool 不为null时从池中取Bitmap，用完后由调用方归还
+     * @param captureThread 不为null时PixelCopy回调到该线程（未启动时仍是主线程）并统计耗时
      */
     @Throws
-    fun getBitmapFromView(window: Window, targetView: View, width: Int? = null): Bitmap {
+    fun getBitmapFromView(
+        window: Window,
+        targetView: View,
+        width: Int? = null,
+        pool: BitmapPool? = null,
+        captureThread: CaptureThread? = null,
+    ): Bitmap {
         val finalWidth = width ?: targetView.width
         if (finalWidth <= 0) {
             //Log.w(TAG, "finalWidth=$finalWidth")
             throw IllegalArgumentException("宽度小于等于0, finalWidth=$finalWidth")
         }
         return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            copyPixelFromView(window, targetView, finalWidth)
+            copyPixelFromView(window, targetView, finalWidth, pool, captureThread)
         } else {
-            convertViewToBitmap(targetView, finalWidth)
+            convertViewToBitmap(targetView, finalWidth, pool)
         }
     }
 
     /**
-     * Android 26(O)(8.0)以下的版本，使用此方法，某些情况下颜色有偏差，已经View采集不全，比如Android14上摄像头内容未采集到
-     * 如果采用drawingCache.copy宽高未生效，还是View原始的宽高，要生效需采用Canvas方式
-     * drawingCache.copy耗时：6-9ms, Canvas方式还更快，所以目前改为Canvas实现
+     * 按指定宽度等比例计算录制的宽高，都向下取偶数，编码器要求宽高为偶数
      */
-    @Throws
-    fun convertViewToBitmap(targetView: View, width: Int): Bitmap {
+    fun calculateRecordSize(targetView: View, width: Int): Pair<Int, Int> {
+        return calculateRecordSize(targetView.width, targetView.height, width)
+    }
+
+    fun calculateRecordSize(sourceWidth: Int, sourceHeight: Int, width: Int): Pair<Int, Int> {
         // 优化宽高
         val recordWidth = if (width % 2 != 0) {
             width - 1
         } else {
             width
         }
-        var recordHeight = if (recordWidth == targetView.width) {
+        var recordHeight = if (recordWidth == sourceWidth) {
             // 宽度不变，则高度也不变
-            targetView.height
+            sourceHeight
         } else {
-            (targetView.height * (recordWidth.toFloat() / targetView.width)).toInt()
+            (sourceHeight * (recordWidth.toFloat() / sourceWidth)).toInt()
         }
         if (recordHeight % 2 != 0) {
             recordHeight -= 1
         }
-        val bitmap = Bitmap.createBitmap(recordWidth, recordHeight, mBitmapConfig)
-        val canvas = Canvas(bitmap)
+        return recordWidth to recordHeight
+    }
+
+    /**
+     * 原尺寸截图转换时的裁剪、旋转和缩放，输出宽高按裁剪旋转后的比例计算
+     * @param sourceWidth 原尺寸截图的宽
+     * @param width 旋转后的输出宽度，为null时与裁剪区域相同
+     * @param crop 截图中要录制的区域，为null时为整个截图
+     * @param rotation 顺时针旋转角度，0、90、180、270之一
+     */
+    fun createFrameTransform(
+        sourceWidth: Int,
+        sourceHeight: Int,
+        width: Int?,
+        crop: Rect?,
+        rotation: Int,
+        filter: ScaleFilter = ScaleFilter.BOX,
+    ): FrameTransform {
+        val region = Rect(crop ?: Rect(0, 0, sourceWidth, sourceHeight))
+        if (!region.intersect(0, 0, sourceWidth, sourceHeight)) {
+            throw IllegalArgumentException("裁剪区域不在截图内, crop=$crop, source=${sourceWidth}x$sourceHeight")
+        }
+        val isSwap = rotation == 90 || rotation == 270
+        val rotatedWidth = if (isSwap) region.height() else region.width()
+        val rotatedHeight = if (isSwap) region.width() else region.height()
+        val (recordWidth, recordHeight) = calculateRecordSize(rotatedWidth, rotatedHeight, width ?: rotatedWidth)
+        return FrameTransform(recordWidth, recordHeight, filter, crop, rotation)
+    }
+
+    /**
+     * Android 26(O)(8.0)以下的版本，使用此方法，某些情况下颜色有偏差，已经View采集不全，比如Android14上摄像头内容未采集到
+     * 如果采用drawingCache.copy宽高未生效，还是View原始的宽高，要生效需采用Canvas方式
+     * drawingCache.copy耗时：6-9ms, Canvas方式还更快，所以目前改为Canvas实现
+     */
+    @Throws
+    fun convertViewToBitmap(targetView: View, width: Int, pool: BitmapPool? = null): Bitmap {
+        val (recordWidth, recordHeight) = calculateRecordSize(targetView, width)
+        val bitmap: Bitmap
+        val canvas: Canvas
+        if (pool != null) {
+            bitmap = pool.obtain(recordWidth, recordHeight, mBitmapConfig)
+            // 复用的bitmap有上一帧的内容，背景透明的view会叠在上面，先清成和新建时一样
+            bitmap.eraseColor(Color.TRANSPARENT)
+            canvas = pool.obtainCanvas(bitmap)
+        } else {
+            bitmap = Bitmap.createBitmap(recordWidth, recordHeight, mBitmapConfig)
+            canvas = Canvas(bitmap)
+        }
         // 保存当前状态，目前只改变一次，多余
         //val saveCount = canvas.save()
         // 缩放Canvas来匹配目标Bitmap
@@ -83,28 +142,22 @@ object RecordViewUtil {
      */
     @RequiresApi(Build.VERSION_CODES.O)
     @Throws
-    fun copyPixelFromView(window: Window, targetView: View, width: Int): Bitmap {
+    fun copyPixelFromView(
+        window: Window,
+        targetView: View,
+        width: Int,
+        pool: BitmapPool? = null,
+        captureThread: CaptureThread? = null,
+    ): Bitmap {
         //Log.i(TAG, "current Thread: ${Thread.currentThread().name}")
-        // 优化宽高
-        val recordWidth = if (width % 2 != 0) {
-            width - 1
-        } else {
-            width
-        }
-        var recordHeight = if (recordWidth == targetView.width) {
-            // 宽度不变，则高度也不变
-            targetView.height
-        } else {
-            (targetView.height * (recordWidth.toFloat() / targetView.width)).toInt()
-        }
-        if (recordHeight % 2 != 0) {
-            recordHeight -= 1
-        }
+        val (recordWidth, recordHeight) = calculateRecordSize(targetView, width)
 
         // 黑屏
         // val bitmap = Bitmap.createBitmap(recordWidth, recordHeight, Bitmap.Config.RGB_565)
         //准备一个bitmap对象，用来将copy出来的区域绘制到此对象中，view应该是没有alpha的
-        val bitmap = Bitmap.createBitmap(recordWidth, recordHeight, mBitmapConfig)
+        // PixelCopy会覆盖整个bitmap，复用时不需要清除
+        val bitmap = pool?.obtain(recordWidth, recordHeight, mBitmapConfig)
+            ?: Bitmap.createBitmap(recordWidth, recordHeight, mBitmapConfig)
 
         //获取view在Window中的left-top顶点位置，基本上取的当前的window，且录的都是全部，所以都是[0,0]
         val location = IntArray(2)
@@ -119,6 +172,8 @@ object RecordViewUtil {
         //val start = System.currentTimeMillis()
         //val latch = CountDownLatch(1)
         val future = CompletableFuture<Boolean>()
+        val latency = captureThread?.latency
+        val requestTime = System.nanoTime()
         try {
             PixelCopy.request(
                 window,
@@ -135,15 +190,32 @@ object RecordViewUtil {
                     //Log.i(TAG, "回调内isSuccessful=${copyResult == PixelCopy.SUCCESS}, 耗时=${System.currentTimeMillis() - start}ms")
                     //isSuccessful = copyResult == PixelCopy.SUCCESS
                     //latch.countDown()
-                    future.complete(copyResult == PixelCopy.SUCCESS)
+                    latency?.record(System.nanoTime() - requestTime)
+                    if (!future.complete(copyResult == PixelCopy.SUCCESS)) {
+                        // 已超时放弃，调用方拿走的是另一张，这张到这里才写完，可以归还了
+                        pool?.release(bitmap)
+                    }
                 },
-                mMainHandler
+                captureThread?.handler ?: mMainHandler
             )
             //latch.await(100, TimeUnit.MILLISECONDS)
             isSuccessful = future.get(100, TimeUnit.MILLISECONDS)
+        } catch (e: TimeoutException) {
+            latency?.recordTimeout()
+            Log.w(TAG, "copyPixelFromView: PixelCopy回调超时")
+            // PixelCopy还在往bitmap里写，不能交给调用方，也不能还到池里被下一帧拿到
+            // cancel失败说明回调刚好到了，bitmap已经写完，照常使用
+            if (future.cancel(false)) {
+                val errorBitmap = pool?.obtain(recordWidth, recordHeight, mBitmapConfig)
+                    ?: Bitmap.createBitmap(recordWidth, recordHeight, mBitmapConfig)
+                textErrorBitmap(errorBitmap)
+                return errorBitmap
+            }
+            isSuccessful = future.getNow(false)
         } catch (e: Exception) {
             e.printStackTrace()
             textErrorBitmap(bitmap, Log.getStackTraceString(e))
+            return bitmap
         }
         //Log.i(TAG, "回调外isSuccessful=$isSuccessful, 耗时=${System.currentTimeMillis() - start}ms")
         if (!isSuccessful) {
@@ -152,9 +224,13 @@ object RecordViewUtil {
         return bitmap
     }
 
-    private fun textErrorBitmap(bitmap: Bitmap, message: String? = "图像丢失") {
+    /**
+     * 先清成黑色再写错误信息，复用的bitmap上还是之前某一帧的画面
+     */
+    internal fun textErrorBitmap(bitmap: Bitmap, message: String? = "图像丢失") {
         // 在bitmap上写上错误信息
         //val start = System.currentTimeMillis()
+        bitmap.eraseColor(android.graphics.Color.BLACK)
         val canvas = Canvas(bitmap)
         val paint = android.graphics.Paint()
         paint.color = android.graphics.Color.RED
@@ -0,0 +1,65 @@
+package io.keyss.view_record.utils.yuv;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Description: 原尺寸的像素，按坐标读取，来自getPixels的int[]或copyPixelsToBuffer的RGBA
+ * <p>
+ * 只读，多个分段可以同时读
+ * 与不缩放的转换一样按{@link ConversionContext#setCopyPixelsToBuffer}选择：开启时ARGB_8888读RGBA，半透明像素按预乘后的值取样；
+ * 否则getPixels到argb数组，context为null时每帧分配
+ */
+final class ArgbSource {
+    final int width;
+    final int height;
+    @Nullable
+    private final int[] argb;
+    @Nullable
+    private final ByteBuffer rgba;
+    private final int rowBytes;
+
+    private ArgbSource(int width, int height, @Nullable int[] argb, @Nullable ByteBuffer rgba, int rowBytes) {
+        this.width = width;
+        this.height = height;
+        this.argb = argb;
+        this.rgba = rgba;
+        this.rowBytes = rowBytes;
+    }
+
+    static ArgbSource of(Bitmap bitmap, @Nullable ConversionContext context) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (ConvertUtil.isCopyPixels(bitmap, context)) {
+            return new ArgbSource(width, height, null, context.obtainRgba(bitmap), bitmap.getRowBytes());
+        }
+        return new ArgbSource(width, height, ConvertUtil.getArgb(bitmap, context), null, 0);
+    }
+
+    /**
+     * 已经取好的argb，如测试里不经过Bitmap
+     */
+    static ArgbSource ofArgb(int[] argb, int width, int height) {
+        return new ArgbSource(width, height, argb, null, 0);
+    }
+
+    /**
+     * @param rgba 按ARGB_8888在内存中的排列，每行rowBytes字节
+     */
+    static ArgbSource ofRgba(ByteBuffer rgba, int rowBytes, int width, int height) {
+        return new ArgbSource(width, height, null, rgba, rowBytes);
+    }
+
+    /**
+     * @return 忽略alpha，只保证低24位为RGB
+     */
+    int get(int x, int y) {
+        if (argb != null) {
+            return argb[y * width + x];
+        }
+        return rgba.getInt(y * rowBytes + (x << 2)) >>> 8;
+    }
+}
@@ -0,0 +1,187 @@
+package io.keyss.view_record.utils.yuv;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.Nullable;
+
+import io.keyss.view_record.utils.MemoryBudget;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Description: 一次录制中复用的转换缓冲，尺寸不变时不再分配
+ * <p>
+ * 1080p每帧的argb是8M，yuv是3M，每帧都new的话每秒几十M的垃圾，GC停顿直接表现为掉帧
+ * 宽高变化时才重新分配，可以通过{@link #getAllocationCount()}确认稳定录制时没有新的分配
+ * <p>
+ * 不是线程安全的，一个编码线程一个；并行转换时各段的strip在分发前统一准备好
+ * {@link #obtainYuv}返回的数组下一帧会被覆盖，只能在当前帧内使用
+ */
+public class ConversionContext {
+    private static final int[] EMPTY_INT = new int[0];
+    private static final byte[] EMPTY_BYTE = new byte[0];
+    private static final byte[][] EMPTY_STRIPS = new byte[0][];
+    private static final int[][] EMPTY_STRIP_ARGBS = new int[0][];
+
+    private int[] argb = EMPTY_INT;
+    private byte[] yuv = EMPTY_BYTE;
+    private byte[][] strips = EMPTY_STRIPS;
+    private int[][] stripArgbs = EMPTY_STRIP_ARGBS;
+    private ByteBuffer rgba;
+    private boolean isCopyPixelsToBuffer = false;
+    private int allocationCount;
+    @Nullable
+    private MemoryBudget memoryBudget;
+    /**
+     * 当前持有的缓冲在memoryBudget登记的字节数
+     */
+    private long chargedBytes;
+
+    /**
+     * 分配前先登记，超出时抛IllegalStateException；换掉后之前登记的释放
+     */
+    public void setMemoryBudget(@Nullable MemoryBudget memoryBudget) {
+        if (this.memoryBudget != null) {
+            this.memoryBudget.release(chargedBytes);
+        }
+        this.memoryBudget = memoryBudget;
+        if (memoryBudget != null) {
+            memoryBudget.reserve(chargedBytes, "ConversionContext");
+        }
+    }
+
+    /**
+     * 用{@link Bitmap#copyPixelsToBuffer}取像素，转换时按strip从RGBA解包，不再经过整帧的int[]
+     * getPixels每个像素都要做格式转换和反预乘，copyPixelsToBuffer是直接的内存拷贝
+     * 只对ARGB_8888生效，半透明像素的结果是预乘后的，与getPixels不同
+     * 带{@link FrameTransform}的转换同样按这个开关取像素
+     */
+    public void setCopyPixelsToBuffer(boolean isCopyPixelsToBuffer) {
+        this.isCopyPixelsToBuffer = isCopyPixelsToBuffer;
+    }
+
+    public boolean isCopyPixelsToBuffer() {
+        return isCopyPixelsToBuffer;
+    }
+
+    /**
+     * @return 长度刚好为size的数组
+     */
+    public int[] obtainArgb(int size) {
+        if (argb.length != size) {
+            charge(argb.length * 4L, size * 4L, "argb");
+            argb = new int[size];
+            allocationCount++;
+        }
+        return argb;
+    }
+
+    /**
+     * @return 长度刚好为size的数组，会直接作为整帧数据使用
+     */
+    public byte[] obtainYuv(int size) {
+        if (yuv.length != size) {
+            charge(yuv.length, size, "yuv");
+            yuv = new byte[size];
+            allocationCount++;
+        }
+        return yuv;
+    }
+
+    /**
+     * @return 至少count个长度为size的strip
+     */
+    byte[][] obtainStrips(int count, int size) {
+        if (strips.length < count || (strips.length > 0 && strips[0].length != size)) {
+            byte[][] newStrips = new byte[Math.max(count, strips.length)][];
+            charge(stripsBytes(), (long) newStrips.length * size, "strips");
+            for (int i = 0; i < newStrips.length; i++) {
+                newStrips[i] = i < strips.length && strips[i].length == size ? strips[i] : new byte[size];
+            }
+            strips = newStrips;
+            allocationCount++;
+        }
+        return strips;
+    }
+
+    /**
+     * @return 至少count个长度为size的数组，解包RGBA时用
+     */
+    int[][] obtainStripArgbs(int count, int size) {
+        if (stripArgbs.length < count || (stripArgbs.length > 0 && stripArgbs[0].length != size)) {
+            int[][] newStripArgbs = new int[Math.max(count, stripArgbs.length)][];
+            charge(stripArgbsBytes(), (long) newStripArgbs.length * size * 4, "stripArgbs");
+            for (int i = 0; i < newStripArgbs.length; i++) {
+                newStripArgbs[i] = i < stripArgbs.length && stripArgbs[i].length == size ? stripArgbs[i] : new int[size];
+            }
+            stripArgbs = newStripArgbs;
+            allocationCount++;
+        }
+        return stripArgbs;
+    }
+
+    /**
+     * 把bitmap的像素拷到复用的direct buffer，大端序，每行{@link Bitmap#getRowBytes()}字节
+     */
+    ByteBuffer obtainRgba(Bitmap bitmap) {
+        int size = bitmap.getRowBytes() * bitmap.getHeight();
+        if (rgba == null || rgba.capacity() != size) {
+            charge(rgba == null ? 0 : rgba.capacity(), size, "rgba");
+            rgba = ByteBuffer.allocateDirect(size).order(ByteOrder.BIG_ENDIAN);
+            allocationCount++;
+        }
+        rgba.clear();
+        bitmap.copyPixelsToBuffer(rgba);
+        return rgba;
+    }
+
+    /**
+     * 释放旧的，登记新的，超出时抛出，原来的缓冲保持不变
+     */
+    private void charge(long oldBytes, long newBytes, String what) {
+        MemoryBudget budget = memoryBudget;
+        if (budget == null) {
+            return;
+        }
+        budget.release(oldBytes);
+        chargedBytes -= oldBytes;
+        if (!budget.tryReserve(newBytes)) {
+            // 放回去，调用方可以继续用旧的尺寸或者停止录制
+            budget.tryReserve(oldBytes);
+            chargedBytes += oldBytes;
+            throw new IllegalStateException("超过内存预算: " + what + "需要" + newBytes + "字节, " + budget);
+        }
+        chargedBytes += newBytes;
+    }
+
+    private long stripsBytes() {
+        return strips.length == 0 ? 0 : (long) strips.length * strips[0].length;
+    }
+
+    private long stripArgbsBytes() {
+        return stripArgbs.length == 0 ? 0 : (long) stripArgbs.length * stripArgbs[0].length * 4;
+    }
+
+    /**
+     * @return 累计分配次数，稳定录制时不应该再增加
+     */
+    public int getAllocationCount() {
+        return allocationCount;
+    }
+
+    /**
+     * 录制结束后释放，之后再用会重新分配
+     */
+    public void release() {
+        argb = EMPTY_INT;
+        yuv = EMPTY_BYTE;
+        strips = EMPTY_STRIPS;
+        stripArgbs = EMPTY_STRIP_ARGBS;
+        rgba = null;
+        if (memoryBudget != null) {
+            memoryBudget.release(chargedBytes);
+        }
+        chargedBytes = 0;
+    }
+}
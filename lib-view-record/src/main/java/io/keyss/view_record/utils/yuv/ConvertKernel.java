@@ -0,0 +1,20 @@
+package io.keyss.view_record.utils.yuv;
+
+/**
+ * Description: ARGB转YUV的计算方式，可按每次录制选择
+ */
+public enum ConvertKernel {
+    /**
+     * 逐像素乘法计算，原始实现
+     */
+    ARITHMETIC,
+    /**
+     * 查表计算，与ARITHMETIC结果逐位相同，省掉每像素的乘法和Math.max/min
+     */
+    LOOKUP_TABLE,
+    /**
+     * 每次处理两行，每个2x2块输出4个Y和一组U、V，色度取4个像素的平均值，没有逐像素的取模分支
+     * Y与ARITHMETIC相同，色度不同：细线文字的色度混叠更少，21和39的输出相同
+     */
+    BLOCK_2X2,
+}
@@ -3,6 +3,10 @@ package io.keyss.view_record.utils.yuv;
 import android.graphics.Bitmap;
 import android.media.MediaCodecInfo;
 
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
 /**
  * Description: argb的提取和YUV的转换都是一样的，不一样的只是放到的位置不同
  * <p>
@@ -56,34 +60,613 @@ import android.media.MediaCodecInfo;
  * @author Key
  */
 public class ConvertUtil {
+    /**
+     * 写入direct buffer时每次转换的行数，必须是偶数
+     */
+    private static final int STRIP_ROWS = 16;
+    private static final int Y_CLAMP_BIAS = 16 + YuvLookupTable.CLAMP_OFFSET;
+    private static final int UV_CLAMP_BIAS = 128 + YuvLookupTable.CLAMP_OFFSET;
+
     public static byte[] convertBitmapToYUVByteArray(Bitmap bitmap, int colorFormat) {
+        return convertBitmapToYUVByteArray(bitmap, colorFormat, ConvertKernel.ARITHMETIC);
+    }
+
+    /**
+     * @param kernel 计算方式，{@link ConvertKernel#LOOKUP_TABLE}结果与{@link ConvertKernel#ARITHMETIC}逐位相同，
+     *               {@link ConvertKernel#BLOCK_2X2}的色度为2x2平均值
+     */
+    public static byte[] convertBitmapToYUVByteArray(Bitmap bitmap, int colorFormat, ConvertKernel kernel) {
+        return convertBitmapToYUVByteArray(bitmap, colorFormat, kernel, null);
+    }
+
+    /**
+     * @param context 不为null时argb和返回的yuv数组都从中复用，返回值下一帧会被覆盖
+     */
+    public static byte[] convertBitmapToYUVByteArray(Bitmap bitmap, int colorFormat, ConvertKernel kernel,
+                                                     @Nullable ConversionContext context) {
+        return convertBitmapToYUVByteArray(bitmap, colorFormat, kernel, YuvColorSpace.BT601_LIMITED, context);
+    }
+
+    /**
+     * @param colorSpace 颜色标准和范围，编码器的MediaFormat需要声明同样的值
+     */
+    public static byte[] convertBitmapToYUVByteArray(Bitmap bitmap, int colorFormat, ConvertKernel kernel, YuvColorSpace colorSpace,
+                                                     @Nullable ConversionContext context) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        YuvConverter converter = YuvConverters.get(colorFormat, kernel, colorSpace);
+        byte[] yuv = obtainYuv(getYuvSize(width, height), context);
+        if (isCopyPixels(bitmap, context)) {
+            convertRgbaRows(context.obtainRgba(bitmap), bitmap.getRowBytes(), width, 0, height, obtainStripArgb(width, context),
+                    (argb, argbFirstRow, rowStart, rowEnd) ->
+                            convertRows(argb, argbFirstRow, width, height, rowStart, rowEnd, yuv, 0, colorFormat, converter));
+            return yuv;
+        }
+        int[] argb = getArgb(bitmap, context);
+        convertRows(argb, 0, width, height, 0, height, yuv, 0, colorFormat, converter);
+        return yuv;
+    }
+
+    /**
+     * 直接写入编码器的输入buffer（一般是direct的），省掉整帧byte[]的分配和put时的一次整帧拷贝
+     * 从output当前的position开始写，写完position后移
+     *
+     * @return 写入的字节数
+     */
+    public static int convertBitmapToYUVBuffer(Bitmap bitmap, int colorFormat, ConvertKernel kernel, ByteBuffer output) {
+        return convertBitmapToYUVBuffer(bitmap, colorFormat, kernel, output, null);
+    }
+
+    /**
+     * @param context 不为null时中间数组从中复用，开启了{@link ConversionContext#setCopyPixelsToBuffer}时不经过整帧int[]
+     */
+    public static int convertBitmapToYUVBuffer(Bitmap bitmap, int colorFormat, ConvertKernel kernel, ByteBuffer output,
+                                               @Nullable ConversionContext context) {
+        return convertBitmapToYUVBuffer(bitmap, colorFormat, kernel, YuvColorSpace.BT601_LIMITED, output, context);
+    }
+
+    public static int convertBitmapToYUVBuffer(Bitmap bitmap, int colorFormat, ConvertKernel kernel, YuvColorSpace colorSpace,
+                                               ByteBuffer output, @Nullable ConversionContext context) {
         int width = bitmap.getWidth();
         int height = bitmap.getHeight();
-        int[] argb = new int[width * height];
+        if (!isCopyPixels(bitmap, context)) {
+            return convertToYUVBuffer(getArgb(bitmap, context), width, height, colorFormat, kernel, colorSpace, output, context);
+        }
+        YuvConverter converter = YuvConverters.get(colorFormat, kernel, colorSpace);
+        int size = checkOutput(width, height, output);
+        int base = output.position();
+        byte[] strip = obtainStrip(width, context);
+        convertRgbaRows(context.obtainRgba(bitmap), bitmap.getRowBytes(), width, 0, height, obtainStripArgb(width, context),
+                (argb, argbFirstRow, rowStart, rowEnd) -> convertRowsToBuffer(argb, argbFirstRow, width, height, rowStart, rowEnd,
+                        output, base, colorFormat, converter, strip));
+        output.position(base + size);
+        return size;
+    }
+
+    /**
+     * @see #convertBitmapToYUVBuffer(Bitmap, int, ConvertKernel, ByteBuffer)
+     */
+    public static int convertToYUVBuffer(int[] argb, int width, int height, int colorFormat, ConvertKernel kernel, ByteBuffer output) {
+        return convertToYUVBuffer(argb, width, height, colorFormat, kernel, output, null);
+    }
+
+    /**
+     * @param context 不为null时写入direct buffer的strip从中复用
+     */
+    public static int convertToYUVBuffer(int[] argb, int width, int height, int colorFormat, ConvertKernel kernel, ByteBuffer output,
+                                         @Nullable ConversionContext context) {
+        return convertToYUVBuffer(argb, width, height, colorFormat, kernel, YuvColorSpace.BT601_LIMITED, output, context);
+    }
+
+    public static int convertToYUVBuffer(int[] argb, int width, int height, int colorFormat, ConvertKernel kernel,
+                                         YuvColorSpace colorSpace, ByteBuffer output, @Nullable ConversionContext context) {
+        YuvConverter converter = YuvConverters.get(colorFormat, kernel, colorSpace);
+        int size = checkOutput(width, height, output);
+        int base = output.position();
+        convertRowsToBuffer(argb, 0, width, height, 0, height, output, base, colorFormat, converter, obtainStrip(width, context));
+        output.position(base + size);
+        return size;
+    }
+
+    /**
+     * 按planes描述的排列写入，支持带对齐的输入buffer和COLOR_FormatYUV420Flexible的输入Image
+     *
+     * @return queueInputBuffer时的size
+     */
+    public static int convertBitmapToYUVPlanes(Bitmap bitmap, ConvertKernel kernel, YuvPlanes planes) {
+        return convertBitmapToYUVPlanes(bitmap, kernel, planes, null);
+    }
+
+    /**
+     * @param context 不为null时argb和strip从中复用
+     */
+    public static int convertBitmapToYUVPlanes(Bitmap bitmap, ConvertKernel kernel, YuvPlanes planes,
+                                               @Nullable ConversionContext context) {
+        return convertBitmapToYUVPlanes(bitmap, kernel, YuvColorSpace.BT601_LIMITED, planes, context);
+    }
+
+    public static int convertBitmapToYUVPlanes(Bitmap bitmap, ConvertKernel kernel, YuvColorSpace colorSpace, YuvPlanes planes,
+                                               @Nullable ConversionContext context) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (!isCopyPixels(bitmap, context)) {
+            return convertToYUVPlanes(getArgb(bitmap, context), width, height, kernel, colorSpace, planes, context);
+        }
+        checkPlanes(width, height, planes);
+        YuvConverter converter = getConverter(planes, kernel, colorSpace);
+        byte[] strip = obtainStrip(width, context);
+        convertRgbaRows(context.obtainRgba(bitmap), bitmap.getRowBytes(), width, 0, height, obtainStripArgb(width, context),
+                (argb, argbFirstRow, rowStart, rowEnd) -> convertRowsToPlanes(argb, argbFirstRow, width, height, rowStart, rowEnd,
+                        converter, planes, strip));
+        return planes.size;
+    }
+
+    public static int convertToYUVPlanes(int[] argb, int width, int height, ConvertKernel kernel, YuvPlanes planes) {
+        return convertToYUVPlanes(argb, width, height, kernel, planes, null);
+    }
+
+    /**
+     * @see #convertBitmapToYUVPlanes(Bitmap, ConvertKernel, YuvPlanes, ConversionContext)
+     */
+    public static int convertToYUVPlanes(int[] argb, int width, int height, ConvertKernel kernel, YuvPlanes planes,
+                                         @Nullable ConversionContext context) {
+        return convertToYUVPlanes(argb, width, height, kernel, YuvColorSpace.BT601_LIMITED, planes, context);
+    }
+
+    public static int convertToYUVPlanes(int[] argb, int width, int height, ConvertKernel kernel, YuvColorSpace colorSpace,
+                                         YuvPlanes planes, @Nullable ConversionContext context) {
+        checkPlanes(width, height, planes);
+        convertRowsToPlanes(argb, 0, width, height, 0, height, getConverter(planes, kernel, colorSpace), planes,
+                obtainStrip(width, context));
+        return planes.size;
+    }
+
+    /**
+     * 原尺寸的bitmap按transform缩放的同时转换，缩放后的像素每次只有STRIP_ROWS行，不需要先缩放bitmap
+     *
+     * @return 输出尺寸的yuv，context不为null时下一帧会被覆盖
+     */
+    public static byte[] convertBitmapToYUVByteArray(Bitmap bitmap, FrameTransform transform, int colorFormat, ConvertKernel kernel,
+                                                     YuvColorSpace colorSpace, @Nullable ConversionContext context) {
+        int width = transform.getOutWidth();
+        int height = transform.getOutHeight();
+        YuvConverter converter = YuvConverters.get(colorFormat, kernel, colorSpace);
+        byte[] yuv = obtainYuv(getYuvSize(width, height), context);
+        ArgbSource source = ArgbSource.of(bitmap, context);
+        transform.prepare(source.width, source.height);
+        transform.sampleRows(source, 0, height, obtainTransformStrip(width, context),
+                (argb, argbFirstRow, rowStart, rowEnd) ->
+                        convertRows(argb, argbFirstRow, width, height, rowStart, rowEnd, yuv, 0, colorFormat, converter));
+        return yuv;
+    }
+
+    /**
+     * @see #convertBitmapToYUVByteArray(Bitmap, FrameTransform, int, ConvertKernel, YuvColorSpace, ConversionContext)
+     */
+    public static int convertBitmapToYUVBuffer(Bitmap bitmap, FrameTransform transform, int colorFormat, ConvertKernel kernel,
+                                               YuvColorSpace colorSpace, ByteBuffer output, @Nullable ConversionContext context) {
+        int width = transform.getOutWidth();
+        int height = transform.getOutHeight();
+        YuvConverter converter = YuvConverters.get(colorFormat, kernel, colorSpace);
+        int size = checkOutput(width, height, output);
+        int base = output.position();
+        byte[] strip = obtainStrip(width, context);
+        ArgbSource source = ArgbSource.of(bitmap, context);
+        transform.prepare(source.width, source.height);
+        transform.sampleRows(source, 0, height, obtainTransformStrip(width, context),
+                (argb, argbFirstRow, rowStart, rowEnd) -> convertRowsToBuffer(argb, argbFirstRow, width, height, rowStart, rowEnd,
+                        output, base, colorFormat, converter, strip));
+        output.position(base + size);
+        return size;
+    }
+
+    /**
+     * @see #convertBitmapToYUVByteArray(Bitmap, FrameTransform, int, ConvertKernel, YuvColorSpace, ConversionContext)
+     */
+    public static int convertBitmapToYUVPlanes(Bitmap bitmap, FrameTransform transform, ConvertKernel kernel, YuvColorSpace colorSpace,
+                                               YuvPlanes planes, @Nullable ConversionContext context) {
+        int width = transform.getOutWidth();
+        int height = transform.getOutHeight();
+        checkPlanes(width, height, planes);
+        YuvConverter converter = getConverter(planes, kernel, colorSpace);
+        byte[] strip = obtainStrip(width, context);
+        ArgbSource source = ArgbSource.of(bitmap, context);
+        transform.prepare(source.width, source.height);
+        transform.sampleRows(source, 0, height, obtainTransformStrip(width, context),
+                (argb, argbFirstRow, rowStart, rowEnd) -> convertRowsToPlanes(argb, argbFirstRow, width, height, rowStart, rowEnd,
+                        converter, planes, strip));
+        return planes.size;
+    }
+
+    public static int getYuvSize(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    static int[] getArgb(Bitmap bitmap, @Nullable ConversionContext context) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] argb = context == null ? new int[width * height] : context.obtainArgb(width * height);
         bitmap.getPixels(argb, 0, width, 0, 0, width, height);
-        return switch (colorFormat) {
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar ->
-                    convertToYUV420SemiPlanar(argb, width, height);
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar ->
-                    convertToYUV420Planar(argb, width, height);
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar ->
-                    convertToYUV420PackedPlanar(argb, width, height);
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar ->
-                    convertToYUV420PackedSemiPlanar(argb, width, height);
-            default -> throw new IllegalArgumentException("Unsupported color format: " + colorFormat);
-        };
+        return argb;
     }
 
     /**
-     * (21)NV12格式，YYYYYYYYY, UV交替存储（UVUVUV...）
+     * 开启了copyPixelsToBuffer且是ARGB_8888时直接从RGBA转换，其余格式的内存排列不同，仍然走getPixels
+     */
+    static boolean isCopyPixels(Bitmap bitmap, @Nullable ConversionContext context) {
+        return context != null && context.isCopyPixelsToBuffer() && bitmap.getConfig() == Bitmap.Config.ARGB_8888;
+    }
+
+    static int checkOutput(int width, int height, ByteBuffer output) {
+        int size = getYuvSize(width, height);
+        if (output.remaining() < size) {
+            throw new IllegalArgumentException("output buffer too small, remaining=" + output.remaining() + ", need=" + size);
+        }
+        return size;
+    }
+
+    static byte[] obtainYuv(int size, @Nullable ConversionContext context) {
+        return context == null ? new byte[size] : context.obtainYuv(size);
+    }
+
+    static int getStripSize(int width) {
+        return getYuvSize(width, STRIP_ROWS);
+    }
+
+    @Nullable
+    private static byte[] obtainStrip(int width, @Nullable ConversionContext context) {
+        return context == null ? null : context.obtainStrips(1, getStripSize(width))[0];
+    }
+
+    private static int[] obtainStripArgb(int width, ConversionContext context) {
+        return context.obtainStripArgbs(1, getStripArgbSize(width))[0];
+    }
+
+    private static int[] obtainTransformStrip(int width, @Nullable ConversionContext context) {
+        return context == null ? new int[getStripArgbSize(width)] : obtainStripArgb(width, context);
+    }
+
+    static int getStripArgbSize(int width) {
+        return width * STRIP_ROWS;
+    }
+
+    /**
+     * 一段行的转换目标，argb[0]对应argbFirstRow这一行
+     */
+    interface RowsWriter {
+        void write(int[] argb, int argbFirstRow, int rowStart, int rowEnd);
+    }
+
+    /**
+     * copyPixelsToBuffer得到的RGBA（ARGB_8888在内存中按R、G、B、A排列），每次解包STRIP_ROWS行到小数组再交给writer转换，
+     * 小数组一直在缓存里，不需要整帧的int[]，也没有getPixels的反预乘
+     * 注意：RGBA是预乘过alpha的，半透明像素与getPixels的结果不同，录制的窗口内容一般是不透明的
+     *
+     * @param rgba       大端序，按绝对位置读取，多段可以同时读
+     * @param rowBytes   每行的字节数，{@link Bitmap#getRowBytes()}
+     * @param stripArgb  长度至少为{@link #getStripArgbSize}
+     */
+    static void convertRgbaRows(ByteBuffer rgba, int rowBytes, int width, int rowStart, int rowEnd, int[] stripArgb,
+                                RowsWriter writer) {
+        for (int stripStart = rowStart; stripStart < rowEnd; stripStart += STRIP_ROWS) {
+            int stripEnd = Math.min(stripStart + STRIP_ROWS, rowEnd);
+            int index = 0;
+            for (int row = stripStart; row < stripEnd; row++) {
+                int position = row * rowBytes;
+                for (int i = 0; i < width; i++) {
+                    // 大端读出来是0xRRGGBBAA，kernel不使用alpha，无符号右移8位即可
+                    stripArgb[index++] = rgba.getInt(position + (i << 2)) >>> 8;
+                }
+            }
+            writer.write(stripArgb, stripStart, stripStart, stripEnd);
+        }
+    }
+
+    /**
+     * 只转换[rowStart, rowEnd)这几行，写到整帧yuv中对应的位置，各段互不重叠，可以并行
+     *
+     * @param argbFirstRow argb[0]对应的行，整帧时为0，按strip解包时为strip的起始行，必须是偶数
+     * @param rowStart     必须是偶数，保证色度行对齐
+     * @param offset       整帧在yuv中的起始位置
      */
-    private static byte[] convertToYUV420SemiPlanar(int[] argb, int width, int height) {
-        byte[] yuv = new byte[width * height * 3 / 2];
+    static void convertRows(int[] argb, int argbFirstRow, int width, int height, int rowStart, int rowEnd, byte[] yuv,
+                            int offset, int colorFormat, YuvConverter converter) {
         int frameSize = width * height;
-        int yIndex = 0;
-        int uvIndex = frameSize;
+        int yIndex = offset + rowStart * width;
+        // kernel只用行号取argb和判断奇偶，换算成相对argb的行号即可
+        int argbRowStart = rowStart - argbFirstRow;
+        int argbRowEnd = rowEnd - argbFirstRow;
+        if (isPlanar(colorFormat)) {
+            int uIndex = offset + frameSize + rowStart / 2 * (width / 2);
+            converter.convertRows(argb, width, argbRowStart, argbRowEnd, yuv, yIndex, uIndex, uIndex + frameSize / 4);
+        } else {
+            int uvIndex = offset + frameSize + rowStart / 2 * width;
+            converter.convertRows(argb, width, argbRowStart, argbRowEnd, yuv, yIndex, uvIndex, 0);
+        }
+    }
 
-        for (int j = 0; j < height; j++) {
+    /**
+     * 写到ByteBuffer，heap的直接写进底层数组；direct的每次转STRIP_ROWS行到一小块数组，
+     * 还在缓存里的时候就批量put到对应位置，不需要整帧的中间数组
+     *
+     * @param base  整帧在output中的起始位置
+     * @param strip 复用的strip，长度为{@link #getStripSize}，为null时新建
+     */
+    static void convertRowsToBuffer(int[] argb, int argbFirstRow, int width, int height, int rowStart, int rowEnd,
+                                    ByteBuffer output, int base, int colorFormat, YuvConverter converter, @Nullable byte[] strip) {
+        if (output.hasArray()) {
+            convertRows(argb, argbFirstRow, width, height, rowStart, rowEnd, output.array(), output.arrayOffset() + base,
+                    colorFormat, converter);
+            return;
+        }
+        // 各自的position互不影响，并行的各段可以同时写
+        ByteBuffer dst = output.duplicate();
+        int frameSize = width * height;
+        boolean isPlanar = isPlanar(colorFormat);
+        if (strip == null) {
+            strip = new byte[getStripSize(width)];
+        }
+        for (int stripStart = rowStart; stripStart < rowEnd; stripStart += STRIP_ROWS) {
+            int stripEnd = Math.min(stripStart + STRIP_ROWS, rowEnd);
+            int yBytes = (stripEnd - stripStart) * width;
+            int chromaRows = (stripEnd - stripStart + 1) / 2;
+            if (isPlanar) {
+                int planeBytes = chromaRows * (width / 2);
+                converter.convertRows(argb, width, stripStart - argbFirstRow, stripEnd - argbFirstRow, strip, 0, yBytes,
+                        yBytes + planeBytes);
+                int uPosition = base + frameSize + stripStart / 2 * (width / 2);
+                put(dst, base + stripStart * width, strip, 0, yBytes);
+                put(dst, uPosition, strip, yBytes, planeBytes);
+                put(dst, uPosition + frameSize / 4, strip, yBytes + planeBytes, planeBytes);
+            } else {
+                converter.convertRows(argb, width, stripStart - argbFirstRow, stripEnd - argbFirstRow, strip, 0, yBytes, 0);
+                put(dst, base + stripStart * width, strip, 0, yBytes);
+                put(dst, base + frameSize + stripStart / 2 * width, strip, yBytes, chromaRows * width);
+            }
+        }
+    }
+
+    static void checkPlanes(int width, int height, YuvPlanes planes) {
+        if (width > planes.width || height > planes.height) {
+            throw new IllegalArgumentException("frame " + width + "x" + height + " larger than planes " + planes.width + "x" + planes.height);
+        }
+        if (planes.packedBuffer != null && planes.packedBuffer.limit() - planes.packedBase < getYuvSize(width, height)) {
+            throw new IllegalArgumentException("output buffer too small, remaining=" + (planes.packedBuffer.limit() - planes.packedBase)
+                    + ", need=" + getYuvSize(width, height));
+        }
+    }
+
+    /**
+     * @return 写入planes用的实现，紧凑排列时为planes的格式，否则为I420
+     */
+    static YuvConverter getConverter(YuvPlanes planes, ConvertKernel kernel, YuvColorSpace colorSpace) {
+        int colorFormat = planes.packedBuffer != null
+                ? planes.packedColorFormat : MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar;
+        return YuvConverters.get(colorFormat, kernel, colorSpace);
+    }
+
+    /**
+     * 紧凑排列的走{@link #convertRowsToBuffer}；否则每次按I420转STRIP_ROWS行到一小块数组，
+     * Y按行批量put，色度pixelStride为1时按行批量put，否则逐个字节写入
+     *
+     * @param converter {@link #getConverter}取得的实现
+     */
+    static void convertRowsToPlanes(int[] argb, int argbFirstRow, int width, int height, int rowStart, int rowEnd,
+                                    YuvConverter converter, YuvPlanes planes, @Nullable byte[] strip) {
+        if (planes.packedBuffer != null) {
+            convertRowsToBuffer(argb, argbFirstRow, width, height, rowStart, rowEnd, planes.packedBuffer, planes.packedBase,
+                    planes.packedColorFormat, converter, strip);
+            return;
+        }
+        ByteBuffer yDst = planes.yBuffer.duplicate();
+        ByteBuffer uDst = planes.uBuffer.duplicate();
+        ByteBuffer vDst = planes.vBuffer.duplicate();
+        int chromaWidth = width / 2;
+        if (strip == null) {
+            strip = new byte[getStripSize(width)];
+        }
+        for (int stripStart = rowStart; stripStart < rowEnd; stripStart += STRIP_ROWS) {
+            int stripEnd = Math.min(stripStart + STRIP_ROWS, rowEnd);
+            int stripRows = stripEnd - stripStart;
+            int yBytes = stripRows * width;
+            int chromaRows = (stripRows + 1) / 2;
+            int planeBytes = chromaRows * chromaWidth;
+            converter.convertRows(argb, width, stripStart - argbFirstRow, stripEnd - argbFirstRow, strip, 0, yBytes, yBytes + planeBytes);
+            for (int row = 0; row < stripRows; row++) {
+                put(yDst, planes.yBase + (stripStart + row) * planes.yRowStride, strip, row * width, width);
+            }
+            int chromaStart = stripStart / 2;
+            putChroma(uDst, planes.uBase, planes.uRowStride, planes.uPixelStride, chromaStart, chromaRows, chromaWidth, strip, yBytes);
+            putChroma(vDst, planes.vBase, planes.vRowStride, planes.vPixelStride, chromaStart, chromaRows, chromaWidth, strip, yBytes + planeBytes);
+        }
+    }
+
+    /**
+     * 已经转换好的整帧写入planes，紧凑排列时frame为planes的格式，否则frame为I420
+     */
+    static void copyToPlanes(byte[] frame, int width, int height, YuvPlanes planes) {
+        if (planes.packedBuffer != null) {
+            put(planes.packedBuffer.duplicate(), planes.packedBase, frame, 0, getYuvSize(width, height));
+            return;
+        }
+        ByteBuffer yDst = planes.yBuffer.duplicate();
+        for (int row = 0; row < height; row++) {
+            put(yDst, planes.yBase + row * planes.yRowStride, frame, row * width, width);
+        }
+        int frameSize = width * height;
+        int chromaWidth = width / 2;
+        int chromaRows = height / 2;
+        putChroma(planes.uBuffer.duplicate(), planes.uBase, planes.uRowStride, planes.uPixelStride, 0, chromaRows, chromaWidth,
+                frame, frameSize);
+        putChroma(planes.vBuffer.duplicate(), planes.vBase, planes.vRowStride, planes.vPixelStride, 0, chromaRows, chromaWidth,
+                frame, frameSize + frameSize / 4);
+    }
+
+    private static void putChroma(ByteBuffer dst, int base, int rowStride, int pixelStride, int chromaStart, int chromaRows,
+                                  int chromaWidth, byte[] src, int offset) {
+        for (int row = 0; row < chromaRows; row++) {
+            int position = base + (chromaStart + row) * rowStride;
+            int srcIndex = offset + row * chromaWidth;
+            if (pixelStride == 1) {
+                put(dst, position, src, srcIndex, chromaWidth);
+            } else {
+                for (int i = 0; i < chromaWidth; i++) {
+                    dst.put(position + i * pixelStride, src[srcIndex + i]);
+                }
+            }
+        }
+    }
+
+    private static void put(ByteBuffer dst, int position, byte[] src, int offset, int length) {
+        dst.position(position);
+        dst.put(src, offset, length);
+    }
+
+    private static boolean isPlanar(int colorFormat) {
+        return colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar
+                || colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar;
+    }
+
+    /**
+     * BT601_LIMITED的内置实现，{@link YuvConverters}第一次用到时取
+     */
+    static YuvConverter getBuiltinConverter(int colorFormat, ConvertKernel kernel) {
+        return (argb, width, rowStart, rowEnd, yuv, yIndex, uIndex, vIndex) ->
+                convertRowsAt(argb, width, rowStart, rowEnd, yuv, yIndex, uIndex, vIndex, colorFormat, kernel);
+    }
+
+    /**
+     * 按格式和计算方式选择具体实现，色度的写入位置由调用方算好，semi planar的vIndex不使用
+     */
+    private static void convertRowsAt(int[] argb, int width, int rowStart, int rowEnd, byte[] yuv,
+                                      int yIndex, int uIndex, int vIndex, int colorFormat, ConvertKernel kernel) {
+        if (kernel == ConvertKernel.BLOCK_2X2) {
+            if (isPlanar(colorFormat)) {
+                convertBlock2x2(argb, width, rowStart, rowEnd, yuv, yIndex, uIndex, vIndex, 1);
+            } else if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar
+                    || colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar) {
+                convertBlock2x2(argb, width, rowStart, rowEnd, yuv, yIndex, uIndex, uIndex + 1, 2);
+            } else {
+                throw new IllegalArgumentException("Unsupported color format: " + colorFormat);
+            }
+            return;
+        }
+        boolean isLut = kernel == ConvertKernel.LOOKUP_TABLE;
+        switch (colorFormat) {
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar -> {
+                if (isLut) {
+                    convertToYUV420SemiPlanarLut(argb, width, rowStart, rowEnd, yuv, yIndex, uIndex);
+                } else {
+                    convertToYUV420SemiPlanar(argb, width, rowStart, rowEnd, yuv, yIndex, uIndex);
+                }
+            }
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar -> {
+                if (isLut) {
+                    convertToYUV420PackedSemiPlanarLut(argb, width, rowStart, rowEnd, yuv, yIndex, uIndex);
+                } else {
+                    convertToYUV420PackedSemiPlanar(argb, width, rowStart, rowEnd, yuv, yIndex, uIndex);
+                }
+            }
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar -> {
+                if (isLut) {
+                    convertToYUV420PlanarLut(argb, width, rowStart, rowEnd, yuv, yIndex, uIndex, vIndex);
+                } else {
+                    convertToYUV420Planar(argb, width, rowStart, rowEnd, yuv, yIndex, uIndex, vIndex);
+                }
+            }
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar -> {
+                if (isLut) {
+                    convertToYUV420PlanarLut(argb, width, rowStart, rowEnd, yuv, yIndex, uIndex, vIndex);
+                } else {
+                    convertToYUV420PackedPlanar(argb, width, rowStart, rowEnd, yuv, yIndex, uIndex, vIndex);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unsupported color format: " + colorFormat);
+        }
+    }
+
+    /**
+     * 2x2块转换，每次两行，一块写4个Y和一组平均后的U、V
+     * semi planar时vIndex = uIndex + 1、chromaStep = 2，planar时chromaStep = 1
+     * 宽或高为奇数时，最后一列/一行的块只取存在的像素，按边缘复制计算色度
+     */
+    private static void convertBlock2x2(int[] argb, int width, int rowStart, int rowEnd, byte[] yuv,
+                                        int yIndex, int uIndex, int vIndex, int chromaStep) {
+        int evenWidth = width & ~1;
+        for (int j = rowStart; j < rowEnd; j += 2) {
+            int top = j * width;
+            // 最后一行落单时下一行用自己代替，Y只写一行
+            boolean hasBottom = j + 1 < rowEnd;
+            int bottom = hasBottom ? top + width : top;
+            int yTop = yIndex + (j - rowStart) * width;
+            int yBottom = yTop + width;
+            for (int i = 0; i < evenWidth; i += 2) {
+                int p00 = argb[top + i];
+                int p01 = argb[top + i + 1];
+                int p10 = argb[bottom + i];
+                int p11 = argb[bottom + i + 1];
+                int r00 = (p00 >> 16) & 0xff, g00 = (p00 >> 8) & 0xff, b00 = p00 & 0xff;
+                int r01 = (p01 >> 16) & 0xff, g01 = (p01 >> 8) & 0xff, b01 = p01 & 0xff;
+                int r10 = (p10 >> 16) & 0xff, g10 = (p10 >> 8) & 0xff, b10 = p10 & 0xff;
+                int r11 = (p11 >> 16) & 0xff, g11 = (p11 >> 8) & 0xff, b11 = p11 & 0xff;
+                yuv[yTop + i] = luma(r00, g00, b00);
+                yuv[yTop + i + 1] = luma(r01, g01, b01);
+                if (hasBottom) {
+                    yuv[yBottom + i] = luma(r10, g10, b10);
+                    yuv[yBottom + i + 1] = luma(r11, g11, b11);
+                }
+                int r = r00 + r01 + r10 + r11;
+                int g = g00 + g01 + g10 + g11;
+                int b = b00 + b01 + b10 + b11;
+                yuv[uIndex] = chromaU(r, g, b);
+                yuv[vIndex] = chromaV(r, g, b);
+                uIndex += chromaStep;
+                vIndex += chromaStep;
+            }
+            if (evenWidth != width) {
+                int p0 = argb[top + evenWidth];
+                int p1 = argb[bottom + evenWidth];
+                int r0 = (p0 >> 16) & 0xff, g0 = (p0 >> 8) & 0xff, b0 = p0 & 0xff;
+                int r1 = (p1 >> 16) & 0xff, g1 = (p1 >> 8) & 0xff, b1 = p1 & 0xff;
+                yuv[yTop + evenWidth] = luma(r0, g0, b0);
+                if (hasBottom) {
+                    yuv[yBottom + evenWidth] = luma(r1, g1, b1);
+                }
+                int r = (r0 + r1) * 2;
+                int g = (g0 + g1) * 2;
+                int b = (b0 + b1) * 2;
+                yuv[uIndex] = chromaU(r, g, b);
+                yuv[vIndex] = chromaV(r, g, b);
+                uIndex += chromaStep;
+                vIndex += chromaStep;
+            }
+        }
+    }
+
+    /**
+     * 系数保证结果在[16, 235]内，不需要钳位
+     */
+    private static byte luma(int r, int g, int b) {
+        return (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+    }
+
+    /**
+     * r、g、b为4个像素的和，先求和再整体右移10位，等于先平均再计算，结果在[16, 240]内，不需要钳位
+     */
+    private static byte chromaU(int r, int g, int b) {
+        return (byte) (((-38 * r - 74 * g + 112 * b + 512) >> 10) + 128);
+    }
+
+    private static byte chromaV(int r, int g, int b) {
+        return (byte) (((112 * r - 94 * g - 18 * b + 512) >> 10) + 128);
+    }
+
+    /**
+     * (21)NV12格式，YYYYYYYYY, UV交替存储（UVUVUV...）
+     */
+    private static void convertToYUV420SemiPlanar(int[] argb, int width, int rowStart, int rowEnd,
+                                                  byte[] yuv, int yIndex, int uvIndex) {
+        for (int j = rowStart; j < rowEnd; j++) {
             for (int i = 0; i < width; i++) {
                 int argbIndex = j * width + i;
                 int r = (argb[argbIndex] >> 16) & 0xff;
@@ -105,19 +688,14 @@ public class ConvertUtil {
                 }
             }
         }
-        return yuv;
     }
 
     /**
      * (39)NV21格式，YYYYYYYYY, VU交替存储（VUVUVU...）
      */
-    private static byte[] convertToYUV420PackedSemiPlanar(int[] argb, int width, int height) {
-        byte[] yuv = new byte[width * height * 3 / 2];
-        int frameSize = width * height;
-        int yIndex = 0;
-        int uvIndex = frameSize;
-
-        for (int j = 0; j < height; j++) {
+    private static void convertToYUV420PackedSemiPlanar(int[] argb, int width, int rowStart, int rowEnd,
+                                                        byte[] yuv, int yIndex, int uvIndex) {
+        for (int j = rowStart; j < rowEnd; j++) {
             for (int i = 0; i < width; i++) {
                 int argbIndex = j * width + i;
                 int r = (argb[argbIndex] >> 16) & 0xff;
@@ -139,20 +717,14 @@ public class ConvertUtil {
                 }
             }
         }
-        return yuv;
     }
 
     /**
      * (19)YV21格式，YUV分量顺序分开存储: YYYYYYYYYYYYYYYY...UUUU...VVVV...
      */
-    private static byte[] convertToYUV420Planar(int[] argb, int width, int height) {
-        byte[] yuv = new byte[width * height * 3 / 2];
-        int frameSize = width * height;
-        int yIndex = 0;
-        int uIndex = frameSize;
-        int vIndex = frameSize + frameSize / 4;
-
-        for (int j = 0; j < height; j++) {
+    private static void convertToYUV420Planar(int[] argb, int width, int rowStart, int rowEnd,
+                                              byte[] yuv, int yIndex, int uIndex, int vIndex) {
+        for (int j = rowStart; j < rowEnd; j++) {
             for (int i = 0; i < width; i++) {
                 int argbIndex = j * width + i;
                 int r = (argb[argbIndex] >> 16) & 0xff;
@@ -174,21 +746,15 @@ public class ConvertUtil {
                 }
             }
         }
-        return yuv;
     }
 
     /**
      * Packed先V再U，和非Packed相反
      * (20)YV12：YYYYYYYYYYYY...VVVVVVVVV...UUUUUUU....
      */
-    private static byte[] convertToYUV420PackedPlanar(int[] argb, int width, int height) {
-        byte[] yuv = new byte[width * height * 3 / 2];
-        int frameSize = width * height;
-        int yIndex = 0;
-        int uIndex = frameSize;
-        int vIndex = frameSize + frameSize / 4;
-
-        for (int j = 0; j < height; j++) {
+    private static void convertToYUV420PackedPlanar(int[] argb, int width, int rowStart, int rowEnd,
+                                                    byte[] yuv, int yIndex, int uIndex, int vIndex) {
+        for (int j = rowStart; j < rowEnd; j++) {
             for (int i = 0; i < width; i++) {
                 int argbIndex = j * width + i;
                 int r = (argb[argbIndex] >> 16) & 0xff;
@@ -210,6 +776,77 @@ public class ConvertUtil {
                 }
             }
         }
-        return yuv;
+    }
+
+    /**
+     * 查表版的(21)NV12，与{@link #convertToYUV420SemiPlanar}逐位相同
+     */
+    private static void convertToYUV420SemiPlanarLut(int[] argb, int width, int rowStart, int rowEnd,
+                                                     byte[] yuv, int yIndex, int uvIndex) {
+        byte[] clamp = YuvLookupTable.CLAMP;
+        for (int j = rowStart; j < rowEnd; j++) {
+            for (int i = 0; i < width; i++) {
+                int pixel = argb[j * width + i];
+                int r = (pixel >> 16) & 0xff;
+                int g = (pixel >> 8) & 0xff;
+                int b = pixel & 0xff;
+
+                yuv[yIndex++] = clamp[((YuvLookupTable.Y_R[r] + YuvLookupTable.Y_G[g] + YuvLookupTable.Y_B[b]) >> 8) + Y_CLAMP_BIAS];
+
+                if (j % 2 == 0 && i % 2 == 0) {
+                    yuv[uvIndex++] = clamp[((YuvLookupTable.U_R[r] + YuvLookupTable.U_G[g] + YuvLookupTable.U_B[b]) >> 8) + UV_CLAMP_BIAS];
+                    yuv[uvIndex++] = clamp[((YuvLookupTable.V_R[r] + YuvLookupTable.V_G[g] + YuvLookupTable.V_B[b]) >> 8) + UV_CLAMP_BIAS];
+                }
+            }
+        }
+    }
+
+    /**
+     * 查表版的(39)，与{@link #convertToYUV420PackedSemiPlanar}逐位相同
+     */
+    private static void convertToYUV420PackedSemiPlanarLut(int[] argb, int width, int rowStart, int rowEnd,
+                                                           byte[] yuv, int yIndex, int uvIndex) {
+        byte[] clamp = YuvLookupTable.CLAMP;
+        for (int j = rowStart; j < rowEnd; j++) {
+            for (int i = 0; i < width; i++) {
+                int pixel = argb[j * width + i];
+                int r = (pixel >> 16) & 0xff;
+                int g = (pixel >> 8) & 0xff;
+                int b = pixel & 0xff;
+
+                yuv[yIndex++] = clamp[((YuvLookupTable.Y_R[r] + YuvLookupTable.Y_G[g] + YuvLookupTable.Y_B[b]) >> 8) + Y_CLAMP_BIAS];
+
+                if (j % 2 == 0) {
+                    if (i % 2 == 0) {
+                        yuv[uvIndex++] = clamp[((YuvLookupTable.U_R[r] + YuvLookupTable.U_G[g] + YuvLookupTable.U_B[b]) >> 8) + UV_CLAMP_BIAS];
+                    } else {
+                        yuv[uvIndex++] = clamp[((YuvLookupTable.V_R[r] + YuvLookupTable.V_G[g] + YuvLookupTable.V_B[b]) >> 8) + UV_CLAMP_BIAS];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 查表版的(19)和(20)，目前两者的输出本就相同，与{@link #convertToYUV420Planar}逐位相同
+     */
+    private static void convertToYUV420PlanarLut(int[] argb, int width, int rowStart, int rowEnd,
+                                                 byte[] yuv, int yIndex, int uIndex, int vIndex) {
+        byte[] clamp = YuvLookupTable.CLAMP;
+        for (int j = rowStart; j < rowEnd; j++) {
+            for (int i = 0; i < width; i++) {
+                int pixel = argb[j * width + i];
+                int r = (pixel >> 16) & 0xff;
+                int g = (pixel >> 8) & 0xff;
+                int b = pixel & 0xff;
+
+                yuv[yIndex++] = clamp[((YuvLookupTable.Y_R[r] + YuvLookupTable.Y_G[g] + YuvLookupTable.Y_B[b]) >> 8) + Y_CLAMP_BIAS];
+
+                if (j % 2 == 0 && i % 2 == 0) {
+                    yuv[uIndex++] = clamp[((YuvLookupTable.U_R[r] + YuvLookupTable.U_G[g] + YuvLookupTable.U_B[b]) >> 8) + UV_CLAMP_BIAS];
+                    yuv[vIndex++] = clamp[((YuvLookupTable.V_R[r] + YuvLookupTable.V_G[g] + YuvLookupTable.V_B[b]) >> 8) + UV_CLAMP_BIAS];
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,248 @@
+package io.keyss.view_record.utils.yuv;
+
+import android.graphics.Bitmap;
+import android.media.MediaCodecInfo;
+
+import androidx.annotation.Nullable;
+
+import io.keyss.view_record.utils.MemoryBudget;
+
+/**
+ * Description: 增量转换，适合大部分区域不变的界面（仪表盘之类，每帧变化一般不到10%）
+ * <p>
+ * 保留上一帧的argb和转换好的yuv，按TILE_SIZE x TILE_SIZE分块比较，只重新转换变化了的块，
+ * 没变的块直接沿用上一帧的yuv。块的起点都是偶数，色度不会跨块，结果与整帧转换逐位相同
+ * <p>
+ * 第一帧、宽高或格式变化、宽高为奇数时整帧转换
+ * 同时保留两帧argb和一帧yuv，1080p约19M，设置了MemoryBudget时分配前登记
+ * 不是线程安全的，一个编码线程一个；返回的数组是保留的那一帧，下一帧会被覆盖
+ */
+public class DirtyTileConverter {
+    public static final int DEFAULT_TILE_SIZE = 16;
+
+    private final int tileSize;
+    private final int[] tileArgb;
+    private final byte[] tileYuv;
+
+    private int[] previousArgb = new int[0];
+    private int[] currentArgb = new int[0];
+    private byte[] yuv = new byte[0];
+    private int width;
+    private int height;
+    private int colorFormat;
+    private YuvConverter converter;
+
+    private int lastChangedTiles;
+    private int lastTotalTiles;
+    @Nullable
+    private MemoryBudget memoryBudget;
+    /**
+     * previousArgb、currentArgb、yuv在memoryBudget登记的字节数
+     */
+    private long chargedBytes;
+
+    /**
+     * @param tileSize 块的边长，必须是偶数
+     */
+    public DirtyTileConverter(int tileSize) {
+        if (tileSize <= 0 || tileSize % 2 != 0) {
+            throw new IllegalArgumentException("tileSize must be a positive even number: " + tileSize);
+        }
+        this.tileSize = tileSize;
+        tileArgb = new int[tileSize * tileSize];
+        tileYuv = new byte[ConvertUtil.getYuvSize(tileSize, tileSize)];
+    }
+
+    public DirtyTileConverter() {
+        this(DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * 与{@link ConversionContext#setMemoryBudget}相同，分配前先登记，超出时抛IllegalStateException
+     */
+    public void setMemoryBudget(@Nullable MemoryBudget memoryBudget) {
+        if (this.memoryBudget != null) {
+            this.memoryBudget.release(chargedBytes);
+        }
+        this.memoryBudget = memoryBudget;
+        if (memoryBudget != null) {
+            memoryBudget.reserve(chargedBytes, "DirtyTileConverter");
+        }
+    }
+
+    /**
+     * @return 保留的整帧yuv，下一帧会被覆盖
+     */
+    public byte[] convertBitmapToYUVByteArray(Bitmap bitmap, int colorFormat, ConvertKernel kernel) {
+        return convertBitmapToYUVByteArray(bitmap, colorFormat, kernel, YuvColorSpace.BT601_LIMITED);
+    }
+
+    public byte[] convertBitmapToYUVByteArray(Bitmap bitmap, int colorFormat, ConvertKernel kernel, YuvColorSpace colorSpace) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int size = width * height;
+        if (currentArgb.length != size) {
+            charge(currentArgb.length * 4L, size * 4L, "argb");
+            currentArgb = new int[size];
+        }
+        bitmap.getPixels(currentArgb, 0, width, 0, 0, width, height);
+        return convert(currentArgb, width, height, colorFormat, YuvConverters.get(colorFormat, kernel, colorSpace));
+    }
+
+    /**
+     * 写入编码器的输入buffer或Image，紧凑排列时按其格式保留，否则按I420保留再拷贝到各平面
+     *
+     * @return queueInputBuffer时的size
+     */
+    public int convertBitmapToYUVPlanes(Bitmap bitmap, ConvertKernel kernel, YuvPlanes planes) {
+        return convertBitmapToYUVPlanes(bitmap, kernel, YuvColorSpace.BT601_LIMITED, planes);
+    }
+
+    public int convertBitmapToYUVPlanes(Bitmap bitmap, ConvertKernel kernel, YuvColorSpace colorSpace, YuvPlanes planes) {
+        int colorFormat = planes.packedBuffer != null
+                ? planes.packedColorFormat : MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar;
+        ConvertUtil.checkPlanes(bitmap.getWidth(), bitmap.getHeight(), planes);
+        byte[] frame = convertBitmapToYUVByteArray(bitmap, colorFormat, kernel, colorSpace);
+        ConvertUtil.copyToPlanes(frame, width, height, planes);
+        return planes.size;
+    }
+
+    /**
+     * @param argb      本帧的argb，即currentArgb，处理完成后作为下一帧比较的基准
+     * @param converter 与上一帧不同时整帧转换
+     */
+    byte[] convert(int[] argb, int width, int height, int colorFormat, YuvConverter converter) {
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+        lastTotalTiles = tilesX * tilesY;
+        if (width != this.width || height != this.height || colorFormat != this.colorFormat || converter != this.converter
+                || previousArgb.length != argb.length || width % 2 != 0 || height % 2 != 0) {
+            this.width = width;
+            this.height = height;
+            this.colorFormat = colorFormat;
+            this.converter = converter;
+            int size = ConvertUtil.getYuvSize(width, height);
+            if (yuv.length != size) {
+                charge(yuv.length, size, "yuv");
+                yuv = new byte[size];
+            }
+            ConvertUtil.convertRows(argb, 0, width, height, 0, height, yuv, 0, colorFormat, converter);
+            lastChangedTiles = lastTotalTiles;
+        } else {
+            int changed = 0;
+            for (int tileY = 0; tileY < tilesY; tileY++) {
+                int y0 = tileY * tileSize;
+                int tileHeight = Math.min(tileSize, height - y0);
+                for (int tileX = 0; tileX < tilesX; tileX++) {
+                    int x0 = tileX * tileSize;
+                    int tileWidth = Math.min(tileSize, width - x0);
+                    if (isTileChanged(argb, previousArgb, width, x0, y0, tileWidth, tileHeight)) {
+                        convertTile(argb, x0, y0, tileWidth, tileHeight);
+                        changed++;
+                    }
+                }
+            }
+            lastChangedTiles = changed;
+        }
+        // 交换，本帧作为下一帧的基准
+        int[] previous = previousArgb;
+        previousArgb = argb;
+        currentArgb = previous;
+        return yuv;
+    }
+
+    /**
+     * @return 上一帧重新转换的块占比，[0, 1]，整帧转换时为1
+     */
+    public float getLastChangedRatio() {
+        return lastTotalTiles == 0 ? 0f : (float) lastChangedTiles / lastTotalTiles;
+    }
+
+    public int getLastChangedTiles() {
+        return lastChangedTiles;
+    }
+
+    public int getLastTotalTiles() {
+        return lastTotalTiles;
+    }
+
+    /**
+     * 丢掉保留的帧，下一帧整帧转换，登记的字节全部释放
+     */
+    public void reset() {
+        previousArgb = new int[0];
+        currentArgb = new int[0];
+        yuv = new byte[0];
+        width = 0;
+        height = 0;
+        lastChangedTiles = 0;
+        lastTotalTiles = 0;
+        if (memoryBudget != null) {
+            memoryBudget.release(chargedBytes);
+        }
+        chargedBytes = 0;
+    }
+
+    /**
+     * 释放旧的，登记新的，超出时抛出，原来的缓冲保持不变
+     */
+    private void charge(long oldBytes, long newBytes, String what) {
+        MemoryBudget budget = memoryBudget;
+        if (budget == null) {
+            return;
+        }
+        budget.release(oldBytes);
+        chargedBytes -= oldBytes;
+        if (!budget.tryReserve(newBytes)) {
+            budget.tryReserve(oldBytes);
+            chargedBytes += oldBytes;
+            throw new IllegalStateException("超过内存预算: DirtyTileConverter " + what + "需要" + newBytes + "字节, " + budget);
+        }
+        chargedBytes += newBytes;
+    }
+
+    private static boolean isTileChanged(int[] argb, int[] previous, int width, int x0, int y0, int tileWidth, int tileHeight) {
+        for (int row = 0; row < tileHeight; row++) {
+            int index = (y0 + row) * width + x0;
+            int end = index + tileWidth;
+            for (; index < end; index++) {
+                if (argb[index] != previous[index]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 块拷贝成一个小图，用同样的converter转换成紧凑排列，再按行放回整帧中对应的位置
+     */
+    private void convertTile(int[] argb, int x0, int y0, int tileWidth, int tileHeight) {
+        for (int row = 0; row < tileHeight; row++) {
+            System.arraycopy(argb, (y0 + row) * width + x0, tileArgb, row * tileWidth, tileWidth);
+        }
+        ConvertUtil.convertRows(tileArgb, 0, tileWidth, tileHeight, 0, tileHeight, tileYuv, 0, colorFormat, converter);
+        int frameSize = width * height;
+        int tileFrameSize = tileWidth * tileHeight;
+        for (int row = 0; row < tileHeight; row++) {
+            System.arraycopy(tileYuv, row * tileWidth, yuv, (y0 + row) * width + x0, tileWidth);
+        }
+        int chromaRows = tileHeight / 2;
+        int chromaY0 = y0 / 2;
+        if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar
+                || colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar) {
+            int tileChromaWidth = tileWidth / 2;
+            int chromaWidth = width / 2;
+            for (int row = 0; row < chromaRows; row++) {
+                int src = tileFrameSize + row * tileChromaWidth;
+                int dst = frameSize + (chromaY0 + row) * chromaWidth + x0 / 2;
+                System.arraycopy(tileYuv, src, yuv, dst, tileChromaWidth);
+                System.arraycopy(tileYuv, src + tileFrameSize / 4, yuv, dst + frameSize / 4, tileChromaWidth);
+            }
+        } else {
+            for (int row = 0; row < chromaRows; row++) {
+                System.arraycopy(tileYuv, tileFrameSize + row * tileWidth, yuv, frameSize + (chromaY0 + row) * width + x0, tileWidth);
+            }
+        }
+    }
+}
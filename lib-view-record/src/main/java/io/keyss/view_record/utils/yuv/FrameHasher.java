@@ -0,0 +1,61 @@
+package io.keyss.view_record.utils.yuv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Description: 帧内容的64位哈希，用来判断画面是否变化
+ * <p>
+ * 每次读8个字节混合，读的是整帧而不是抽样，时钟跳一个数字这种小变化也不会漏掉
+ * 相对转换本身的开销很小，1080p的yuv约3M，按long读只有几十万次混合
+ */
+public final class FrameHasher {
+    private static final long SEED = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x9e3779b97f4a7c15L;
+
+    private FrameHasher() {
+    }
+
+    public static long hash(byte[] data, int offset, int length) {
+        return hash(ByteBuffer.wrap(data), offset, length);
+    }
+
+    /**
+     * 按绝对位置读取，不改变buffer的position
+     */
+    public static long hash(ByteBuffer data, int offset, int length) {
+        return mixRange(SEED, data, offset, length);
+    }
+
+    /**
+     * 只读写入了像素的部分，行尾和平面之间的对齐填充不参与
+     */
+    public static long hash(YuvPlanes planes) {
+        int width = planes.width;
+        int height = planes.height;
+        if (planes.packedBuffer != null) {
+            return mixRange(SEED, planes.packedBuffer, planes.packedBase, ConvertUtil.getYuvSize(width, height));
+        }
+        long hash = SEED;
+        for (int row = 0; row < height; row++) {
+            hash = mixRange(hash, planes.yBuffer, planes.yBase + row * planes.yRowStride, width);
+        }
+        int chromaWidth = width / 2;
+        for (int row = 0; row < height / 2; row++) {
+            hash = mixRange(hash, planes.uBuffer, planes.uBase + row * planes.uRowStride, (chromaWidth - 1) * planes.uPixelStride + 1);
+            hash = mixRange(hash, planes.vBuffer, planes.vBase + row * planes.vRowStride, (chromaWidth - 1) * planes.vPixelStride + 1);
+        }
+        return hash;
+    }
+
+    private static long mixRange(long hash, ByteBuffer data, int offset, int length) {
+        int end = offset + length;
+        int index = offset;
+        for (; index + 8 <= end; index += 8) {
+            hash = (hash ^ data.getLong(index)) * PRIME;
+        }
+        for (; index < end; index++) {
+            hash = (hash ^ data.get(index)) * PRIME;
+        }
+        return hash ^ (hash >>> 32);
+    }
+}
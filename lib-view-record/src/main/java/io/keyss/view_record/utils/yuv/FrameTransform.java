@@ -0,0 +1,281 @@
+package io.keyss.view_record.utils.yuv;
+
+import android.graphics.Rect;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Description: 转换时顺带完成的裁剪、旋转和缩放，源bitmap保持原尺寸，不需要先变换成一张新的bitmap或整帧argb
+ * <p>
+ * 先按crop取源的一块区域，再顺时针旋转rotation度，最后缩放到输出尺寸，三步都只是取样坐标的换算
+ * <p>
+ * 每次按输出的STRIP_ROWS行从源取样到一小块数组，直接交给YuvConverter，缩放后的像素只在缓存里存在
+ * 每个输出像素对应源坐标的表按源尺寸生成一次，尺寸不变时复用
+ * 不是线程安全的，一个编码线程一个；并行转换时在分发前由调用线程准备好
+ */
+public final class FrameTransform {
+    private final int outWidth;
+    private final int outHeight;
+    private final ScaleFilter filter;
+    /**
+     * 不用Rect保存和求交，JVM的单元测试里android.jar的Rect不能用
+     */
+    private final boolean hasCrop;
+    private final int cropLeft;
+    private final int cropTop;
+    private final int cropRight;
+    private final int cropBottom;
+    private final int rotation;
+
+    private int sourceWidth = -1;
+    private int sourceHeight = -1;
+    /**
+     * crop与源求交后的区域
+     */
+    private int regionLeft;
+    private int regionTop;
+    private int regionWidth;
+    private int regionHeight;
+    /**
+     * 区域旋转后的宽高，缩放表按这个尺寸生成
+     */
+    private int rotatedWidth;
+    private int rotatedHeight;
+    /**
+     * 坐标都在旋转后的区域内
+     * BOX：输出像素i对应[start[i], start[i + 1])
+     * BILINEAR：输出像素i对应index[i] + frac[i] / 256
+     */
+    private int[] xStart;
+    private int[] yStart;
+    private int[] xFrac;
+    private int[] yFrac;
+
+    /**
+     * @param outWidth  输出宽，必须是正偶数
+     * @param outHeight 输出高，必须是正偶数
+     * @param crop      源bitmap中要录制的区域，为null时为整个bitmap，超出bitmap的部分忽略
+     * @param rotation  顺时针旋转的角度，0、90、180、270之一，90和270时输出的宽高对应区域的高宽
+     */
+    public FrameTransform(int outWidth, int outHeight, ScaleFilter filter, @Nullable Rect crop, int rotation) {
+        this(outWidth, outHeight, filter, crop != null, crop == null ? 0 : crop.left, crop == null ? 0 : crop.top,
+                crop == null ? 0 : crop.right, crop == null ? 0 : crop.bottom, rotation);
+    }
+
+    /**
+     * hasCrop为false时忽略crop的四个值
+     */
+    FrameTransform(int outWidth, int outHeight, ScaleFilter filter, boolean hasCrop, int cropLeft, int cropTop, int cropRight,
+                   int cropBottom, int rotation) {
+        if (outWidth <= 0 || outHeight <= 0 || outWidth % 2 != 0 || outHeight % 2 != 0) {
+            throw new IllegalArgumentException("output size must be positive even numbers: " + outWidth + "x" + outHeight);
+        }
+        if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+            throw new IllegalArgumentException("rotation must be 0, 90, 180 or 270: " + rotation);
+        }
+        if (hasCrop && (cropLeft >= cropRight || cropTop >= cropBottom)) {
+            throw new IllegalArgumentException("crop is empty: " + cropString(cropLeft, cropTop, cropRight, cropBottom));
+        }
+        this.outWidth = outWidth;
+        this.outHeight = outHeight;
+        this.filter = filter;
+        this.hasCrop = hasCrop;
+        this.cropLeft = cropLeft;
+        this.cropTop = cropTop;
+        this.cropRight = cropRight;
+        this.cropBottom = cropBottom;
+        this.rotation = rotation;
+    }
+
+    public FrameTransform(int outWidth, int outHeight, ScaleFilter filter) {
+        this(outWidth, outHeight, filter, null, 0);
+    }
+
+    public FrameTransform(int outWidth, int outHeight) {
+        this(outWidth, outHeight, ScaleFilter.BOX);
+    }
+
+    public int getOutWidth() {
+        return outWidth;
+    }
+
+    public int getOutHeight() {
+        return outHeight;
+    }
+
+    public ScaleFilter getFilter() {
+        return filter;
+    }
+
+    @Nullable
+    public Rect getCrop() {
+        return hasCrop ? new Rect(cropLeft, cropTop, cropRight, cropBottom) : null;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * @return 没有裁剪旋转且源与输出尺寸相同，取样就是原像素，可以直接按源转换
+     */
+    public boolean isIdentity(int sourceWidth, int sourceHeight) {
+        return !hasCrop && rotation == 0 && sourceWidth == outWidth && sourceHeight == outHeight;
+    }
+
+    /**
+     * 源尺寸变化时重新生成坐标表，在分发到各线程前调用
+     *
+     * @throws IllegalArgumentException crop与源没有交集
+     */
+    void prepare(int sourceWidth, int sourceHeight) {
+        if (sourceWidth == this.sourceWidth && sourceHeight == this.sourceHeight) {
+            return;
+        }
+        int left = hasCrop ? Math.max(cropLeft, 0) : 0;
+        int top = hasCrop ? Math.max(cropTop, 0) : 0;
+        int right = hasCrop ? Math.min(cropRight, sourceWidth) : sourceWidth;
+        int bottom = hasCrop ? Math.min(cropBottom, sourceHeight) : sourceHeight;
+        if (left >= right || top >= bottom) {
+            throw new IllegalArgumentException("crop " + cropString(cropLeft, cropTop, cropRight, cropBottom)
+                    + " outside source " + sourceWidth + "x" + sourceHeight);
+        }
+        regionLeft = left;
+        regionTop = top;
+        regionWidth = right - left;
+        regionHeight = bottom - top;
+        boolean isSwap = rotation == 90 || rotation == 270;
+        rotatedWidth = isSwap ? regionHeight : regionWidth;
+        rotatedHeight = isSwap ? regionWidth : regionHeight;
+        if (filter == ScaleFilter.BOX) {
+            xStart = boxStarts(rotatedWidth, outWidth);
+            yStart = boxStarts(rotatedHeight, outHeight);
+        } else {
+            xStart = new int[outWidth];
+            xFrac = new int[outWidth];
+            bilinearPositions(rotatedWidth, outWidth, xStart, xFrac);
+            yStart = new int[outHeight];
+            yFrac = new int[outHeight];
+            bilinearPositions(rotatedHeight, outHeight, yStart, yFrac);
+        }
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+    }
+
+    /**
+     * 生成输出的[rowStart, rowEnd)行，每STRIP_ROWS行交给writer一次
+     *
+     * @param stripArgb 长度至少为{@link ConvertUtil#getStripArgbSize}(outWidth)
+     */
+    void sampleRows(ArgbSource source, int rowStart, int rowEnd, int[] stripArgb, ConvertUtil.RowsWriter writer) {
+        int stripRows = stripArgb.length / outWidth;
+        for (int stripStart = rowStart; stripStart < rowEnd; stripStart += stripRows) {
+            int stripEnd = Math.min(stripStart + stripRows, rowEnd);
+            int offset = 0;
+            for (int y = stripStart; y < stripEnd; y++) {
+                if (filter == ScaleFilter.BOX) {
+                    boxRow(source, y, stripArgb, offset);
+                } else {
+                    bilinearRow(source, y, stripArgb, offset);
+                }
+                offset += outWidth;
+            }
+            writer.write(stripArgb, stripStart, stripStart, stripEnd);
+        }
+    }
+
+    private void boxRow(ArgbSource source, int y, int[] dst, int offset) {
+        int sy0 = yStart[y];
+        int sy1 = Math.max(sy0 + 1, yStart[y + 1]);
+        for (int x = 0; x < outWidth; x++) {
+            int sx0 = xStart[x];
+            int sx1 = Math.max(sx0 + 1, xStart[x + 1]);
+            int count = (sy1 - sy0) * (sx1 - sx0);
+            if (count == 1) {
+                dst[offset + x] = sample(source, sx0, sy0);
+                continue;
+            }
+            int r = 0;
+            int g = 0;
+            int b = 0;
+            for (int sy = sy0; sy < sy1; sy++) {
+                for (int sx = sx0; sx < sx1; sx++) {
+                    int pixel = sample(source, sx, sy);
+                    r += (pixel >> 16) & 0xff;
+                    g += (pixel >> 8) & 0xff;
+                    b += pixel & 0xff;
+                }
+            }
+            int half = count >> 1;
+            dst[offset + x] = ((r + half) / count << 16) | ((g + half) / count << 8) | ((b + half) / count);
+        }
+    }
+
+    private void bilinearRow(ArgbSource source, int y, int[] dst, int offset) {
+        int sy0 = yStart[y];
+        int sy1 = Math.min(sy0 + 1, rotatedHeight - 1);
+        int wy = yFrac[y];
+        for (int x = 0; x < outWidth; x++) {
+            int sx0 = xStart[x];
+            int sx1 = Math.min(sx0 + 1, rotatedWidth - 1);
+            int wx = xFrac[x];
+            int p00 = sample(source, sx0, sy0);
+            int p01 = sample(source, sx1, sy0);
+            int p10 = sample(source, sx0, sy1);
+            int p11 = sample(source, sx1, sy1);
+            dst[offset + x] = (lerp(p00 >> 16, p01 >> 16, p10 >> 16, p11 >> 16, wx, wy) << 16)
+                    | (lerp(p00 >> 8, p01 >> 8, p10 >> 8, p11 >> 8, wx, wy) << 8)
+                    | lerp(p00, p01, p10, p11, wx, wy);
+        }
+    }
+
+    /**
+     * 旋转后区域内的(x, y)换算到源坐标
+     */
+    private int sample(ArgbSource source, int x, int y) {
+        return switch (rotation) {
+            case 90 -> source.get(regionLeft + y, regionTop + regionHeight - 1 - x);
+            case 180 -> source.get(regionLeft + regionWidth - 1 - x, regionTop + regionHeight - 1 - y);
+            case 270 -> source.get(regionLeft + regionWidth - 1 - y, regionTop + x);
+            default -> source.get(regionLeft + x, regionTop + y);
+        };
+    }
+
+    private static String cropString(int left, int top, int right, int bottom) {
+        return "Rect(" + left + ", " + top + " - " + right + ", " + bottom + ")";
+    }
+
+    /**
+     * 各取低8位，权重为1/256
+     */
+    private static int lerp(int c00, int c01, int c10, int c11, int wx, int wy) {
+        int top = (c00 & 0xff) * (256 - wx) + (c01 & 0xff) * wx;
+        int bottom = (c10 & 0xff) * (256 - wx) + (c11 & 0xff) * wx;
+        return (top * (256 - wy) + bottom * wy + 32768) >> 16;
+    }
+
+    private static int[] boxStarts(int source, int out) {
+        int[] starts = new int[out + 1];
+        for (int i = 0; i <= out; i++) {
+            starts[i] = (int) ((long) i * source / out);
+        }
+        return starts;
+    }
+
+    /**
+     * 像素中心对齐：(i + 0.5) * source / out - 0.5，超出边缘的取边缘
+     */
+    private static void bilinearPositions(int source, int out, int[] index, int[] frac) {
+        for (int i = 0; i < out; i++) {
+            long position = Math.max(0, (2L * i + 1) * source * 128 / out - 128);
+            int integer = (int) (position >> 8);
+            if (integer >= source - 1) {
+                index[i] = source - 1;
+                frac[i] = 0;
+            } else {
+                index[i] = integer;
+                frac[i] = (int) (position & 0xff);
+            }
+        }
+    }
+}
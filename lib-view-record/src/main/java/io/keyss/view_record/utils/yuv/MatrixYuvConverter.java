@@ -0,0 +1,125 @@
+package io.keyss.view_record.utils.yuv;
+
+/**
+ * Description: 按{@link YuvColorSpace}的系数转换，BT601_LIMITED以外的标准和范围都用这个
+ * <p>
+ * 和{@link YuvLookupTable}一样每个通道一张表，表按实例的系数生成，full range的结果可能超出[0, 255]，最后查钳位表
+ * semi planar（21、39）的色度都按UV交替写，planar（19、20）按U平面、V平面写
+ * average为true时色度取2x2块的平均值，否则取块左上角的像素，与{@link ConvertKernel}的两种取法对应
+ */
+final class MatrixYuvConverter implements YuvConverter {
+    private final YuvColorSpace colorSpace;
+    private final boolean isSemiPlanar;
+    private final boolean isAverage;
+    private final int yBias;
+
+    private final int[] yR = new int[256];
+    private final int[] yG = new int[256];
+    private final int[] yB = new int[256];
+    private final int[] uR = new int[256];
+    private final int[] uG = new int[256];
+    private final int[] uB = new int[256];
+    private final int[] vR = new int[256];
+    private final int[] vG = new int[256];
+    private final int[] vB = new int[256];
+
+    MatrixYuvConverter(YuvColorSpace colorSpace, boolean isSemiPlanar, boolean isAverage) {
+        this.colorSpace = colorSpace;
+        this.isSemiPlanar = isSemiPlanar;
+        this.isAverage = isAverage;
+        yBias = colorSpace.yOffset + YuvLookupTable.CLAMP_OFFSET;
+        for (int i = 0; i < 256; i++) {
+            yR[i] = colorSpace.yR * i;
+            yG[i] = colorSpace.yG * i;
+            yB[i] = colorSpace.yB * i + 128;
+            uR[i] = colorSpace.uR * i;
+            uG[i] = colorSpace.uG * i;
+            uB[i] = colorSpace.uB * i + 128;
+            vR[i] = colorSpace.vR * i;
+            vG[i] = colorSpace.vG * i;
+            vB[i] = colorSpace.vB * i + 128;
+        }
+    }
+
+    @Override
+    public void convertRows(int[] argb, int width, int rowStart, int rowEnd, byte[] yuv, int yIndex, int uIndex, int vIndex) {
+        int chromaStep = isSemiPlanar ? 2 : 1;
+        if (isSemiPlanar) {
+            vIndex = uIndex + 1;
+        }
+        if (isAverage) {
+            convertAverage(argb, width, rowStart, rowEnd, yuv, yIndex, uIndex, vIndex, chromaStep);
+        } else {
+            convertTopLeft(argb, width, rowStart, rowEnd, yuv, yIndex, uIndex, vIndex, chromaStep);
+        }
+    }
+
+    private void convertTopLeft(int[] argb, int width, int rowStart, int rowEnd, byte[] yuv,
+                                int yIndex, int uIndex, int vIndex, int chromaStep) {
+        byte[] clamp = YuvLookupTable.CLAMP;
+        int uvBias = 128 + YuvLookupTable.CLAMP_OFFSET;
+        for (int j = rowStart; j < rowEnd; j++) {
+            boolean isChromaRow = j % 2 == 0;
+            for (int i = 0; i < width; i++) {
+                int pixel = argb[j * width + i];
+                int r = (pixel >> 16) & 0xff;
+                int g = (pixel >> 8) & 0xff;
+                int b = pixel & 0xff;
+
+                yuv[yIndex++] = clamp[((yR[r] + yG[g] + yB[b]) >> 8) + yBias];
+
+                if (isChromaRow && i % 2 == 0) {
+                    yuv[uIndex] = clamp[((uR[r] + uG[g] + uB[b]) >> 8) + uvBias];
+                    yuv[vIndex] = clamp[((vR[r] + vG[g] + vB[b]) >> 8) + uvBias];
+                    uIndex += chromaStep;
+                    vIndex += chromaStep;
+                }
+            }
+        }
+    }
+
+    /**
+     * 与ConvertUtil中BLOCK_2X2的处理相同，宽或高为奇数时边缘复制
+     */
+    private void convertAverage(int[] argb, int width, int rowStart, int rowEnd, byte[] yuv,
+                                int yIndex, int uIndex, int vIndex, int chromaStep) {
+        byte[] clamp = YuvLookupTable.CLAMP;
+        int uvBias = 128 + YuvLookupTable.CLAMP_OFFSET;
+        for (int j = rowStart; j < rowEnd; j += 2) {
+            int top = j * width;
+            boolean hasBottom = j + 1 < rowEnd;
+            int bottom = hasBottom ? top + width : top;
+            int yTop = yIndex + (j - rowStart) * width;
+            int yBottom = yTop + width;
+            for (int i = 0; i < width; i += 2) {
+                // 最后一列落单时右边用自己代替
+                int right = Math.min(i + 1, width - 1);
+                int p00 = argb[top + i];
+                int p01 = argb[top + right];
+                int p10 = argb[bottom + i];
+                int p11 = argb[bottom + right];
+                yuv[yTop + i] = luma(p00);
+                if (right != i) {
+                    yuv[yTop + right] = luma(p01);
+                }
+                if (hasBottom) {
+                    yuv[yBottom + i] = luma(p10);
+                    if (right != i) {
+                        yuv[yBottom + right] = luma(p11);
+                    }
+                }
+                int r = ((p00 >> 16) & 0xff) + ((p01 >> 16) & 0xff) + ((p10 >> 16) & 0xff) + ((p11 >> 16) & 0xff);
+                int g = ((p00 >> 8) & 0xff) + ((p01 >> 8) & 0xff) + ((p10 >> 8) & 0xff) + ((p11 >> 8) & 0xff);
+                int b = (p00 & 0xff) + (p01 & 0xff) + (p10 & 0xff) + (p11 & 0xff);
+                yuv[uIndex] = clamp[((colorSpace.uR * r + colorSpace.uG * g + colorSpace.uB * b + 512) >> 10) + uvBias];
+                yuv[vIndex] = clamp[((colorSpace.vR * r + colorSpace.vG * g + colorSpace.vB * b + 512) >> 10) + uvBias];
+                uIndex += chromaStep;
+                vIndex += chromaStep;
+            }
+        }
+    }
+
+    private byte luma(int pixel) {
+        return YuvLookupTable.CLAMP[((yR[(pixel >> 16) & 0xff] + yG[(pixel >> 8) & 0xff] + yB[pixel & 0xff]) >> 8) + yBias];
+    }
+}
@@ -0,0 +1,377 @@
+package io.keyss.view_record.utils.yuv;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Description: 按行分段多线程转换，每段的起始行都是偶数，色度行不会被拆开，各段写入的区域互不重叠
+ * <p>
+ * 调用线程自己也处理一段，所以线程池只需要 threadCount - 1 条线程
+ * 像素数小于阈值时仍然单线程，小图分段的调度开销比转换本身还大
+ */
+public class ParallelConverter {
+    /**
+     * 默认阈值，720p以下单线程
+     */
+    public static final int DEFAULT_MIN_PARALLEL_PIXELS = 1280 * 720;
+
+    private final int threadCount;
+    private final int minParallelPixels;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param threadCount       参与转换的线程数（包括调用线程），小于等于1时不创建线程池
+     * @param minParallelPixels 像素数小于该值时单线程转换
+     */
+    public ParallelConverter(int threadCount, int minParallelPixels) {
+        this.threadCount = Math.max(1, threadCount);
+        this.minParallelPixels = minParallelPixels;
+        if (this.threadCount > 1) {
+            pool = new ForkJoinPool(this.threadCount - 1, p -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                thread.setName("YuvConvert-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        } else {
+            pool = null;
+        }
+    }
+
+    public ParallelConverter(int threadCount) {
+        this(threadCount, DEFAULT_MIN_PARALLEL_PIXELS);
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public byte[] convertBitmapToYUVByteArray(Bitmap bitmap, int colorFormat, ConvertKernel kernel) {
+        return convertBitmapToYUVByteArray(bitmap, colorFormat, kernel, null);
+    }
+
+    /**
+     * @see ConvertUtil#convertBitmapToYUVByteArray(Bitmap, int, ConvertKernel, ConversionContext)
+     */
+    public byte[] convertBitmapToYUVByteArray(Bitmap bitmap, int colorFormat, ConvertKernel kernel,
+                                              @Nullable ConversionContext context) {
+        return convertBitmapToYUVByteArray(bitmap, colorFormat, kernel, YuvColorSpace.BT601_LIMITED, context);
+    }
+
+    public byte[] convertBitmapToYUVByteArray(Bitmap bitmap, int colorFormat, ConvertKernel kernel, YuvColorSpace colorSpace,
+                                              @Nullable ConversionContext context) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        byte[] yuv = ConvertUtil.obtainYuv(ConvertUtil.getYuvSize(width, height), context);
+        if (ConvertUtil.isCopyPixels(bitmap, context)) {
+            YuvConverter converter = YuvConverters.get(colorFormat, kernel, colorSpace);
+            runRgbaBands(bitmap, context, (band, argb, argbFirstRow, rowStart, rowEnd) ->
+                    ConvertUtil.convertRows(argb, argbFirstRow, width, height, rowStart, rowEnd, yuv, 0, colorFormat, converter));
+            return yuv;
+        }
+        int[] argb = ConvertUtil.getArgb(bitmap, context);
+        convert(argb, width, height, yuv, colorFormat, kernel, colorSpace);
+        return yuv;
+    }
+
+    public void convert(int[] argb, int width, int height, byte[] yuv, int colorFormat, ConvertKernel kernel) {
+        convert(argb, width, height, yuv, colorFormat, kernel, YuvColorSpace.BT601_LIMITED);
+    }
+
+    public void convert(int[] argb, int width, int height, byte[] yuv, int colorFormat, ConvertKernel kernel,
+                        YuvColorSpace colorSpace) {
+        YuvConverter converter = YuvConverters.get(colorFormat, kernel, colorSpace);
+        runBands(width, height, (band, rowStart, rowEnd) ->
+                ConvertUtil.convertRows(argb, 0, width, height, rowStart, rowEnd, yuv, 0, colorFormat, converter));
+    }
+
+    /**
+     * 直接写入编码器的输入buffer，各段写各自的区域
+     *
+     * @return 写入的字节数
+     * @see ConvertUtil#convertBitmapToYUVBuffer
+     */
+    public int convertBitmapToYUVBuffer(Bitmap bitmap, int colorFormat, ConvertKernel kernel, ByteBuffer output) {
+        return convertBitmapToYUVBuffer(bitmap, colorFormat, kernel, output, null);
+    }
+
+    public int convertBitmapToYUVBuffer(Bitmap bitmap, int colorFormat, ConvertKernel kernel, ByteBuffer output,
+                                        @Nullable ConversionContext context) {
+        return convertBitmapToYUVBuffer(bitmap, colorFormat, kernel, YuvColorSpace.BT601_LIMITED, output, context);
+    }
+
+    public int convertBitmapToYUVBuffer(Bitmap bitmap, int colorFormat, ConvertKernel kernel, YuvColorSpace colorSpace,
+                                        ByteBuffer output, @Nullable ConversionContext context) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (!ConvertUtil.isCopyPixels(bitmap, context)) {
+            return convert(ConvertUtil.getArgb(bitmap, context), width, height, colorFormat, kernel, colorSpace, output, context);
+        }
+        YuvConverter converter = YuvConverters.get(colorFormat, kernel, colorSpace);
+        int size = ConvertUtil.checkOutput(width, height, output);
+        int base = output.position();
+        byte[][] strips = obtainStrips(width, height, context);
+        runRgbaBands(bitmap, context, (band, argb, argbFirstRow, rowStart, rowEnd) ->
+                ConvertUtil.convertRowsToBuffer(argb, argbFirstRow, width, height, rowStart, rowEnd, output, base, colorFormat,
+                        converter, strips[band]));
+        output.position(base + size);
+        return size;
+    }
+
+    public int convert(int[] argb, int width, int height, int colorFormat, ConvertKernel kernel, ByteBuffer output) {
+        return convert(argb, width, height, colorFormat, kernel, output, null);
+    }
+
+    /**
+     * @param context 不为null时各段的strip从中复用
+     */
+    public int convert(int[] argb, int width, int height, int colorFormat, ConvertKernel kernel, ByteBuffer output,
+                       @Nullable ConversionContext context) {
+        return convert(argb, width, height, colorFormat, kernel, YuvColorSpace.BT601_LIMITED, output, context);
+    }
+
+    public int convert(int[] argb, int width, int height, int colorFormat, ConvertKernel kernel, YuvColorSpace colorSpace,
+                       ByteBuffer output, @Nullable ConversionContext context) {
+        YuvConverter converter = YuvConverters.get(colorFormat, kernel, colorSpace);
+        int size = ConvertUtil.checkOutput(width, height, output);
+        int base = output.position();
+        byte[][] strips = obtainStrips(width, height, context);
+        runBands(width, height, (band, rowStart, rowEnd) ->
+                ConvertUtil.convertRowsToBuffer(argb, 0, width, height, rowStart, rowEnd, output, base, colorFormat, converter,
+                        strips == null ? null : strips[band]));
+        output.position(base + size);
+        return size;
+    }
+
+    /**
+     * @see ConvertUtil#convertBitmapToYUVPlanes
+     */
+    public int convertBitmapToYUVPlanes(Bitmap bitmap, ConvertKernel kernel, YuvPlanes planes) {
+        return convertBitmapToYUVPlanes(bitmap, kernel, planes, null);
+    }
+
+    public int convertBitmapToYUVPlanes(Bitmap bitmap, ConvertKernel kernel, YuvPlanes planes,
+                                        @Nullable ConversionContext context) {
+        return convertBitmapToYUVPlanes(bitmap, kernel, YuvColorSpace.BT601_LIMITED, planes, context);
+    }
+
+    public int convertBitmapToYUVPlanes(Bitmap bitmap, ConvertKernel kernel, YuvColorSpace colorSpace, YuvPlanes planes,
+                                        @Nullable ConversionContext context) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (!ConvertUtil.isCopyPixels(bitmap, context)) {
+            return convert(ConvertUtil.getArgb(bitmap, context), width, height, kernel, colorSpace, planes, context);
+        }
+        ConvertUtil.checkPlanes(width, height, planes);
+        YuvConverter converter = ConvertUtil.getConverter(planes, kernel, colorSpace);
+        byte[][] strips = obtainStrips(width, height, context);
+        runRgbaBands(bitmap, context, (band, argb, argbFirstRow, rowStart, rowEnd) ->
+                ConvertUtil.convertRowsToPlanes(argb, argbFirstRow, width, height, rowStart, rowEnd, converter, planes, strips[band]));
+        return planes.size;
+    }
+
+    public int convert(int[] argb, int width, int height, ConvertKernel kernel, YuvPlanes planes,
+                       @Nullable ConversionContext context) {
+        return convert(argb, width, height, kernel, YuvColorSpace.BT601_LIMITED, planes, context);
+    }
+
+    public int convert(int[] argb, int width, int height, ConvertKernel kernel, YuvColorSpace colorSpace, YuvPlanes planes,
+                       @Nullable ConversionContext context) {
+        ConvertUtil.checkPlanes(width, height, planes);
+        YuvConverter converter = ConvertUtil.getConverter(planes, kernel, colorSpace);
+        byte[][] strips = obtainStrips(width, height, context);
+        runBands(width, height, (band, rowStart, rowEnd) ->
+                ConvertUtil.convertRowsToPlanes(argb, 0, width, height, rowStart, rowEnd, converter, planes,
+                        strips == null ? null : strips[band]));
+        return planes.size;
+    }
+
+    /**
+     * 按输出尺寸分段，各段从同一个原尺寸的源取样
+     *
+     * @see ConvertUtil#convertBitmapToYUVByteArray(Bitmap, FrameTransform, int, ConvertKernel, YuvColorSpace, ConversionContext)
+     */
+    public byte[] convertBitmapToYUVByteArray(Bitmap bitmap, FrameTransform transform, int colorFormat, ConvertKernel kernel,
+                                              YuvColorSpace colorSpace, @Nullable ConversionContext context) {
+        int width = transform.getOutWidth();
+        int height = transform.getOutHeight();
+        YuvConverter converter = YuvConverters.get(colorFormat, kernel, colorSpace);
+        byte[] yuv = ConvertUtil.obtainYuv(ConvertUtil.getYuvSize(width, height), context);
+        runTransformBands(bitmap, transform, context, (band, argb, argbFirstRow, rowStart, rowEnd) ->
+                ConvertUtil.convertRows(argb, argbFirstRow, width, height, rowStart, rowEnd, yuv, 0, colorFormat, converter));
+        return yuv;
+    }
+
+    public int convertBitmapToYUVBuffer(Bitmap bitmap, FrameTransform transform, int colorFormat, ConvertKernel kernel,
+                                        YuvColorSpace colorSpace, ByteBuffer output, @Nullable ConversionContext context) {
+        int width = transform.getOutWidth();
+        int height = transform.getOutHeight();
+        YuvConverter converter = YuvConverters.get(colorFormat, kernel, colorSpace);
+        int size = ConvertUtil.checkOutput(width, height, output);
+        int base = output.position();
+        byte[][] strips = obtainStrips(width, height, context);
+        runTransformBands(bitmap, transform, context, (band, argb, argbFirstRow, rowStart, rowEnd) ->
+                ConvertUtil.convertRowsToBuffer(argb, argbFirstRow, width, height, rowStart, rowEnd, output, base, colorFormat,
+                        converter, strips == null ? null : strips[band]));
+        output.position(base + size);
+        return size;
+    }
+
+    public int convertBitmapToYUVPlanes(Bitmap bitmap, FrameTransform transform, ConvertKernel kernel, YuvColorSpace colorSpace,
+                                        YuvPlanes planes, @Nullable ConversionContext context) {
+        int width = transform.getOutWidth();
+        int height = transform.getOutHeight();
+        ConvertUtil.checkPlanes(width, height, planes);
+        YuvConverter converter = ConvertUtil.getConverter(planes, kernel, colorSpace);
+        byte[][] strips = obtainStrips(width, height, context);
+        runTransformBands(bitmap, transform, context, (band, argb, argbFirstRow, rowStart, rowEnd) ->
+                ConvertUtil.convertRowsToPlanes(argb, argbFirstRow, width, height, rowStart, rowEnd, converter, planes,
+                        strips == null ? null : strips[band]));
+        return planes.size;
+    }
+
+    /**
+     * 分发前在调用线程准备好每段的strip，线程池里不会再碰context
+     */
+    @Nullable
+    private byte[][] obtainStrips(int width, int height, @Nullable ConversionContext context) {
+        return context == null ? null : context.obtainStrips(getBandCount(width, height), ConvertUtil.getStripSize(width));
+    }
+
+    /**
+     * 各段从同一个RGBA buffer按绝对位置读取自己的行，解包到各自的小数组
+     */
+    private void runRgbaBands(Bitmap bitmap, ConversionContext context, RgbaBandTask bandTask) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        ByteBuffer rgba = context.obtainRgba(bitmap);
+        int rowBytes = bitmap.getRowBytes();
+        int[][] stripArgbs = context.obtainStripArgbs(getBandCount(width, height), ConvertUtil.getStripArgbSize(width));
+        runBands(width, height, (band, rowStart, rowEnd) ->
+                ConvertUtil.convertRgbaRows(rgba, rowBytes, width, rowStart, rowEnd, stripArgbs[band],
+                        (argb, argbFirstRow, stripStart, stripEnd) -> bandTask.convert(band, argb, argbFirstRow, stripStart, stripEnd)));
+    }
+
+    /**
+     * 源和坐标表在调用线程准备好，各段取样到各自的小数组
+     */
+    private void runTransformBands(Bitmap bitmap, FrameTransform transform, @Nullable ConversionContext context,
+                                   RgbaBandTask bandTask) {
+        int width = transform.getOutWidth();
+        int height = transform.getOutHeight();
+        ArgbSource source = ArgbSource.of(bitmap, context);
+        transform.prepare(source.width, source.height);
+        int bandCount = getBandCount(width, height);
+        int stripArgbSize = ConvertUtil.getStripArgbSize(width);
+        int[][] stripArgbs = context == null ? new int[bandCount][stripArgbSize] : context.obtainStripArgbs(bandCount, stripArgbSize);
+        runBands(width, height, (band, rowStart, rowEnd) ->
+                transform.sampleRows(source, rowStart, rowEnd, stripArgbs[band],
+                        (argb, argbFirstRow, stripStart, stripEnd) -> bandTask.convert(band, argb, argbFirstRow, stripStart, stripEnd)));
+    }
+
+    private void runBands(int width, int height, BandTask bandTask) {
+        int bandCount = getBandCount(width, height);
+        if (bandCount <= 1) {
+            bandTask.convert(0, 0, height);
+            return;
+        }
+        int[] bounds = splitRows(height, bandCount);
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[bandCount - 1];
+        try {
+            // 前面几段交给线程池，最后一段调用线程自己做
+            for (int band = 0; band < bandCount - 1; band++) {
+                int index = band;
+                int rowStart = bounds[band];
+                int rowEnd = bounds[band + 1];
+                Runnable task = () -> bandTask.convert(index, rowStart, rowEnd);
+                try {
+                    tasks[band] = pool.submit(task);
+                } catch (RejectedExecutionException e) {
+                    // 录制停止时线程池可能刚好被release，这一帧剩下的自己做完
+                    task.run();
+                }
+            }
+            bandTask.convert(bandCount - 1, bounds[bandCount - 1], height);
+        } catch (RuntimeException | Error e) {
+            // 调用线程这边出错也要等已提交的段写完再抛
+            awaitAll(tasks);
+            throw e;
+        }
+        joinAll(tasks);
+    }
+
+    /**
+     * 停止线程池，之后再调用会退回单线程
+     */
+    public void release() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private int getBandCount(int width, int height) {
+        if (pool == null || pool.isShutdown() || width * height < minParallelPixels) {
+            return 1;
+        }
+        // 每段至少2行
+        return Math.min(threadCount, height / 2);
+    }
+
+    /**
+     * @return 长度bandCount+1的边界，除最后一个外都是偶数
+     */
+    private static int[] splitRows(int height, int bandCount) {
+        int[] bounds = new int[bandCount + 1];
+        int rowPairs = height / 2;
+        for (int band = 0; band < bandCount; band++) {
+            bounds[band] = rowPairs * band / bandCount * 2;
+        }
+        bounds[bandCount] = height;
+        return bounds;
+    }
+
+    /**
+     * 等每一段都结束后才返回或抛出，不响应中断：提前返回时其他段可能还在写编码器的缓冲
+     * 调用线程的中断状态原样保留
+     */
+    private static void joinAll(ForkJoinTask<?>[] tasks) {
+        awaitAll(tasks);
+        RuntimeException error = null;
+        for (ForkJoinTask<?> task : tasks) {
+            Throwable cause = task == null ? null : task.getException();
+            if (cause != null && error == null) {
+                error = cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static void awaitAll(ForkJoinTask<?>[] tasks) {
+        for (ForkJoinTask<?> task : tasks) {
+            if (task != null) {
+                // quietlyJoin不抛异常，也不因中断提前返回
+                task.quietlyJoin();
+            }
+        }
+    }
+
+    private interface BandTask {
+        void convert(int band, int rowStart, int rowEnd);
+    }
+
+    /**
+     * 一段中的一个strip，argb[0]对应argbFirstRow这一行
+     */
+    private interface RgbaBandTask {
+        void convert(int band, int[] argb, int argbFirstRow, int rowStart, int rowEnd);
+    }
+}
@@ -0,0 +1,15 @@
+package io.keyss.view_record.utils.yuv;
+
+/**
+ * Description: {@link FrameTransform}缩放时的取样方式
+ */
+public enum ScaleFilter {
+    /**
+     * 取对应源区域所有像素的平均值，每个源像素只读一次，缩小时文字边缘不会闪，推荐
+     */
+    BOX,
+    /**
+     * 取最近4个源像素插值，缩小超过2倍时会丢像素出现锯齿，适合小比例缩放或放大
+     */
+    BILINEAR,
+}
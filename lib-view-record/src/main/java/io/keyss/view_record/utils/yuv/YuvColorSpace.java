@@ -0,0 +1,62 @@
+package io.keyss.view_record.utils.yuv;
+
+import android.media.MediaFormat;
+
+/**
+ * Description: RGB转YUV的矩阵和范围，系数为乘以256后取整的定点数
+ * <p>
+ * y = ((yR * r + yG * g + yB * b + 128) >> 8) + yOffset
+ * u = ((uR * r + uG * g + uB * b + 128) >> 8) + 128
+ * v = ((vR * r + vG * g + vB * b + 128) >> 8) + 128
+ * <p>
+ * limited为[16, 235]/[16, 240]，full为[0, 255]；BT601_LIMITED就是原来一直在用的系数
+ * 编码时需要把同样的标准和范围写进MediaFormat，否则播放端按默认的BT.601 limited解码，颜色会偏
+ */
+public enum YuvColorSpace {
+    BT601_LIMITED(66, 129, 25, -38, -74, 112, 112, -94, -18, 16,
+            MediaFormat.COLOR_STANDARD_BT601_PAL, MediaFormat.COLOR_RANGE_LIMITED),
+    BT601_FULL(77, 150, 29, -43, -85, 128, 128, -107, -21, 0,
+            MediaFormat.COLOR_STANDARD_BT601_PAL, MediaFormat.COLOR_RANGE_FULL),
+    BT709_LIMITED(47, 157, 16, -26, -86, 112, 112, -102, -10, 16,
+            MediaFormat.COLOR_STANDARD_BT709, MediaFormat.COLOR_RANGE_LIMITED),
+    BT709_FULL(54, 183, 19, -29, -99, 128, 128, -116, -12, 0,
+            MediaFormat.COLOR_STANDARD_BT709, MediaFormat.COLOR_RANGE_FULL),
+    ;
+
+    final int yR, yG, yB;
+    final int uR, uG, uB;
+    final int vR, vG, vB;
+    final int yOffset;
+    private final int colorStandard;
+    private final int colorRange;
+
+    YuvColorSpace(int yR, int yG, int yB, int uR, int uG, int uB, int vR, int vG, int vB, int yOffset,
+                  int colorStandard, int colorRange) {
+        this.yR = yR;
+        this.yG = yG;
+        this.yB = yB;
+        this.uR = uR;
+        this.uG = uG;
+        this.uB = uB;
+        this.vR = vR;
+        this.vG = vG;
+        this.vB = vB;
+        this.yOffset = yOffset;
+        this.colorStandard = colorStandard;
+        this.colorRange = colorRange;
+    }
+
+    /**
+     * @return {@link MediaFormat#KEY_COLOR_STANDARD}的值
+     */
+    public int getColorStandard() {
+        return colorStandard;
+    }
+
+    /**
+     * @return {@link MediaFormat#KEY_COLOR_RANGE}的值
+     */
+    public int getColorRange() {
+        return colorRange;
+    }
+}
@@ -0,0 +1,14 @@
+package io.keyss.view_record.utils.yuv;
+
+/**
+ * Description: 一种颜色格式的ARGB转YUV实现，通过{@link YuvConverters#register}替换，录制的代码不需要改动
+ * <p>
+ * 只负责像素的计算和放置，多线程分段、direct buffer的strip、带对齐的planes都由{@link ConvertUtil}处理
+ */
+public interface YuvConverter {
+    /**
+     * 转换argb中[rowStart, rowEnd)这几行，rowStart为偶数，argb每行width个像素
+     * Y从yIndex开始连续写；semi planar的色度从uIndex开始UV交替写，vIndex不使用；planar的U、V分别从uIndex、vIndex开始写
+     */
+    void convertRows(int[] argb, int width, int rowStart, int rowEnd, byte[] yuv, int yIndex, int uIndex, int vIndex);
+}
@@ -0,0 +1,82 @@
+package io.keyss.view_record.utils.yuv;
+
+import android.media.MediaCodecInfo;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Description: 按MediaCodec颜色格式、计算方式、颜色标准查找{@link YuvConverter}
+ * <p>
+ * BT601_LIMITED使用{@link ConvertUtil}中原有的实现，其他标准用{@link MatrixYuvConverter}，第一次用到时才创建
+ * 需要更快的实现时在录制前{@link #register}替换即可，ViewRecorder、RecordEncoder等都从这里取
+ */
+public final class YuvConverters {
+    private static final Map<Long, YuvConverter> CONVERTERS = new ConcurrentHashMap<>();
+    /**
+     * 上一次取到的，录制时每帧的参数都一样，命中时不用装箱Long查表
+     */
+    private static volatile Entry last;
+
+    private static final class Entry {
+        final long key;
+        final YuvConverter converter;
+
+        Entry(long key, YuvConverter converter) {
+            this.key = key;
+            this.converter = converter;
+        }
+    }
+
+    private YuvConverters() {
+    }
+
+    /**
+     * 替换或新增一种实现，之后开始的转换生效
+     */
+    public static void register(int colorFormat, ConvertKernel kernel, YuvColorSpace colorSpace, YuvConverter converter) {
+        CONVERTERS.put(key(colorFormat, kernel, colorSpace), converter);
+        last = null;
+    }
+
+    /**
+     * 每帧都会调用，不用computeIfAbsent：API 24才有，还会每次创建lambda；并发第一次创建时以先放入的为准
+     *
+     * @throws IllegalArgumentException 没有注册过且不是21、39、19、20之一
+     */
+    public static YuvConverter get(int colorFormat, ConvertKernel kernel, YuvColorSpace colorSpace) {
+        long key = key(colorFormat, kernel, colorSpace);
+        Entry entry = last;
+        if (entry != null && entry.key == key) {
+            return entry.converter;
+        }
+        YuvConverter converter = CONVERTERS.get(key);
+        if (converter == null) {
+            converter = createDefault(colorFormat, kernel, colorSpace);
+            YuvConverter existing = CONVERTERS.putIfAbsent(key, converter);
+            if (existing != null) {
+                converter = existing;
+            }
+        }
+        last = new Entry(key, converter);
+        return converter;
+    }
+
+    private static YuvConverter createDefault(int colorFormat, ConvertKernel kernel, YuvColorSpace colorSpace) {
+        boolean isSemiPlanar = switch (colorFormat) {
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar,
+                 MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar -> true;
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar,
+                 MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar -> false;
+            default -> throw new IllegalArgumentException("Unsupported color format: " + colorFormat);
+        };
+        if (colorSpace == YuvColorSpace.BT601_LIMITED) {
+            return ConvertUtil.getBuiltinConverter(colorFormat, kernel);
+        }
+        return new MatrixYuvConverter(colorSpace, isSemiPlanar, kernel == ConvertKernel.BLOCK_2X2);
+    }
+
+    private static long key(int colorFormat, ConvertKernel kernel, YuvColorSpace colorSpace) {
+        return ((long) colorFormat << 16) | ((long) kernel.ordinal() << 8) | colorSpace.ordinal();
+    }
+}
@@ -0,0 +1,56 @@
+package io.keyss.view_record.utils.yuv;
+
+/**
+ * Description: RGB转YUV的定点查表，系数和{@link ConvertUtil}中的计算完全一致，结果逐位相同
+ * <p>
+ * y = ((66 * r + 129 * g + 25 * b + 128) >> 8) + 16
+ * u = ((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128
+ * v = ((112 * r - 94 * g - 18 * b + 128) >> 8) + 128
+ * <p>
+ * 每个通道一张表，+128的舍入项合并到B表中，每个像素只剩查表和加法，最后再查一次钳位表
+ */
+final class YuvLookupTable {
+    /**
+     * 钳位表的偏移，(sum >> 8) + 16/128 的实际范围是[16, 240]，留足余量
+     */
+    static final int CLAMP_OFFSET = 512;
+
+    static final int[] Y_R = new int[256];
+    static final int[] Y_G = new int[256];
+    static final int[] Y_B = new int[256];
+
+    static final int[] U_R = new int[256];
+    static final int[] U_G = new int[256];
+    static final int[] U_B = new int[256];
+
+    static final int[] V_R = new int[256];
+    static final int[] V_G = new int[256];
+    static final int[] V_B = new int[256];
+
+    /**
+     * 下标为 value + CLAMP_OFFSET，值为钳位到[0, 255]后的byte
+     */
+    static final byte[] CLAMP = new byte[CLAMP_OFFSET * 2 + 256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            Y_R[i] = 66 * i;
+            Y_G[i] = 129 * i;
+            Y_B[i] = 25 * i + 128;
+
+            U_R[i] = -38 * i;
+            U_G[i] = -74 * i;
+            U_B[i] = 112 * i + 128;
+
+            V_R[i] = 112 * i;
+            V_G[i] = -94 * i;
+            V_B[i] = -18 * i + 128;
+        }
+        for (int i = 0; i < CLAMP.length; i++) {
+            CLAMP[i] = (byte) Math.max(0, Math.min(255, i - CLAMP_OFFSET));
+        }
+    }
+
+    private YuvLookupTable() {
+    }
+}
@@ -0,0 +1,157 @@
+package io.keyss.view_record.utils.yuv;
+
+import android.media.Image;
+import android.media.MediaCodecInfo;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Description: 编码器输入的Y、U、V三个平面各自的位置、行跨度（rowStride）和像素跨度（pixelStride）
+ * <p>
+ * 三种来源：
+ * 1. 紧凑排列的输入buffer，直接按颜色格式整块写入，最快
+ * 2. 带KEY_STRIDE/KEY_SLICE_HEIGHT的输入buffer，行尾和平面之间有对齐填充
+ * 3. {@link android.media.MediaCodec#getInputImage}，COLOR_FormatYUV420Flexible时编码器真实的排列
+ */
+public final class YuvPlanes {
+    final int width;
+    final int height;
+    /**
+     * 需要queue给编码器的字节数
+     */
+    final int size;
+
+    /**
+     * 紧凑排列在packedBuffer中时的颜色格式，否则为0
+     */
+    final int packedColorFormat;
+    final ByteBuffer packedBuffer;
+    final int packedBase;
+
+    final ByteBuffer yBuffer;
+    final int yBase;
+    final int yRowStride;
+    final ByteBuffer uBuffer;
+    final int uBase;
+    final int uRowStride;
+    final int uPixelStride;
+    final ByteBuffer vBuffer;
+    final int vBase;
+    final int vRowStride;
+    final int vPixelStride;
+
+    private YuvPlanes(int width, int height, int size, int packedColorFormat, ByteBuffer packedBuffer,
+                      ByteBuffer yBuffer, int yRowStride,
+                      ByteBuffer uBuffer, int uRowStride, int uPixelStride,
+                      ByteBuffer vBuffer, int vRowStride, int vPixelStride) {
+        this.width = width;
+        this.height = height;
+        this.size = size;
+        this.packedColorFormat = packedColorFormat;
+        this.packedBuffer = packedBuffer;
+        this.packedBase = packedBuffer == null ? 0 : packedBuffer.position();
+        this.yBuffer = yBuffer;
+        this.yBase = yBuffer == null ? 0 : yBuffer.position();
+        this.yRowStride = yRowStride;
+        this.uBuffer = uBuffer;
+        this.uBase = uBuffer == null ? 0 : uBuffer.position();
+        this.uRowStride = uRowStride;
+        this.uPixelStride = uPixelStride;
+        this.vBuffer = vBuffer;
+        this.vBase = vBuffer == null ? 0 : vBuffer.position();
+        this.vRowStride = vRowStride;
+        this.vPixelStride = vPixelStride;
+    }
+
+    /**
+     * 紧凑排列，从buffer当前的position开始
+     */
+    public static YuvPlanes ofBuffer(@NonNull ByteBuffer buffer, int width, int height, int colorFormat) {
+        return ofBuffer(buffer, width, height, colorFormat, width, height);
+    }
+
+    /**
+     * 按编码器inputFormat里的KEY_STRIDE和KEY_SLICE_HEIGHT排列，从buffer当前的position开始
+     * 39按UV交替写入，与21相同
+     *
+     * @param stride      Y的行跨度，小于width时按width
+     * @param sliceHeight Y平面的行数，小于height时按height
+     */
+    public static YuvPlanes ofBuffer(@NonNull ByteBuffer buffer, int width, int height, int colorFormat,
+                                     int stride, int sliceHeight) {
+        stride = Math.max(stride, width);
+        sliceHeight = Math.max(sliceHeight, height);
+        if (stride == width && sliceHeight == height) {
+            return new YuvPlanes(width, height, ConvertUtil.getYuvSize(width, height), colorFormat, buffer,
+                    null, 0, null, 0, 0, null, 0, 0);
+        }
+        int base = buffer.position();
+        int chromaBase = base + stride * sliceHeight;
+        int size;
+        ByteBuffer uBuffer;
+        ByteBuffer vBuffer;
+        int chromaRowStride;
+        int chromaPixelStride;
+        switch (colorFormat) {
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar,
+                    MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar -> {
+                chromaRowStride = stride / 2;
+                chromaPixelStride = 1;
+                uBuffer = at(buffer, chromaBase);
+                vBuffer = at(buffer, chromaBase + chromaRowStride * (sliceHeight / 2));
+                size = stride * sliceHeight + chromaRowStride * (sliceHeight / 2) * 2;
+            }
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar,
+                    MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar -> {
+                chromaRowStride = stride;
+                chromaPixelStride = 2;
+                uBuffer = at(buffer, chromaBase);
+                vBuffer = at(buffer, chromaBase + 1);
+                size = stride * sliceHeight + stride * (sliceHeight / 2);
+            }
+            default -> throw new IllegalArgumentException("Unsupported color format: " + colorFormat);
+        }
+        // 最后一行后面的对齐填充，部分编码器的buffer并没有分配
+        size = Math.min(size, buffer.limit() - base);
+        return new YuvPlanes(width, height, size, 0, null,
+                at(buffer, base), stride,
+                uBuffer, chromaRowStride, chromaPixelStride,
+                vBuffer, chromaRowStride, chromaPixelStride);
+    }
+
+    /**
+     * COLOR_FormatYUV420Flexible的输入Image，三个平面按各自的rowStride和pixelStride写入
+     */
+    public static YuvPlanes ofImage(@NonNull Image image) {
+        Image.Plane[] planes = image.getPlanes();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        return new YuvPlanes(width, height, ConvertUtil.getYuvSize(width, height), 0, null,
+                planes[0].getBuffer(), planes[0].getRowStride(),
+                planes[1].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                planes[2].getBuffer(), planes[2].getRowStride(), planes[2].getPixelStride());
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return queueInputBuffer时的size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    private static ByteBuffer at(ByteBuffer buffer, int position) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        return duplicate;
+    }
+}
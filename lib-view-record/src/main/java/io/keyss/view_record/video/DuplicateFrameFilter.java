@@ -0,0 +1,67 @@
+package io.keyss.view_record.video;
+
+import android.os.SystemClock;
+
+/**
+ * Description: 重复帧过滤，画面没变时不送编码器，上一帧的显示时长自然延长（动态帧率）
+ * <p>
+ * 静止的界面可以省掉绝大部分编码的CPU和文件体积
+ * 超过maxGapMs没有送过帧时，即使画面没变也强制送一帧，保证播放器的进度和seek正常
+ */
+public class DuplicateFrameFilter {
+    public static final long DEFAULT_MAX_GAP_MS = 1000;
+
+    private final long maxGapMs;
+    private boolean hasLast = false;
+    private long lastHash;
+    private long lastEmitTime;
+    private long skippedCount;
+
+    /**
+     * @param maxGapMs 两帧之间的最长间隔，毫秒
+     */
+    public DuplicateFrameFilter(long maxGapMs) {
+        this.maxGapMs = maxGapMs;
+    }
+
+    public DuplicateFrameFilter() {
+        this(DEFAULT_MAX_GAP_MS);
+    }
+
+    /**
+     * 不重复时记录为最新一帧
+     *
+     * @param hash 帧内容的哈希，见{@link io.keyss.view_record.utils.yuv.FrameHasher}
+     * @return true为重复，应该跳过
+     */
+    public synchronized boolean isDuplicate(long hash) {
+        long now = SystemClock.elapsedRealtime();
+        if (hasLast && hash == lastHash && now - lastEmitTime < maxGapMs) {
+            skippedCount++;
+            return true;
+        }
+        hasLast = true;
+        lastHash = hash;
+        lastEmitTime = now;
+        return false;
+    }
+
+    public long getMaxGapMs() {
+        return maxGapMs;
+    }
+
+    /**
+     * @return 累计跳过的帧数
+     */
+    public synchronized long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * 重新开始录制时调用，下一帧一定不算重复
+     */
+    public synchronized void reset() {
+        hasLast = false;
+        skippedCount = 0;
+    }
+}
@@ -22,17 +22,17 @@ import androidx.annotation.NonNull;
 
 /**
  * Created by pedro on 21/01/17.
- * NOTE: 目前直接转换只支持21, 19, 39, 20这四种，所以其余的注释掉，如有需要自行查找转换方案，并且在chooseColorDynamically方法中添加转换函数
+ * NOTE: 目前直接转换只支持21, 19, 39, 20这四种，以及通过getInputImage写入的YUV420Flexible，所以其余的注释掉，如有需要自行查找转换方案，并且在chooseColorDynamically方法中添加转换函数
  */
 
 public enum FormatVideoEncoder {
     YUV420_SEMI_PLANAR, YUV420_PLANAR, YUV420_PACKED_PLANAR, YUV420_PACKED_SEMI_PLANAR,
-    /*
+    /**
      * YUV420Flexible并不是一种确定的YUV420格式，而是包含COLOR_FormatYUV411Planar, COLOR_FormatYUV411PackedPlanar, COLOR_FormatYUV420Planar, COLOR_FormatYUV420PackedPlanar, COLOR_FormatYUV420SemiPlanar和COLOR_FormatYUV420PackedSemiPlanar。
      * 在API 21引入YUV420Flexible的同时，它所包含的这些格式都deprecated掉了
-     * YUV420Flexible是一种灵活的格式，具体使用时依旧需要确定当前使用的子格式才能完成正确的转换，所以放这里没有意义
+     * 具体的子格式要从MediaCodec.getInputImage返回的Image中每个平面的rowStride和pixelStride确定，只能实时模式直接写入
      */
-    //YUV420_FLEXIBLE,
+    YUV420_FLEXIBLE,
     //YUV422FLEXIBLE, YUV422PLANAR, YUV422SEMIPLANAR, YUV422PACKEDPLANAR, YUV422PACKEDSEMIPLANAR,
     //YUV444FLEXIBLE, YUV444INTERLEAVED,
     /**
@@ -56,7 +56,7 @@ public enum FormatVideoEncoder {
             case YUV420_PACKED_PLANAR -> MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar;
             //case SURFACE -> MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface;
             // 动态格式：2135033992
-            //case YUV420_FLEXIBLE -> MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible;
+            case YUV420_FLEXIBLE -> MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible;
             //case YUV422FLEXIBLE -> MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV422Flexible;
             //case YUV422PLANAR -> MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV422Planar;
             //case YUV422SEMIPLANAR -> MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV422SemiPlanar;
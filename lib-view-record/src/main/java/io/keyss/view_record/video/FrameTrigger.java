@@ -0,0 +1,15 @@
+package io.keyss.view_record.video;
+
+/**
+ * Description: 决定实时模式下什么时候取帧，没有设置时按帧率固定取
+ */
+public interface FrameTrigger {
+    /**
+     * 等到需要取下一帧：画面有新的绘制，或距上次取帧已超过最长间隔（重复一帧，保证进度和seek正常）
+     * 按帧率合并由调用方负责，这里只管有没有变化
+     *
+     * @param timeoutMs 最多等待的时间，超时返回false，调用方检查是否还在录制后再次调用
+     * @return true时应该取一帧
+     */
+    boolean awaitFrame(long timeoutMs) throws InterruptedException;
+}
@@ -1,6 +1,7 @@
 package io.keyss.view_record.video
 
 import io.keyss.view_record.base.Frame
+import io.keyss.view_record.utils.yuv.YuvPlanes
 
 /**
  * Description:
@@ -10,4 +11,16 @@ import io.keyss.view_record.base.Frame
  */
 interface IFrameDataGetter {
     fun getFrameData(): Frame
+
+    /**
+     * 直接把当前帧写入编码器的输入buffer或Image，排列由[planes]描述，省掉一次整帧的分配和拷贝
+     * 编码器选择了YUV420_FLEXIBLE时必须实现，[getFrameData]没有对应的格式可以转换
+     * @return 帧的时间戳，微秒；不支持时返回-1且不写入，会退回[getFrameData]
+     */
+    fun fillFrameData(planes: YuvPlanes): Long = -1L
+
+    /**
+     * 实现了[fillFrameData]时返回true，YUV420Dynamical只有这时才会选择YUV420_FLEXIBLE
+     */
+    fun isFillFrameDataSupported(): Boolean = false
 }
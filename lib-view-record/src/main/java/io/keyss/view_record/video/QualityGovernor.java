@@ -0,0 +1,277 @@
+package io.keyss.view_record.video;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Description: 按每帧截图、转换的耗时自动升降录制质量，截图和转换超出帧间隔时录制只会越来越落后
+ * <p>
+ * 截图和帧率各自分为steps + 1档，第0档为上限，最后一档为下限，截图比例、码率、帧率在上下限之间线性分布
+ * 每WINDOW_MS统计一次各阶段的平均耗时，截图加转换超过帧间隔的HIGH_LOAD时降一档：
+ * 截图超过了它那一半的帧间隔时降截图比例，否则降帧率。截得小的在转换时放大到编码尺寸，降截图比例只减少截图的开销，
+ * 转换慢时降截图比例只会让画面变糊；码率跟着截图比例降，放大后的画面细节少，不需要原来的码率
+ * 连续UP_WINDOWS次低于LOW_LOAD升一档，先升帧率再升截图比例
+ * 档位变化通过Listener通知录制方，由录制方调整截图宽度、FpsLimiter和编码器码率
+ */
+public class QualityGovernor {
+    public static final long WINDOW_MS = 1000;
+    /**
+     * 超过帧间隔的比例，降档
+     */
+    private static final float HIGH_LOAD = 0.9f;
+    /**
+     * 低于帧间隔的比例，可以升档
+     */
+    private static final float LOW_LOAD = 0.5f;
+    /**
+     * 连续低负载的窗口数，升档比降档慢，避免来回跳
+     */
+    private static final int UP_WINDOWS = 3;
+
+    public interface Listener {
+        /**
+         * 在取帧的线程回调
+         */
+        void onQualityChanged(@NonNull Level level);
+    }
+
+    public static final class Level {
+        private final float captureScale;
+        private final int fps;
+        private final int bitRate;
+
+        Level(float captureScale, int fps, int bitRate) {
+            this.captureScale = captureScale;
+            this.fps = fps;
+            this.bitRate = bitRate;
+        }
+
+        /**
+         * 截图宽度相对编码宽度的比例，(0, 1]，转换时再缩放到编码尺寸
+         * 只减少截图的开销，转换仍按编码尺寸逐像素计算
+         */
+        public float getCaptureScale() {
+            return captureScale;
+        }
+
+        public int getFps() {
+            return fps;
+        }
+
+        public int getBitRate() {
+            return bitRate;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Level(captureScale=" + captureScale + ", fps=" + fps + ", bitRate=" + bitRate + ")";
+        }
+    }
+
+    private final float[] captureScales;
+    private final int[] bitRates;
+    private final int[] fpsSteps;
+    private volatile Listener listener;
+    private Level currentLevel;
+    private int scaleIndex = 0;
+    private int fpsIndex = 0;
+    private boolean isCaptureScaleEnabled = true;
+    private long windowStart = -1;
+    private long windowCaptureNanos;
+    private long windowConvertNanos;
+    private int windowFrames;
+    private int lowWindows;
+    private float lastCaptureMs;
+    private float lastConvertMs;
+    private float lastLoad;
+
+    /**
+     * @param minCaptureScale 截图比例的下限，(0, 1]
+     * @param steps           上下限之间的档数，至少为1
+     */
+    public QualityGovernor(int maxFps, int minFps, int maxBitRate, int minBitRate, float minCaptureScale, int steps) {
+        if (minFps <= 0 || maxFps < minFps || minBitRate <= 0 || maxBitRate < minBitRate) {
+            throw new IllegalArgumentException("invalid bounds: fps=[" + minFps + ", " + maxFps + "], bitRate=[" + minBitRate + ", " + maxBitRate + "]");
+        }
+        if (minCaptureScale <= 0 || minCaptureScale > 1) {
+            throw new IllegalArgumentException("minCaptureScale must be in (0, 1]: " + minCaptureScale);
+        }
+        if (steps < 1) {
+            throw new IllegalArgumentException("steps must be at least 1: " + steps);
+        }
+        captureScales = new float[steps + 1];
+        bitRates = new int[steps + 1];
+        fpsSteps = new int[steps + 1];
+        for (int i = 0; i <= steps; i++) {
+            float t = (float) i / steps;
+            captureScales[i] = 1 - t * (1 - minCaptureScale);
+            bitRates[i] = Math.round(maxBitRate - t * (maxBitRate - minBitRate));
+            fpsSteps[i] = Math.round(maxFps - t * (maxFps - minFps));
+        }
+        currentLevel = createLevel();
+    }
+
+    /**
+     * 默认截图比例最低到一半，分4档
+     */
+    public QualityGovernor(int maxFps, int minFps, int maxBitRate, int minBitRate) {
+        this(maxFps, minFps, maxBitRate, minBitRate, 0.5f, 4);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 录制方不能按比例截图时（如有裁剪）设为false，只升降帧率，截图比例和码率保持最高档
+     */
+    public synchronized void setCaptureScaleEnabled(boolean isCaptureScaleEnabled) {
+        this.isCaptureScaleEnabled = isCaptureScaleEnabled;
+        if (!isCaptureScaleEnabled && scaleIndex != 0) {
+            scaleIndex = 0;
+            currentLevel = createLevel();
+        }
+    }
+
+    /**
+     * 每取一帧调用一次
+     *
+     * @param captureNanos 截图耗时
+     * @param convertNanos 转换耗时
+     */
+    public void onFrameCost(long captureNanos, long convertNanos) {
+        onFrameCost(captureNanos, convertNanos, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * @param now 毫秒，单调递增
+     */
+    void onFrameCost(long captureNanos, long convertNanos, long now) {
+        Level changed = null;
+        synchronized (this) {
+            if (windowStart < 0) {
+                windowStart = now;
+            }
+            windowCaptureNanos += captureNanos;
+            windowConvertNanos += convertNanos;
+            windowFrames++;
+            if (now - windowStart >= WINDOW_MS) {
+                changed = evaluate();
+                windowStart = now;
+                windowCaptureNanos = 0;
+                windowConvertNanos = 0;
+                windowFrames = 0;
+            }
+        }
+        Listener l = listener;
+        if (changed != null && l != null) {
+            l.onQualityChanged(changed);
+        }
+    }
+
+    /**
+     * @return 档位变化时为新的档位
+     */
+    private Level evaluate() {
+        lastCaptureMs = windowCaptureNanos / (float) windowFrames / 1_000_000f;
+        lastConvertMs = windowConvertNanos / (float) windowFrames / 1_000_000f;
+        float budgetMs = 1000f / fpsSteps[fpsIndex];
+        lastLoad = (lastCaptureMs + lastConvertMs) / budgetMs;
+        int last = fpsSteps.length - 1;
+        if (lastLoad > HIGH_LOAD) {
+            lowWindows = 0;
+            boolean isCaptureOver = lastCaptureMs > budgetMs * HIGH_LOAD / 2;
+            if (isCaptureOver && isCaptureScaleEnabled && scaleIndex < last) {
+                scaleIndex++;
+            } else if (fpsIndex < last) {
+                fpsIndex++;
+            } else {
+                return null;
+            }
+            return currentLevel = createLevel();
+        } else if (lastLoad < LOW_LOAD) {
+            lowWindows++;
+            if (lowWindows >= UP_WINDOWS && (fpsIndex > 0 || scaleIndex > 0)) {
+                lowWindows = 0;
+                if (fpsIndex > 0) {
+                    fpsIndex--;
+                } else {
+                    scaleIndex--;
+                }
+                return currentLevel = createLevel();
+            }
+        } else {
+            lowWindows = 0;
+        }
+        return null;
+    }
+
+    private Level createLevel() {
+        return new Level(captureScales[scaleIndex], fpsSteps[fpsIndex], bitRates[scaleIndex]);
+    }
+
+    public synchronized Level getCurrentLevel() {
+        return currentLevel;
+    }
+
+    /**
+     * @return 截图比例和码率的档位，0为最高
+     */
+    public synchronized int getScaleIndex() {
+        return scaleIndex;
+    }
+
+    /**
+     * @return 帧率的档位，0为最高
+     */
+    public synchronized int getFpsIndex() {
+        return fpsIndex;
+    }
+
+    /**
+     * @return 截图比例和帧率各自的档数
+     */
+    public int getLevelCount() {
+        return fpsSteps.length;
+    }
+
+    /**
+     * @return 上一个统计窗口的平均截图耗时，毫秒
+     */
+    public synchronized float getLastCaptureMs() {
+        return lastCaptureMs;
+    }
+
+    /**
+     * @return 上一个统计窗口的平均转换耗时，毫秒
+     */
+    public synchronized float getLastConvertMs() {
+        return lastConvertMs;
+    }
+
+    /**
+     * @return 上一个统计窗口的耗时占帧间隔的比例，大于1为跟不上
+     */
+    public synchronized float getLastLoad() {
+        return lastLoad;
+    }
+
+    /**
+     * 回到最高档，录制开始时调用
+     */
+    public synchronized void reset() {
+        scaleIndex = 0;
+        fpsIndex = 0;
+        currentLevel = createLevel();
+        windowStart = -1;
+        windowCaptureNanos = 0;
+        windowConvertNanos = 0;
+        windowFrames = 0;
+        lowWindows = 0;
+        lastCaptureMs = 0;
+        lastConvertMs = 0;
+        lastLoad = 0;
+    }
+}
@@ -16,9 +16,11 @@
 
 package io.keyss.view_record.video;
 
+import android.media.Image;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.SystemClock;
 import android.util.Log;
@@ -29,10 +31,15 @@ import androidx.annotation.NonNull;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.keyss.view_record.base.BaseEncoder;
 import io.keyss.view_record.base.Frame;
 import io.keyss.view_record.utils.CodecUtil;
+import io.keyss.view_record.utils.yuv.ConvertUtil;
+import io.keyss.view_record.utils.yuv.FrameHasher;
+import io.keyss.view_record.utils.yuv.YuvColorSpace;
+import io.keyss.view_record.utils.yuv.YuvPlanes;
 
 /**
  * Created by pedro on 19/01/17.
@@ -51,10 +58,40 @@ public class VideoEncoder extends BaseEncoder {
     private int iFrameInterval = 1;
     //for disable video
     private final FpsLimiter fpsLimiter = new FpsLimiter();
+    /**
+     * setFpsOnFly设置的帧率，FpsLimiter只在取帧线程使用，由取帧线程在下一次等待前应用；0为没有
+     */
+    private final AtomicInteger pendingFps = new AtomicInteger();
     private String type = CodecUtil.H264_MIME;
     private FormatVideoEncoder formatVideoEncoder = FormatVideoEncoder.YUV420Dynamical;
     private int avcProfile = -1;
     private int avcProfileLevel = -1;
+    /**
+     * 输入buffer中Y的行跨度和平面行数，configure之后从inputFormat读取，没有时等于宽高
+     */
+    private int inputStride = 640;
+    private int inputSliceHeight = 480;
+    /**
+     * YUV420_FLEXIBLE时inputFormat里KEY_COLOR_FORMAT声明的具体格式，19、20、21、39之一，否则为-1
+     * getInputImage拿不到Image时按它和inputStride、inputSliceHeight写入输入buffer
+     */
+    private int flexibleBufferFormat = -1;
+    /**
+     * 画面没变时不送编码器，为null时每帧都送
+     */
+    private DuplicateFrameFilter duplicateFrameFilter;
+    /**
+     * 输入的YUV所用的颜色标准和范围，prepare时写入MediaFormat
+     */
+    private YuvColorSpace colorSpace = YuvColorSpace.BT601_LIMITED;
+    /**
+     * 实时模式下决定什么时候取帧，为null时按帧率固定取
+     */
+    private volatile FrameTrigger frameTrigger;
+    /**
+     * 每次等待FrameTrigger的最长时间，到时检查一次是否还在运行
+     */
+    private static final long TRIGGER_WAIT_MS = 100;
 
     public VideoEncoder(GetVideoData getVideoData) {
         this.getVideoData = getVideoData;
@@ -119,6 +156,13 @@ public class VideoEncoder extends BaseEncoder {
             videoFormat.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
             videoFormat.setInteger(MediaFormat.KEY_FRAME_RATE, fps);
             videoFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, iFrameInterval);
+            // 默认的BT601_LIMITED不声明，保持原来的配置，部分编码器对这几个key不友好
+            if (colorSpace != YuvColorSpace.BT601_LIMITED && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                Log.i(TAG, "set color space " + colorSpace);
+                videoFormat.setInteger(MediaFormat.KEY_COLOR_STANDARD, colorSpace.getColorStandard());
+                videoFormat.setInteger(MediaFormat.KEY_COLOR_RANGE, colorSpace.getColorRange());
+                videoFormat.setInteger(MediaFormat.KEY_COLOR_TRANSFER, MediaFormat.COLOR_TRANSFER_SDR_VIDEO);
+            }
             //Set CBR mode if supported by encoder.
             if (CodecUtil.isCBRModeSupported(encoder, type)) {
                 // 定码率
@@ -141,6 +185,7 @@ public class VideoEncoder extends BaseEncoder {
             }
             setCallback();
             codec.configure(videoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            readInputLayout();
             running = false;
             if (formatVideoEncoder == FormatVideoEncoder.SURFACE) {
                 inputSurface = codec.createInputSurface();
@@ -158,9 +203,13 @@ public class VideoEncoder extends BaseEncoder {
     @Override
     public void start(boolean resetTs) {
         shouldReset = resetTs;
+        pendingFps.set(0);
         if (resetTs) {
             fpsLimiter.setFPS(fps);
         }
+        if (duplicateFrameFilter != null) {
+            duplicateFrameFilter.reset();
+        }
         Log.i(TAG, "started");
     }
 
@@ -178,12 +227,47 @@ public class VideoEncoder extends BaseEncoder {
         restart();
     }
 
+    /**
+     * 部分硬编要求行和平面按16/32/64对齐，按宽高紧凑写入会花屏，以inputFormat中的KEY_STRIDE、KEY_SLICE_HEIGHT为准
+     */
+    private void readInputLayout() {
+        inputStride = width;
+        inputSliceHeight = height;
+        flexibleBufferFormat = -1;
+        if (formatVideoEncoder == FormatVideoEncoder.SURFACE) {
+            return;
+        }
+        try {
+            MediaFormat inputFormat = codec.getInputFormat();
+            if (formatVideoEncoder == FormatVideoEncoder.YUV420_FLEXIBLE && inputFormat.containsKey(MediaFormat.KEY_COLOR_FORMAT)) {
+                int colorFormat = inputFormat.getInteger(MediaFormat.KEY_COLOR_FORMAT);
+                flexibleBufferFormat = switch (colorFormat) {
+                    case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar,
+                         MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar,
+                         MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar,
+                         MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar -> colorFormat;
+                    default -> -1;
+                };
+            }
+            if (inputFormat.containsKey(MediaFormat.KEY_STRIDE)) {
+                inputStride = Math.max(width, inputFormat.getInteger(MediaFormat.KEY_STRIDE));
+            }
+            if (inputFormat.containsKey(MediaFormat.KEY_SLICE_HEIGHT)) {
+                inputSliceHeight = Math.max(height, inputFormat.getInteger(MediaFormat.KEY_SLICE_HEIGHT));
+            }
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "read input format failed", e);
+        }
+        Log.i(TAG, "input layout: stride=" + inputStride + ", sliceHeight=" + inputSliceHeight
+                + ", flexibleBufferFormat=" + flexibleBufferFormat);
+    }
+
     /**
      * mediaCodecList: [2135033992, 19, 21, 20, 39, 2130708361(COLOR_FormatSurface)]
-     * 一般2135033992(COLOR_FormatYUV420Flexible)都是支持的，但我目前没有找到合适的转换方法
+     * 一般2135033992(COLOR_FormatYUV420Flexible)都是支持的，通过getInputImage按编码器真实的平面排列写入，优先选择
      * 21对应的是{@link android.media.MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar}
      * 2135033992对应的是{@link android.media.MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible}
-     * 有限选择21、19，很多设备只有[]两种，另外两种转换可能会花屏
+     * 其次选择21、19，很多设备只有[]两种，另外两种转换可能会花屏
      * 虽然很多设备看起来支持很多颜色，但是最终转换的时候可能会花屏或者直接卡死
      */
     private FormatVideoEncoder chooseColorDynamically(MediaCodecInfo mediaCodecInfo) {
@@ -191,6 +275,8 @@ public class VideoEncoder extends BaseEncoder {
         Log.i(TAG, "Color supported by this encoder: " + Arrays.toString(colorFormats));
         // 做一个优先选择排序
         FormatVideoEncoder[] preferredOrder = {
+                // 编码器原生排列，不需要内部再转换
+                FormatVideoEncoder.YUV420_FLEXIBLE,
                 FormatVideoEncoder.YUV420_SEMI_PLANAR,
                 FormatVideoEncoder.YUV420_PACKED_SEMI_PLANAR,
                 FormatVideoEncoder.YUV420_PACKED_PLANAR,
@@ -198,6 +284,11 @@ public class VideoEncoder extends BaseEncoder {
                 FormatVideoEncoder.YUV420_PLANAR,
         };
         for (FormatVideoEncoder format : preferredOrder) {
+            // Flexible只能在实时模式下直接写入Image，getFrameData退回时没有对应的格式可以转换
+            if (format == FormatVideoEncoder.YUV420_FLEXIBLE && (!isRealTime || null == iFrameDataGetter
+                    || !iFrameDataGetter.isFillFrameDataSupported())) {
+                continue;
+            }
             for (int color : colorFormats) {
                 if (color == format.getFormatCodec()) {
                     return format;
@@ -227,6 +318,26 @@ public class VideoEncoder extends BaseEncoder {
         }
     }
 
+    /**
+     * 录制中调整取帧的帧率，配置给编码器的KEY_FRAME_RATE不变，输出本来就是动态帧率
+     * 可以在任意线程调用，取帧线程在取下一帧前生效
+     */
+    public void setFpsOnFly(int fps) {
+        if (isRunning() && fps > 0) {
+            pendingFps.set(fps);
+        }
+    }
+
+    /**
+     * 只在取帧线程调用
+     */
+    private void applyPendingFps() {
+        int fps = pendingFps.getAndSet(0);
+        if (fps > 0) {
+            fpsLimiter.setFPS(fps);
+        }
+    }
+
     public Surface getInputSurface() {
         return inputSurface;
     }
@@ -263,6 +374,36 @@ public class VideoEncoder extends BaseEncoder {
         this.type = type;
     }
 
+    public void setDuplicateFrameFilter(DuplicateFrameFilter duplicateFrameFilter) {
+        this.duplicateFrameFilter = duplicateFrameFilter;
+    }
+
+    public DuplicateFrameFilter getDuplicateFrameFilter() {
+        return duplicateFrameFilter;
+    }
+
+    /**
+     * 只在实时模式下生效，与duplicateFrameFilter可以同时使用
+     */
+    public void setFrameTrigger(FrameTrigger frameTrigger) {
+        this.frameTrigger = frameTrigger;
+    }
+
+    public FrameTrigger getFrameTrigger() {
+        return frameTrigger;
+    }
+
+    /**
+     * 需在prepareVideoEncoder前设置
+     */
+    public void setColorSpace(YuvColorSpace colorSpace) {
+        this.colorSpace = colorSpace;
+    }
+
+    public YuvColorSpace getColorSpace() {
+        return colorSpace;
+    }
+
     public FormatVideoEncoder getFormatVideoEncoder() {
         return formatVideoEncoder;
     }
@@ -328,23 +469,166 @@ public class VideoEncoder extends BaseEncoder {
 
     @Override
     protected Frame getInputFrame() throws InterruptedException {
-        // 这里耗时了
-        long start = System.currentTimeMillis();
-        Frame frame = isRealTime && null != iFrameDataGetter ? iFrameDataGetter.getFrameData() : queue.take();
-        long sinceGetFrame = System.currentTimeMillis() - start;
-        //VRLogger.v("取帧耗时: " + sinceGetFrame + "ms, frame=" + frame);
-        // 所以这里可能会刚好已经停止了
-        if (frame == null) return null;
-        // 跟当前帧理应的时间差，再减去一个处理时间
-        long diffTime = fpsLimiter.limitFPS() - sinceGetFrame;
-        if (diffTime > 0 && running) {
+        while (true) {
+            applyPendingFps();
+            if (frameTrigger != null && isRealTime && null != iFrameDataGetter) {
+                // 先等到帧率允许的时间，再等画面变化，取到的帧不会因为太早被丢掉
+                waitNextFrame();
+                if (!awaitFrameTrigger()) {
+                    if (!running) return null;
+                    continue;
+                }
+            }
+            // 这里耗时了
+            long start = System.currentTimeMillis();
+            Frame frame = isRealTime && null != iFrameDataGetter ? iFrameDataGetter.getFrameData() : queue.take();
+            long sinceGetFrame = System.currentTimeMillis() - start;
+            //VRLogger.v("取帧耗时: " + sinceGetFrame + "ms, frame=" + frame);
+            // 所以这里可能会刚好已经停止了
+            if (frame == null) return null;
+            // 跟当前帧理应的时间差，再减去一个处理时间
+            long diffTime = fpsLimiter.limitFPS() - sinceGetFrame;
+            if (diffTime > 0 && running) {
+                SystemClock.sleep(diffTime);
+                //VRLogger.v("frame limit discarded, sleepTime=" + diffTime + "ms");
+                continue;
+            }
+            // 上一帧时间应为取帧时的时间
+            fpsLimiter.setLastFrameTime(start);
+            if (running && isDuplicate(FrameHasher.hash(frame.getBuffer(), frame.getOffset(), frame.getSize()))) {
+                // 画面没变，等到下一帧的时间再取
+                waitNextFrame();
+                continue;
+            }
+            return frame;
+        }
+    }
+
+    /**
+     * 实时模式下先按帧率等待，到点再取帧直接写入输入buffer，不会取了帧又因为太早而丢掉
+     * YUV420_FLEXIBLE时写入getInputImage的Image，其余按stride和sliceHeight写入输入buffer
+     * 画面没变时不queue，同一个buffer留给下一帧重新写入
+     */
+    @Override
+    protected boolean queueInputDirectly(@NonNull MediaCodec mediaCodec, int inBufferIndex, @NonNull ByteBuffer byteBuffer) {
+        if (!isRealTime || null == iFrameDataGetter) {
+            return false;
+        }
+        // Flexible一般写Image，不用输入buffer，拿不到Image时在getInputPlanes里检查
+        if (formatVideoEncoder != FormatVideoEncoder.YUV420_FLEXIBLE && byteBuffer.remaining() < getRequiredInputSize()) {
+            return false;
+        }
+        YuvPlanes planes = null;
+        while (true) {
+            waitNextFrame();
+            if (!running) {
+                // 不写入，直接返回
+                return true;
+            }
+            if (!awaitFrameTrigger()) {
+                // 没有绘制，不取帧，上一帧的时长自然延长
+                continue;
+            }
+            if (planes == null) {
+                planes = getInputPlanes(mediaCodec, inBufferIndex, byteBuffer);
+            }
+            long start = System.currentTimeMillis();
+            long timeStamp = iFrameDataGetter.fillFrameData(planes);
+            if (timeStamp < 0) {
+                return false;
+            }
+            fpsLimiter.setLastFrameTime(start);
+            if (!running) {
+                Log.d(TAG, "queueInputDirectly: not running");
+                return true;
+            }
+            if (isDuplicate(FrameHasher.hash(planes))) {
+                continue;
+            }
+            long pts = Math.max(0, timeStamp - presentTimeUs);
+            mediaCodec.queueInputBuffer(inBufferIndex, 0, planes.getSize(), pts, 0);
+            onInputQueued(pts, timeStamp);
+            return true;
+        }
+    }
+
+    /**
+     * 按inputStride和inputSliceHeight写入时buffer至少要有的字节数，到最后一行色度为止，之后的对齐填充不算
+     * 与{@link YuvPlanes#ofBuffer}的排列一致；Flexible拿不到Image时按紧凑的NV12写
+     */
+    private int getRequiredInputSize() {
+        int compactSize = ConvertUtil.getYuvSize(width, height);
+        int colorFormat = formatVideoEncoder == FormatVideoEncoder.YUV420_FLEXIBLE
+                ? flexibleBufferFormat : formatVideoEncoder.getFormatCodec();
+        if (inputStride == width && inputSliceHeight == height) {
+            return compactSize;
+        }
+        int chromaBase = inputStride * inputSliceHeight;
+        int chromaRows = (height + 1) / 2;
+        return switch (colorFormat) {
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar,
+                 MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar -> {
+                int chromaRowStride = inputStride / 2;
+                int vBase = chromaBase + chromaRowStride * (inputSliceHeight / 2);
+                yield vBase + chromaRowStride * (chromaRows - 1) + (width + 1) / 2;
+            }
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar,
+                 MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar ->
+                    chromaBase + inputStride * (chromaRows - 1) + (width + 1) / 2 * 2;
+            default -> compactSize;
+        };
+    }
+
+    private void waitNextFrame() {
+        applyPendingFps();
+        long diffTime = fpsLimiter.limitFPS();
+        if (diffTime > 0) {
             SystemClock.sleep(diffTime);
-            //VRLogger.v("frame limit discarded, sleepTime=" + diffTime + "ms");
-            return getInputFrame();
         }
-        // 上一帧时间应为取帧时的时间
-        fpsLimiter.setLastFrameTime(start);
-        return frame;
+    }
+
+    /**
+     * @return false为等待超时且没有需要取的帧
+     */
+    private boolean awaitFrameTrigger() {
+        FrameTrigger trigger = frameTrigger;
+        if (trigger == null) {
+            return true;
+        }
+        try {
+            return trigger.awaitFrame(TRIGGER_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // 被中断时照常取帧，不在这里空转
+            return true;
+        }
+    }
+
+    private boolean isDuplicate(long hash) {
+        DuplicateFrameFilter filter = duplicateFrameFilter;
+        return filter != null && filter.isDuplicate(hash);
+    }
+
+    /**
+     * @throws IllegalStateException Flexible时拿不到Image，inputFormat也没有声明具体格式或buffer不够大，不猜测排列，交给EncoderErrorCallback
+     */
+    private YuvPlanes getInputPlanes(MediaCodec mediaCodec, int inBufferIndex, ByteBuffer byteBuffer) {
+        if (formatVideoEncoder == FormatVideoEncoder.YUV420_FLEXIBLE) {
+            Image image = mediaCodec.getInputImage(inBufferIndex);
+            if (image != null) {
+                return YuvPlanes.ofImage(image);
+            }
+            // 理论上Flexible一定能拿到Image，拿不到时按编码器声明的格式和对齐写入输入buffer
+            if (flexibleBufferFormat == -1) {
+                throw new IllegalStateException("getInputImage returned null and input format declares no YUV420 layout");
+            }
+            if (byteBuffer.remaining() < getRequiredInputSize()) {
+                throw new IllegalStateException("getInputImage returned null and input buffer is too small: " + byteBuffer.remaining());
+            }
+            Log.w(TAG, "getInputImage returned null, write buffer as " + flexibleBufferFormat);
+            return YuvPlanes.ofBuffer(byteBuffer, width, height, flexibleBufferFormat, inputStride, inputSliceHeight);
+        }
+        return YuvPlanes.ofBuffer(byteBuffer, width, height, formatVideoEncoder.getFormatCodec(), inputStride, inputSliceHeight);
     }
 
     @Override
@@ -0,0 +1,112 @@
+package io.keyss.view_record.video;
+
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Description: 由view的绘制驱动取帧，没有绘制时编码线程一直睡眠，静止的界面几乎不占CPU
+ * <p>
+ * OnDrawListener是整个window的，view所在window中任何地方重绘都会触发
+ * onDraw时这一帧还没画完，所以绘制后的第一次取帧之后还会再取一次（trailing），保证录到最终画面
+ * 超过maxGapMs没有取过帧时即使没有绘制也取一帧
+ */
+public class ViewDrawTrigger implements FrameTrigger {
+    private final View view;
+    private final long maxGapMs;
+    private final ViewTreeObserver.OnDrawListener drawListener = this::onDraw;
+    private ViewTreeObserver observer;
+
+    /**
+     * 第一帧总是要取
+     */
+    private boolean isDirty = true;
+    private boolean isTrailing = false;
+    private long lastFrameTime = SystemClock.elapsedRealtime();
+    private long drawCount;
+    private long repeatCount;
+
+    /**
+     * @param maxGapMs 两次取帧之间的最长间隔，毫秒
+     */
+    public ViewDrawTrigger(View view, long maxGapMs) {
+        this.view = view;
+        this.maxGapMs = maxGapMs;
+    }
+
+    public ViewDrawTrigger(View view) {
+        this(view, DuplicateFrameFilter.DEFAULT_MAX_GAP_MS);
+    }
+
+    /**
+     * 在UI线程注册监听，可以在任意线程调用
+     */
+    public void attach() {
+        view.post(() -> {
+            observer = view.getViewTreeObserver();
+            observer.addOnDrawListener(drawListener);
+        });
+    }
+
+    /**
+     * 在UI线程移除监听，可以在任意线程调用；之后awaitFrame只按最长间隔返回
+     */
+    public void detach() {
+        view.post(() -> {
+            // 重新attach到window后observer会换，旧的已失效
+            ViewTreeObserver current = observer != null && observer.isAlive() ? observer : view.getViewTreeObserver();
+            current.removeOnDrawListener(drawListener);
+            observer = null;
+        });
+    }
+
+    private synchronized void onDraw() {
+        isDirty = true;
+        drawCount++;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized boolean awaitFrame(long timeoutMs) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        while (true) {
+            long now = SystemClock.elapsedRealtime();
+            if (isDirty) {
+                isDirty = false;
+                isTrailing = true;
+                lastFrameTime = now;
+                return true;
+            }
+            if (isTrailing) {
+                isTrailing = false;
+                lastFrameTime = now;
+                return true;
+            }
+            long gapWait = lastFrameTime + maxGapMs - now;
+            if (gapWait <= 0) {
+                repeatCount++;
+                lastFrameTime = now;
+                return true;
+            }
+            long wait = Math.min(gapWait, deadline - now);
+            if (wait <= 0) {
+                return false;
+            }
+            wait(wait);
+        }
+    }
+
+    /**
+     * @return 收到的绘制次数，连续的绘制会被合并成一次取帧
+     */
+    public synchronized long getDrawCount() {
+        return drawCount;
+    }
+
+    /**
+     * @return 没有绘制、因为超过最长间隔而取的帧数
+     */
+    public synchronized long getRepeatCount() {
+        return repeatCount;
+    }
+}
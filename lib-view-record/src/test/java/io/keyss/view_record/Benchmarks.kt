@@ -0,0 +1,23 @@
+package io.keyss.view_record
+
+import org.junit.Assume
+import java.util.logging.Logger
+
+/**
+ * Description: src/test下的Benchmark只测耗时不做断言，默认跳过，./gradlew :lib-view-record:testDebugUnitTest -Pbenchmark时才运行
+ * 结果写到java.util.logging，Gradle收进测试报告的标准输出里
+ */
+object Benchmarks {
+    private val logger = Logger.getLogger("benchmark")
+
+    /**
+     * 在每个计时的@Test开头调用
+     */
+    fun assumeEnabled() {
+        Assume.assumeTrue("benchmark disabled, run with -Pbenchmark", System.getProperty("benchmark") != null)
+    }
+
+    fun report(source: Any, message: String) {
+        logger.info("${source.javaClass.simpleName}: $message")
+    }
+}
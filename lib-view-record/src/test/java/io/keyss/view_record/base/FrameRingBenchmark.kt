@@ -0,0 +1,76 @@
+package io.keyss.view_record.base
+
+import io.keyss.view_record.Benchmarks
+import org.junit.Test
+import java.util.concurrent.ArrayBlockingQueue
+
+/**
+ * Description: ArrayBlockingQueue（每帧new Frame）与FrameRing（预分配槽位）一生产一消费的吞吐和延迟
+ * 延迟是入队到取出的时间，只记录结果不做断言，-Pbenchmark时才运行，核数和JIT不同数值差别很大
+ */
+class FrameRingBenchmark {
+    companion object {
+        private const val FRAMES = 1_000_000
+        private const val ROUNDS = 3
+        private const val CAPACITY = 80
+        private val PCM = ByteArray(4096)
+    }
+
+    private interface Queue {
+        fun offer(timeStamp: Long): Boolean
+
+        fun take(): Long
+    }
+
+    /**
+     * @return 总耗时、p50、p99、p99.9，纳秒
+     */
+    private fun run(queue: Queue): LongArray {
+        val latencies = LongArray(FRAMES)
+        val consumer = Thread {
+            for (i in 0 until FRAMES) {
+                latencies[i] = System.nanoTime() - queue.take()
+            }
+        }
+        val start = System.nanoTime()
+        consumer.start()
+        for (i in 0 until FRAMES) {
+            while (!queue.offer(System.nanoTime())) {
+                Thread.yield()
+            }
+        }
+        consumer.join()
+        val elapsed = System.nanoTime() - start
+        latencies.sort()
+        return longArrayOf(
+            elapsed,
+            latencies[FRAMES / 2],
+            latencies[(FRAMES * 99L / 100).toInt()],
+            latencies[(FRAMES * 999L / 1000).toInt()],
+        )
+    }
+
+    private fun print(name: String, result: LongArray) {
+        Benchmarks.report(this, "$name ${"%.2f".format(FRAMES * 1e3 / result[0])} Mframes/s, " +
+                "p50=${result[1]}ns, p99=${result[2]}ns, p99.9=${result[3]}ns")
+    }
+
+    @Test
+    fun throughputAndLatency() {
+        Benchmarks.assumeEnabled()
+        repeat(ROUNDS) {
+            val blockingQueue = ArrayBlockingQueue<Frame>(CAPACITY)
+            print("ArrayBlockingQueue", run(object : Queue {
+                override fun offer(timeStamp: Long) = blockingQueue.offer(Frame(PCM, 0, PCM.size, timeStamp))
+
+                override fun take() = blockingQueue.take().timeStamp
+            }))
+            val ring = FrameRing(CAPACITY)
+            print("FrameRing", run(object : Queue {
+                override fun offer(timeStamp: Long) = ring.offer(PCM, 0, PCM.size, timeStamp)
+
+                override fun take() = ring.take().timeStamp
+            }))
+        }
+    }
+}
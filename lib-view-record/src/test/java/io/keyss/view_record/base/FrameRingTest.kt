@@ -0,0 +1,135 @@
+package io.keyss.view_record.base
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Description: FrameRing的丢帧策略和一生产一消费的压力测试
+ * 压力测试用最小的容量让生产者一直绕回到消费者手里的槽位，消费者拿到帧后隔一会再读一遍，字段变了就是被覆盖了
+ */
+class FrameRingTest {
+    companion object {
+        private val BUFFER = ByteArray(64)
+        private const val STRESS_MILLIS = 2000L
+
+        /**
+         * 每一帧的offset和size都由时间戳算出，被覆盖后对不上
+         */
+        private fun offsetOf(sequence: Long) = (sequence % 31).toInt()
+        private fun sizeOf(sequence: Long) = (sequence % 29).toInt() + 1
+    }
+
+    @Test
+    fun dropNewest_rejectsWhenFull() {
+        val ring = FrameRing(2)
+        assertTrue(ring.offer(BUFFER, 0, 1, 1))
+        assertTrue(ring.offer(BUFFER, 0, 1, 2))
+        assertFalse(ring.offer(BUFFER, 0, 1, 3))
+        assertEquals(1L, ring.droppedNewestCount)
+        assertEquals(1L, ring.poll()!!.timeStamp)
+        assertEquals(2L, ring.poll()!!.timeStamp)
+        assertNull(ring.poll())
+    }
+
+    @Test
+    fun dropOldest_evictsQueuedFrames() {
+        val ring = FrameRing(2)
+        ring.setOverflowPolicy(OverflowPolicy.DROP_OLDEST, 0)
+        val evicted = mutableListOf<Long>()
+        ring.setEvictionListener { evicted.add(it.timeStamp) }
+        for (i in 1L..5L) {
+            assertTrue(ring.offer(BUFFER, 0, 1, i))
+        }
+        assertEquals(listOf(1L, 2L, 3L), evicted)
+        assertEquals(3L, ring.droppedOldestCount)
+        assertEquals(4L, ring.poll()!!.timeStamp)
+        assertEquals(5L, ring.poll()!!.timeStamp)
+    }
+
+    @Test
+    fun dropOldest_neverOverwritesFrameInUse() {
+        val ring = FrameRing(1)
+        ring.setOverflowPolicy(OverflowPolicy.DROP_OLDEST, 0)
+        assertTrue(ring.offer(BUFFER, 0, 1, 1))
+        val frame = ring.poll()!!
+        // 队列空了，再写两帧时第二帧绕回到消费者手里的槽位
+        for (i in 2L..10L) {
+            ring.offer(BUFFER, 0, 1, i)
+            assertEquals(1L, frame.timeStamp)
+        }
+    }
+
+    @Test
+    fun maxBytes_limitsQueuedBytes() {
+        val ring = FrameRing(8)
+        ring.setMaxBytes(10)
+        assertTrue(ring.offer(BUFFER, 0, 6, 1))
+        assertFalse(ring.offer(BUFFER, 0, 6, 2))
+        assertTrue(ring.offer(BUFFER, 0, 4, 3))
+        assertEquals(10L, ring.queuedBytes)
+        assertEquals(6L, ring.droppedBytes)
+    }
+
+    @Test
+    fun dropOldest_stressSingleProducerSingleConsumer() {
+        val ring = FrameRing(1)
+        ring.setOverflowPolicy(OverflowPolicy.DROP_OLDEST, 0)
+        val error = AtomicReference<String>()
+        val deadline = System.currentTimeMillis() + STRESS_MILLIS
+        val isProducing = AtomicBoolean(true)
+        val produced = AtomicLong()
+        val producer = Thread {
+            var sequence = 0L
+            while (System.currentTimeMillis() < deadline && error.get() == null) {
+                sequence++
+                ring.offer(BUFFER, offsetOf(sequence), sizeOf(sequence), sequence)
+                produced.set(sequence)
+                if (sequence % 4 == 0L) {
+                    // 单核上也要让消费者有机会插进来
+                    Thread.yield()
+                }
+            }
+            isProducing.set(false)
+        }
+        var consumed = 0L
+        val consumer = Thread {
+            var last = 0L
+            while (error.get() == null) {
+                val frame = ring.poll()
+                if (frame == null) {
+                    if (!isProducing.get()) break
+                    Thread.yield()
+                    continue
+                }
+                val sequence = frame.timeStamp
+                if (sequence <= last) {
+                    error.compareAndSet(null, "out of order: $sequence after $last")
+                }
+                last = sequence
+                // 拿着这一帧的时候让生产者绕回来
+                Thread.yield()
+                if (frame.timeStamp != sequence || frame.offset != offsetOf(sequence) || frame.size != sizeOf(sequence)) {
+                    error.compareAndSet(null, "frame $sequence overwritten while in use: " +
+                            "ts=${frame.timeStamp}, offset=${frame.offset}, size=${frame.size}")
+                }
+                consumed++
+            }
+        }
+        producer.start()
+        consumer.start()
+        producer.join()
+        consumer.join()
+        assertNull(error.get(), error.get())
+        assertTrue("consumed nothing", consumed > 0)
+        // 每一帧要么被取走，要么被后来的挤掉，要么因为唯一的槽位在消费者手里而没能写入
+        assertEquals(produced.get(), consumed + ring.droppedOldestCount + ring.droppedNewestCount)
+        assertTrue("never evicted a queued frame", ring.droppedOldestCount > 0)
+        assertTrue("never hit the slot in use", ring.droppedNewestCount > 0)
+    }
+}
@@ -0,0 +1,111 @@
+package io.keyss.view_record.utils.yuv
+
+import io.keyss.view_record.Benchmarks
+import io.keyss.view_record.utils.MemoryBudget
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+
+/**
+ * Description: 复用ConversionContext后稳定录制时每帧的分配
+ * 第一帧之后getAllocationCount不能再增加，调用线程每帧分配的字节数记到日志，只对lambda这类小对象留余量
+ * 1080p的argb一帧8M，只要有一个缓冲被重新分配就会远超上限
+ * 线程池里的分配不在调用线程的统计里，靠getAllocationCount覆盖
+ */
+class ConversionAllocationBenchmark {
+    companion object {
+        private const val WIDTH = 1920
+        private const val HEIGHT = 1080
+        private const val FRAMES = 60
+
+        /**
+         * 每帧允许的零散分配，远小于一行的strip
+         */
+        private const val MAX_BYTES_PER_FRAME = 16 * 1024L
+
+        private val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+        private fun allocatedBytes(): Long = threadBean.getThreadAllocatedBytes(Thread.currentThread().id)
+    }
+
+    private val parallelConverter = ParallelConverter(4)
+
+    @After
+    fun tearDown() {
+        parallelConverter.release()
+    }
+
+    /**
+     * 按录制时的顺序：取argb、取yuv、转换，第一帧分配，之后全部复用
+     */
+    private fun assertSteadyState(name: String, frame: (ConversionContext) -> Unit) {
+        val context = ConversionContext()
+        val budget = MemoryBudget(256L * 1024 * 1024)
+        context.setMemoryBudget(budget)
+        frame(context)
+        val firstCount = context.allocationCount
+        val reservedBytes = budget.reservedBytes
+        assertTrue("$name: first frame should allocate", firstCount > 0)
+        val startBytes = allocatedBytes()
+        repeat(FRAMES) { frame(context) }
+        val bytesPerFrame = (allocatedBytes() - startBytes) / FRAMES
+        Benchmarks.report(this, "$name, allocations=$firstCount, ${bytesPerFrame}B/frame on caller thread")
+        assertEquals("$name: allocation count after warm-up", firstCount.toLong(), context.allocationCount.toLong())
+        assertEquals("$name: budget after warm-up", reservedBytes, budget.reservedBytes)
+        assertTrue("$name: ${bytesPerFrame}B/frame", bytesPerFrame <= MAX_BYTES_PER_FRAME)
+        context.release()
+    }
+
+    @Test
+    fun byteArray_noSteadyStateAllocation() {
+        val source = ConvertKernelTest.randomArgb(WIDTH, HEIGHT)
+        for (kernel in ConvertKernel.values()) {
+            assertSteadyState("byteArray $kernel") { context ->
+                val argb = context.obtainArgb(WIDTH * HEIGHT)
+                System.arraycopy(source, 0, argb, 0, argb.size)
+                val yuv = context.obtainYuv(ConvertUtil.getYuvSize(WIDTH, HEIGHT))
+                parallelConverter.convert(argb, WIDTH, HEIGHT, yuv, 21, kernel)
+            }
+        }
+    }
+
+    @Test
+    fun directBuffer_noSteadyStateAllocation() {
+        val argb = ConvertKernelTest.randomArgb(WIDTH, HEIGHT)
+        val output = ByteBuffer.allocateDirect(ConvertUtil.getYuvSize(WIDTH, HEIGHT))
+        for (format in ConvertKernelTest.FORMATS) {
+            assertSteadyState("direct single format=$format") { context ->
+                output.clear()
+                ConvertUtil.convertToYUVBuffer(argb, WIDTH, HEIGHT, format, ConvertKernel.LOOKUP_TABLE, output, context)
+            }
+            assertSteadyState("direct parallel format=$format") { context ->
+                output.clear()
+                parallelConverter.convert(argb, WIDTH, HEIGHT, format, ConvertKernel.LOOKUP_TABLE, output, context)
+            }
+        }
+    }
+
+    /**
+     * copyPixelsToBuffer的路径：RGBA按strip解包，strip数组来自context
+     */
+    @Test
+    fun rgbaStrips_noSteadyStateAllocation() {
+        val rowBytes = WIDTH * 4
+        val rgba = ByteBuffer.allocateDirect(rowBytes * HEIGHT)
+        val source = ConvertKernelTest.randomArgb(WIDTH, HEIGHT)
+        for (pixel in source) {
+            rgba.putInt(pixel shl 8 or (pixel ushr 24))
+        }
+        val converter = YuvConverters.get(21, ConvertKernel.LOOKUP_TABLE, YuvColorSpace.BT601_LIMITED)
+        assertSteadyState("rgba strips") { context ->
+            val yuv = context.obtainYuv(ConvertUtil.getYuvSize(WIDTH, HEIGHT))
+            val stripArgb = context.obtainStripArgbs(1, ConvertUtil.getStripArgbSize(WIDTH))[0]
+            ConvertUtil.convertRgbaRows(rgba, rowBytes, WIDTH, 0, HEIGHT, stripArgb) { argb, argbFirstRow, rowStart, rowEnd ->
+                ConvertUtil.convertRows(argb, argbFirstRow, WIDTH, HEIGHT, rowStart, rowEnd, yuv, 0, 21, converter)
+            }
+        }
+    }
+}
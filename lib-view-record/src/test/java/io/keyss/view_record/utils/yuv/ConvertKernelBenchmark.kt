@@ -0,0 +1,66 @@
+package io.keyss.view_record.utils.yuv
+
+import io.keyss.view_record.Benchmarks
+import org.junit.Test
+import java.nio.ByteBuffer
+
+/**
+ * Description: 1080p下各计算方式每像素的耗时，只记录结果不做断言，-Pbenchmark时才运行，JIT和机器不同数值差别很大，只看相对快慢
+ * 在JVM上跑，不含getPixels等Android调用，比较的只是转换本身；另按颜色标准逐个测YuvConverters中的实现
+ */
+class ConvertKernelBenchmark {
+    companion object {
+        const val WIDTH = 1920
+        const val HEIGHT = 1080
+        private const val WARMUP = 5
+        private const val ITERATIONS = 20
+
+        /**
+         * @return 每像素纳秒
+         */
+        fun measure(pixels: Int, block: () -> Unit): Double {
+            repeat(WARMUP) { block() }
+            val start = System.nanoTime()
+            repeat(ITERATIONS) { block() }
+            return (System.nanoTime() - start).toDouble() / ITERATIONS / pixels
+        }
+    }
+
+    @Test
+    fun nsPerPixel() {
+        Benchmarks.assumeEnabled()
+        val argb = ConvertKernelTest.randomArgb(WIDTH, HEIGHT)
+        val output = ByteBuffer.wrap(ByteArray(ConvertUtil.getYuvSize(WIDTH, HEIGHT)))
+        for (format in ConvertKernelTest.FORMATS) {
+            for (kernel in ConvertKernel.values()) {
+                val ns = measure(WIDTH * HEIGHT) {
+                    output.clear()
+                    ConvertUtil.convertToYUVBuffer(argb, WIDTH, HEIGHT, format, kernel, output)
+                }
+                Benchmarks.report(this, "format=$format, kernel=$kernel, ${"%.2f".format(ns)} ns/pixel")
+            }
+        }
+    }
+
+    /**
+     * 每种颜色标准下从YuvConverters取到的实现，register替换后跑这里就能对比
+     */
+    @Test
+    fun nsPerPixelByColorSpace() {
+        Benchmarks.assumeEnabled()
+        val argb = ConvertKernelTest.randomArgb(WIDTH, HEIGHT)
+        val yuv = ByteArray(ConvertUtil.getYuvSize(WIDTH, HEIGHT))
+        for (colorSpace in YuvColorSpace.values()) {
+            for (format in ConvertKernelTest.FORMATS) {
+                for (kernel in ConvertKernel.values()) {
+                    val converter = YuvConverters.get(format, kernel, colorSpace)
+                    val ns = measure(WIDTH * HEIGHT) {
+                        ConvertUtil.convertRows(argb, 0, WIDTH, HEIGHT, 0, HEIGHT, yuv, 0, format, converter)
+                    }
+                    Benchmarks.report(this, "$colorSpace, format=$format, kernel=$kernel, " +
+                            "${converter.javaClass.simpleName.substringBefore("$$")}, ${"%.2f".format(ns)} ns/pixel")
+                }
+            }
+        }
+    }
+}
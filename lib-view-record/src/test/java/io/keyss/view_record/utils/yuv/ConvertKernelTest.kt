@@ -0,0 +1,98 @@
+package io.keyss.view_record.utils.yuv
+
+import android.media.MediaCodecInfo.CodecCapabilities
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.nio.ByteBuffer
+import kotlin.random.Random
+
+/**
+ * Description: LOOKUP_TABLE与ARITHMETIC逐位相同，先逐个颜色比较表和公式，再按整帧比较四种格式的输出
+ */
+class ConvertKernelTest {
+    companion object {
+        val FORMATS = intArrayOf(
+            CodecCapabilities.COLOR_FormatYUV420Planar,
+            CodecCapabilities.COLOR_FormatYUV420PackedPlanar,
+            CodecCapabilities.COLOR_FormatYUV420SemiPlanar,
+            CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar,
+        )
+
+        fun randomArgb(width: Int, height: Int, seed: Int = 1): IntArray {
+            val random = Random(seed)
+            return IntArray(width * height) { random.nextInt() or 0xff000000.toInt() }
+        }
+
+        fun convert(argb: IntArray, width: Int, height: Int, colorFormat: Int, kernel: ConvertKernel,
+                    colorSpace: YuvColorSpace = YuvColorSpace.BT601_LIMITED): ByteArray {
+            val yuv = ByteArray(ConvertUtil.getYuvSize(width, height))
+            ConvertUtil.convertToYUVBuffer(argb, width, height, colorFormat, kernel, colorSpace, ByteBuffer.wrap(yuv), null)
+            return yuv
+        }
+    }
+
+    @Test
+    fun lookupTable_matchesFormulaForEveryColor() {
+        val clamp = YuvLookupTable.CLAMP
+        val offset = YuvLookupTable.CLAMP_OFFSET
+        for (r in 0..255) {
+            for (g in 0..255) {
+                for (b in 0..255) {
+                    val y = ((66 * r + 129 * g + 25 * b + 128) shr 8) + 16
+                    val u = ((-38 * r - 74 * g + 112 * b + 128) shr 8) + 128
+                    val v = ((112 * r - 94 * g - 18 * b + 128) shr 8) + 128
+                    val lutY = clamp[((YuvLookupTable.Y_R[r] + YuvLookupTable.Y_G[g] + YuvLookupTable.Y_B[b]) shr 8) + 16 + offset]
+                    val lutU = clamp[((YuvLookupTable.U_R[r] + YuvLookupTable.U_G[g] + YuvLookupTable.U_B[b]) shr 8) + 128 + offset]
+                    val lutV = clamp[((YuvLookupTable.V_R[r] + YuvLookupTable.V_G[g] + YuvLookupTable.V_B[b]) shr 8) + 128 + offset]
+                    if (lutY != y.coerceIn(0, 255).toByte() || lutU != u.coerceIn(0, 255).toByte() || lutV != v.coerceIn(0, 255).toByte()) {
+                        throw AssertionError("rgb($r, $g, $b) differs")
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    fun lookupTable_bitIdenticalToArithmetic() {
+        val width = 320
+        val height = 242
+        val argb = randomArgb(width, height)
+        for (format in FORMATS) {
+            assertArrayEquals(
+                "format $format",
+                convert(argb, width, height, format, ConvertKernel.ARITHMETIC),
+                convert(argb, width, height, format, ConvertKernel.LOOKUP_TABLE)
+            )
+        }
+    }
+
+    @Test
+    fun block2x2_lumaMatchesArithmetic() {
+        val width = 64
+        val height = 32
+        val argb = randomArgb(width, height, 2)
+        for (format in FORMATS) {
+            val arithmetic = convert(argb, width, height, format, ConvertKernel.ARITHMETIC)
+            val block = convert(argb, width, height, format, ConvertKernel.BLOCK_2X2)
+            assertArrayEquals("format $format", arithmetic.copyOf(width * height), block.copyOf(width * height))
+        }
+    }
+
+    @Test
+    fun block2x2_chromaIsBlockAverage() {
+        // 2x2块内颜色相同时平均值就是这个颜色，色度与ARITHMETIC相同
+        val width = 8
+        val height = 4
+        val random = Random(3)
+        val colors = IntArray(width / 2 * height / 2) { random.nextInt() or 0xff000000.toInt() }
+        val argb = IntArray(width * height) { colors[(it / width / 2) * (width / 2) + (it % width) / 2] }
+        for (format in FORMATS) {
+            val arithmetic = convert(argb, width, height, format, ConvertKernel.ARITHMETIC)
+            val block = convert(argb, width, height, format, ConvertKernel.BLOCK_2X2)
+            for (i in arithmetic.indices) {
+                assertEquals("format $format index $i", arithmetic[i].toInt() and 0xff, block[i].toInt() and 0xff)
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package io.keyss.view_record.utils.yuv
+
+import io.keyss.view_record.Benchmarks
+import org.junit.Test
+
+/**
+ * Description: 1440p缩到720p，FrameTransform按strip缩放并转换与先缩放成整帧argb再转换的每个输出像素耗时，-Pbenchmark时才运行
+ * 两边取样方式相同，差别只在缩放后的像素是一整帧的int[]还是STRIP_ROWS行的小数组
+ */
+class FrameTransformBenchmark {
+    companion object {
+        private const val SOURCE_WIDTH = 2560
+        private const val SOURCE_HEIGHT = 1440
+        private const val OUT_WIDTH = 1280
+        private const val OUT_HEIGHT = 720
+        private const val FORMAT = 21
+    }
+
+    @Test
+    fun nsPerPixel() {
+        Benchmarks.assumeEnabled()
+        val argb = ConvertKernelTest.randomArgb(SOURCE_WIDTH, SOURCE_HEIGHT)
+        val source = ArgbSource.ofArgb(argb, SOURCE_WIDTH, SOURCE_HEIGHT)
+        val pixels = OUT_WIDTH * OUT_HEIGHT
+        val scaled = IntArray(pixels)
+        val stripArgb = IntArray(ConvertUtil.getStripArgbSize(OUT_WIDTH))
+        val yuv = ByteArray(ConvertUtil.getYuvSize(OUT_WIDTH, OUT_HEIGHT))
+        val converter = YuvConverters.get(FORMAT, ConvertKernel.LOOKUP_TABLE, YuvColorSpace.BT601_LIMITED)
+        for (filter in ScaleFilter.values()) {
+            val transform = FrameTransform(OUT_WIDTH, OUT_HEIGHT, filter)
+            transform.prepare(SOURCE_WIDTH, SOURCE_HEIGHT)
+            val scaleThenConvert = ConvertKernelBenchmark.measure(pixels) {
+                // 整帧作为一个strip，取样完再整帧转换
+                transform.sampleRows(source, 0, OUT_HEIGHT, scaled) { _, _, _, _ -> }
+                ConvertUtil.convertRows(scaled, 0, OUT_WIDTH, OUT_HEIGHT, 0, OUT_HEIGHT, yuv, 0, FORMAT, converter)
+            }
+            val fused = ConvertKernelBenchmark.measure(pixels) {
+                transform.sampleRows(source, 0, OUT_HEIGHT, stripArgb) { strip, stripFirstRow, rowStart, rowEnd ->
+                    ConvertUtil.convertRows(strip, stripFirstRow, OUT_WIDTH, OUT_HEIGHT, rowStart, rowEnd, yuv, 0, FORMAT, converter)
+                }
+            }
+            Benchmarks.report(this, "${SOURCE_WIDTH}x$SOURCE_HEIGHT -> ${OUT_WIDTH}x$OUT_HEIGHT $filter, " +
+                    "scale then convert ${"%.2f".format(scaleThenConvert)} ns/pixel, fused ${"%.2f".format(fused)} ns/pixel, " +
+                    "intermediate ${pixels * 4 / 1024}K vs ${stripArgb.size * 4 / 1024}K")
+        }
+    }
+}
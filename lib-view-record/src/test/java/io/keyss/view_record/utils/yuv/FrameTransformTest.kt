@@ -0,0 +1,253 @@
+package io.keyss.view_record.utils.yuv
+
+import android.media.MediaCodecInfo.CodecCapabilities
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import kotlin.math.abs
+import kotlin.math.roundToInt
+
+/**
+ * Description: FrameTransform一次完成的裁剪、旋转、缩放与先逐步变换成整帧argb再转换的结果逐字节相同
+ * 参考实现在这里按定义单独写：裁剪取子区域，旋转按源像素搬到目标位置，BOX取整块的平均值，BILINEAR按像素中心对齐插值，都四舍五入
+ * BILINEAR的位置和权重按1/256取整，比例不能用1/256整除时（如41到40）与浮点插值差1，这种情况允许±1
+ */
+class FrameTransformTest {
+    companion object {
+        private const val FORMAT = CodecCapabilities.COLOR_FormatYUV420SemiPlanar
+
+        /**
+         * 缩放后的像素只有低24位，补上alpha与randomArgb一致
+         */
+        fun referenceScale(argb: IntArray, width: Int, height: Int, outWidth: Int, outHeight: Int, filter: ScaleFilter): IntArray {
+            return IntArray(outWidth * outHeight) {
+                val x = it % outWidth
+                val y = it / outWidth
+                val rgb = when (filter) {
+                    ScaleFilter.BOX -> referenceBox(argb, width, height, outWidth, outHeight, x, y)
+                    ScaleFilter.BILINEAR -> referenceBilinear(argb, width, height, outWidth, outHeight, x, y)
+                }
+                rgb or 0xff000000.toInt()
+            }
+        }
+
+        private fun referenceBox(argb: IntArray, width: Int, height: Int, outWidth: Int, outHeight: Int, x: Int, y: Int): Int {
+            val sx0 = x * width / outWidth
+            val sx1 = maxOf(sx0 + 1, (x + 1) * width / outWidth)
+            val sy0 = y * height / outHeight
+            val sy1 = maxOf(sy0 + 1, (y + 1) * height / outHeight)
+            val count = (sx1 - sx0) * (sy1 - sy0)
+            var rgb = 0
+            for (shift in intArrayOf(16, 8, 0)) {
+                var sum = 0
+                for (sy in sy0 until sy1) {
+                    for (sx in sx0 until sx1) {
+                        sum += argb[sy * width + sx] shr shift and 0xff
+                    }
+                }
+                rgb = rgb or ((sum + count / 2) / count shl shift)
+            }
+            return rgb
+        }
+
+        private fun referenceBilinear(argb: IntArray, width: Int, height: Int, outWidth: Int, outHeight: Int, x: Int, y: Int): Int {
+            val fx = ((x + 0.5) * width / outWidth - 0.5).coerceIn(0.0, width - 1.0)
+            val fy = ((y + 0.5) * height / outHeight - 0.5).coerceIn(0.0, height - 1.0)
+            val x0 = fx.toInt()
+            val y0 = fy.toInt()
+            val x1 = minOf(x0 + 1, width - 1)
+            val y1 = minOf(y0 + 1, height - 1)
+            val wx = fx - x0
+            val wy = fy - y0
+            var rgb = 0
+            for (shift in intArrayOf(16, 8, 0)) {
+                fun c(sx: Int, sy: Int) = (argb[sy * width + sx] shr shift and 0xff).toDouble()
+                val top = c(x0, y0) * (1 - wx) + c(x1, y0) * wx
+                val bottom = c(x0, y1) * (1 - wx) + c(x1, y1) * wx
+                rgb = rgb or ((top * (1 - wy) + bottom * wy).roundToInt() shl shift)
+            }
+            return rgb
+        }
+
+        /**
+         * @return 源中[left, right) x [top, bottom)的像素
+         */
+        fun referenceCrop(argb: IntArray, width: Int, left: Int, top: Int, right: Int, bottom: Int): IntArray {
+            val cropWidth = right - left
+            return IntArray(cropWidth * (bottom - top)) { argb[(top + it / cropWidth) * width + left + it % cropWidth] }
+        }
+
+        /**
+         * 顺时针旋转，90和270时结果的宽高为源的高宽
+         */
+        fun referenceRotate(argb: IntArray, width: Int, height: Int, rotation: Int): IntArray {
+            val isSwap = rotation == 90 || rotation == 270
+            val outWidth = if (isSwap) height else width
+            val rotated = IntArray(argb.size)
+            for (sy in 0 until height) {
+                for (sx in 0 until width) {
+                    val (x, y) = when (rotation) {
+                        90 -> height - 1 - sy to sx
+                        180 -> width - 1 - sx to height - 1 - sy
+                        270 -> sy to width - 1 - sx
+                        else -> sx to sy
+                    }
+                    rotated[y * outWidth + x] = argb[sy * width + sx]
+                }
+            }
+            return rotated
+        }
+
+        /**
+         * 与ConvertUtil.convertBitmapToYUVByteArray相同的流程，只是源不经过Bitmap
+         *
+         * @param rgba 不为null时从这个ARGB_8888排列的buffer读，对应copyPixelsToBuffer的路径，否则读argb
+         */
+        fun fusedConvert(transform: FrameTransform, argb: IntArray, width: Int, height: Int, rgba: ByteBuffer? = null,
+                         colorFormat: Int = FORMAT,
+                         kernel: ConvertKernel = ConvertKernel.ARITHMETIC,
+                         stripArgb: IntArray = IntArray(ConvertUtil.getStripArgbSize(transform.outWidth)),
+                         yuv: ByteArray = ByteArray(ConvertUtil.getYuvSize(transform.outWidth, transform.outHeight))): ByteArray {
+            val outWidth = transform.outWidth
+            val outHeight = transform.outHeight
+            val converter = YuvConverters.get(colorFormat, kernel, YuvColorSpace.BT601_LIMITED)
+            val source = if (rgba == null) ArgbSource.ofArgb(argb, width, height) else ArgbSource.ofRgba(rgba, width * 4, width, height)
+            transform.prepare(width, height)
+            transform.sampleRows(source, 0, outHeight, stripArgb) { strip, stripFirstRow, rowStart, rowEnd ->
+                ConvertUtil.convertRows(strip, stripFirstRow, outWidth, outHeight, rowStart, rowEnd, yuv, 0, colorFormat, converter)
+            }
+            return yuv
+        }
+    }
+
+    private fun assertYuvEquals(message: String, expected: ByteArray, actual: ByteArray, tolerance: Int) {
+        assertEquals("$message size", expected.size, actual.size)
+        for (i in expected.indices) {
+            val diff = abs((expected[i].toInt() and 0xff) - (actual[i].toInt() and 0xff))
+            assertTrue("$message [$i] expected ${expected[i].toInt() and 0xff} but was ${actual[i].toInt() and 0xff}", diff <= tolerance)
+        }
+    }
+
+    /**
+     * 每个方向的比例能用1/256整除时BILINEAR也逐字节相同
+     */
+    private fun toleranceOf(filter: ScaleFilter, sourceWidth: Int, sourceHeight: Int, outWidth: Int, outHeight: Int): Int {
+        val isExact = sourceWidth * 256 % outWidth == 0 && sourceHeight * 256 % outHeight == 0
+        return if (filter == ScaleFilter.BOX || isExact) 0 else 1
+    }
+
+    private fun assertScaleMatchesReference(width: Int, height: Int, outWidth: Int, outHeight: Int) {
+        val argb = ConvertKernelTest.randomArgb(width, height, width)
+        val rgba = RgbaStripBenchmark.toRgba(argb)
+        for (filter in ScaleFilter.values()) {
+            val transform = FrameTransform(outWidth, outHeight, filter)
+            val scaled = referenceScale(argb, width, height, outWidth, outHeight, filter)
+            for (format in ConvertKernelTest.FORMATS) {
+                val expected = ConvertKernelTest.convert(scaled, outWidth, outHeight, format, ConvertKernel.ARITHMETIC)
+                val name = "${width}x$height -> ${outWidth}x$outHeight $filter format=$format"
+                assertArrayEquals("$name argb", expected, fusedConvert(transform, argb, width, height, colorFormat = format))
+                assertArrayEquals("$name rgba", expected, fusedConvert(transform, argb, width, height, rgba, format))
+            }
+        }
+    }
+
+    /**
+     * crop与源求交后裁剪、旋转、缩放，三步都做完再转换
+     */
+    private fun assertTransformMatchesReference(width: Int, height: Int, crop: IntArray?, rotation: Int, outWidth: Int,
+                                                outHeight: Int) {
+        val argb = ConvertKernelTest.randomArgb(width, height, width + rotation)
+        val left = crop?.let { maxOf(it[0], 0) } ?: 0
+        val top = crop?.let { maxOf(it[1], 0) } ?: 0
+        val right = crop?.let { minOf(it[2], width) } ?: width
+        val bottom = crop?.let { minOf(it[3], height) } ?: height
+        val cropped = referenceCrop(argb, width, left, top, right, bottom)
+        val rotated = referenceRotate(cropped, right - left, bottom - top, rotation)
+        val isSwap = rotation == 90 || rotation == 270
+        val rotatedWidth = if (isSwap) bottom - top else right - left
+        val rotatedHeight = if (isSwap) right - left else bottom - top
+        for (filter in ScaleFilter.values()) {
+            val transform = if (crop == null) {
+                FrameTransform(outWidth, outHeight, filter, false, 0, 0, 0, 0, rotation)
+            } else {
+                FrameTransform(outWidth, outHeight, filter, true, crop[0], crop[1], crop[2], crop[3], rotation)
+            }
+            val scaled = referenceScale(rotated, rotatedWidth, rotatedHeight, outWidth, outHeight, filter)
+            for (format in ConvertKernelTest.FORMATS) {
+                val expected = ConvertKernelTest.convert(scaled, outWidth, outHeight, format, ConvertKernel.ARITHMETIC)
+                assertYuvEquals("crop=${crop?.contentToString()} rotation=$rotation $filter format=$format", expected,
+                    fusedConvert(transform, argb, width, height, colorFormat = format),
+                    toleranceOf(filter, rotatedWidth, rotatedHeight, outWidth, outHeight))
+            }
+        }
+    }
+
+    @Test
+    fun rotation_matchesRotateThenConvert() {
+        for (rotation in intArrayOf(0, 90, 180, 270)) {
+            val isSwap = rotation == 90 || rotation == 270
+            assertTransformMatchesReference(64, 48, null, rotation, if (isSwap) 48 else 64, if (isSwap) 64 else 48)
+            // 旋转加2:1缩小
+            assertTransformMatchesReference(128, 96, null, rotation, if (isSwap) 48 else 64, if (isSwap) 64 else 48)
+        }
+    }
+
+    @Test
+    fun oddCropOffset_keepsChromaAligned() {
+        // 裁剪区域从奇数坐标开始，输出的2x2色度块对应源的奇数行列，不能按源的偶数对齐取
+        for (rotation in intArrayOf(0, 90, 180, 270)) {
+            val isSwap = rotation == 90 || rotation == 270
+            assertTransformMatchesReference(64, 48, intArrayOf(3, 5, 43, 35), rotation, if (isSwap) 30 else 40, if (isSwap) 40 else 30)
+            // 奇数宽高的区域缩放到偶数输出
+            assertTransformMatchesReference(64, 48, intArrayOf(1, 3, 42, 34), rotation, if (isSwap) 30 else 40, if (isSwap) 40 else 30)
+        }
+    }
+
+    @Test
+    fun cropOutsideSource_isClipped() {
+        for (rotation in intArrayOf(0, 90, 180, 270)) {
+            val isSwap = rotation == 90 || rotation == 270
+            // 与源求交后为[40, 64) x [30, 48)，24x18
+            assertTransformMatchesReference(64, 48, intArrayOf(40, 30, 100, 90), rotation, if (isSwap) 18 else 24, if (isSwap) 24 else 18)
+        }
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun cropWithoutIntersection_throws() {
+        FrameTransform(16, 16, ScaleFilter.BOX, true, 100, 100, 120, 120, 0).prepare(64, 48)
+    }
+
+    @Test
+    fun isIdentity_onlyWithoutCropRotationOrScaling() {
+        assertTrue(FrameTransform(64, 48, ScaleFilter.BOX, false, 0, 0, 0, 0, 0).isIdentity(64, 48))
+        assertFalse(FrameTransform(64, 48, ScaleFilter.BOX, false, 0, 0, 0, 0, 0).isIdentity(128, 96))
+        assertFalse(FrameTransform(48, 64, ScaleFilter.BOX, false, 0, 0, 0, 0, 90).isIdentity(48, 64))
+        assertFalse(FrameTransform(64, 48, ScaleFilter.BOX, true, 0, 0, 64, 48, 0).isIdentity(64, 48))
+    }
+
+    @Test
+    fun oneToOne_matchesPlainConversion() {
+        assertScaleMatchesReference(64, 48, 64, 48)
+        // 1:1时两种取样都是原像素，与不经过FrameTransform的转换相同
+        val argb = ConvertKernelTest.randomArgb(64, 48)
+        for (filter in ScaleFilter.values()) {
+            assertArrayEquals("$filter", ConvertKernelTest.convert(argb, 64, 48, FORMAT, ConvertKernel.ARITHMETIC),
+                fusedConvert(FrameTransform(64, 48, filter), argb, 64, 48))
+        }
+    }
+
+    @Test
+    fun twoToOne_matchesScaleThenConvert() {
+        assertScaleMatchesReference(128, 96, 64, 48)
+        // 行数超过一个strip，分多次交给converter
+        assertScaleMatchesReference(640, 360, 320, 180)
+    }
+
+    @Test
+    fun nonIntegerRatio_matchesScaleThenConvert() {
+        assertScaleMatchesReference(100, 75, 64, 48)
+    }
+}
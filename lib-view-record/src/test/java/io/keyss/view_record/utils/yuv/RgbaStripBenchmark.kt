@@ -0,0 +1,90 @@
+package io.keyss.view_record.utils.yuv
+
+import io.keyss.view_record.Benchmarks
+import org.junit.Assert.assertArrayEquals
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Description: copyPixelsToBuffer按strip解包与getPixels整帧int[]两条路径的对比，720p和1080p
+ * JVM上没有Bitmap，两边都从同一块像素拷贝开始：getPixels一侧拷到整帧int[]，copyPixelsToBuffer一侧拷到direct buffer
+ * 真机上getPixels还有逐像素的格式转换和反预乘，这里测不到，差距只会更大
+ * 不透明像素两条路径的结果必须逐字节相同
+ */
+class RgbaStripBenchmark {
+    companion object {
+        private val SIZES = arrayOf(1280 to 720, 1920 to 1080)
+        private const val FORMAT = 21
+
+        /**
+         * ARGB_8888在内存中的排列：R、G、B、A
+         */
+        fun toRgba(argb: IntArray): ByteBuffer {
+            val rgba = ByteBuffer.allocateDirect(argb.size * 4).order(ByteOrder.BIG_ENDIAN)
+            for (pixel in argb) {
+                rgba.putInt(pixel shl 8 or (pixel ushr 24))
+            }
+            rgba.clear()
+            return rgba
+        }
+    }
+
+    private fun convertArgb(source: IntArray, argb: IntArray, width: Int, height: Int, yuv: ByteArray,
+                            converter: YuvConverter) {
+        System.arraycopy(source, 0, argb, 0, argb.size)
+        ConvertUtil.convertRows(argb, 0, width, height, 0, height, yuv, 0, FORMAT, converter)
+    }
+
+    private fun convertRgba(source: ByteBuffer, rgba: ByteBuffer, width: Int, height: Int, stripArgb: IntArray,
+                            yuv: ByteArray, converter: YuvConverter) {
+        rgba.clear()
+        rgba.put(source.duplicate())
+        ConvertUtil.convertRgbaRows(rgba, width * 4, width, 0, height, stripArgb) { argb, argbFirstRow, rowStart, rowEnd ->
+            ConvertUtil.convertRows(argb, argbFirstRow, width, height, rowStart, rowEnd, yuv, 0, FORMAT, converter)
+        }
+    }
+
+    @Test
+    fun opaqueStripsMatchFullFrame() {
+        for ((width, height) in SIZES) {
+            val source = ConvertKernelTest.randomArgb(width, height)
+            val sourceRgba = toRgba(source)
+            for (kernel in ConvertKernel.values()) {
+                val converter = YuvConverters.get(FORMAT, kernel, YuvColorSpace.BT601_LIMITED)
+                val expected = ByteArray(ConvertUtil.getYuvSize(width, height))
+                convertArgb(source, IntArray(width * height), width, height, expected, converter)
+                val actual = ByteArray(expected.size)
+                convertRgba(sourceRgba, ByteBuffer.allocateDirect(width * height * 4), width, height,
+                    IntArray(ConvertUtil.getStripArgbSize(width)), actual, converter)
+                assertArrayEquals("${width}x$height $kernel", expected, actual)
+            }
+        }
+    }
+
+    @Test
+    fun nsPerPixel() {
+        Benchmarks.assumeEnabled()
+        for ((width, height) in SIZES) {
+            val pixels = width * height
+            val source = ConvertKernelTest.randomArgb(width, height)
+            val sourceRgba = toRgba(source)
+            val argb = IntArray(pixels)
+            val rgba = ByteBuffer.allocateDirect(pixels * 4).order(ByteOrder.BIG_ENDIAN)
+            val stripArgb = IntArray(ConvertUtil.getStripArgbSize(width))
+            val yuv = ByteArray(ConvertUtil.getYuvSize(width, height))
+            for (kernel in ConvertKernel.values()) {
+                val converter = YuvConverters.get(FORMAT, kernel, YuvColorSpace.BT601_LIMITED)
+                val full = ConvertKernelBenchmark.measure(pixels) {
+                    convertArgb(source, argb, width, height, yuv, converter)
+                }
+                val strips = ConvertKernelBenchmark.measure(pixels) {
+                    convertRgba(sourceRgba, rgba, width, height, stripArgb, yuv, converter)
+                }
+                Benchmarks.report(this, "${width}x$height $kernel, getPixels int[] ${"%.2f".format(full)} ns/pixel, " +
+                        "RGBA strips ${"%.2f".format(strips)} ns/pixel, " +
+                        "working set ${pixels * 4 / 1024}K vs ${stripArgb.size * 4 / 1024}K")
+            }
+        }
+    }
+}
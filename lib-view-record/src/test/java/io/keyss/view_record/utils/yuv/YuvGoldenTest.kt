@@ -0,0 +1,117 @@
+package io.keyss.view_record.utils.yuv
+
+import android.media.MediaCodecInfo.CodecCapabilities
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.math.abs
+import kotlin.math.roundToInt
+
+/**
+ * Description: 四种排列和四种颜色标准的固定像素值
+ * 排列用4x2的帧（左红右绿）按位置逐字节比较；颜色标准按浮点公式算参考值，整数系数的误差允许±2
+ */
+class YuvGoldenTest {
+    companion object {
+        private const val RED = 0xffff0000.toInt()
+        private const val GREEN = 0xff00ff00.toInt()
+
+        private val COLORS = intArrayOf(
+            0xff000000.toInt(), 0xffffffff.toInt(), RED, GREEN, 0xff0000ff.toInt(),
+            0xffffff00.toInt(), 0xff00ffff.toInt(), 0xffff00ff.toInt(), 0xff808080.toInt(), 0xff336699.toInt(),
+        )
+        private const val TOLERANCE = 2
+
+        /**
+         * 左2x2为红，右2x2为绿，BT601_LIMITED下红为Y82 U90 V240，绿为Y144 U54 V34
+         */
+        private val RED_GREEN = intArrayOf(RED, RED, GREEN, GREEN, RED, RED, GREEN, GREEN)
+        private val RED_GREEN_Y = intArrayOf(82, 82, 144, 144, 82, 82, 144, 144)
+
+        /**
+         * @return Y、U、V，按BT.601/BT.709的定义用浮点计算
+         */
+        fun reference(color: Int, colorSpace: YuvColorSpace): IntArray {
+            val (kr, kb) = when (colorSpace) {
+                YuvColorSpace.BT601_LIMITED, YuvColorSpace.BT601_FULL -> 0.299 to 0.114
+                YuvColorSpace.BT709_LIMITED, YuvColorSpace.BT709_FULL -> 0.2126 to 0.0722
+            }
+            val isLimited = colorSpace == YuvColorSpace.BT601_LIMITED || colorSpace == YuvColorSpace.BT709_LIMITED
+            val r = (color shr 16 and 0xff).toDouble()
+            val g = (color shr 8 and 0xff).toDouble()
+            val b = (color and 0xff).toDouble()
+            val luma = kr * r + (1 - kr - kb) * g + kb * b
+            val cb = (b - luma) / (2 * (1 - kb))
+            val cr = (r - luma) / (2 * (1 - kr))
+            val y = if (isLimited) 16 + luma * 219 / 255 else luma
+            val chromaScale = if (isLimited) 224.0 / 255 else 1.0
+            return doubleArrayOf(y, 128 + cb * chromaScale, 128 + cr * chromaScale).map { it.roundToInt().coerceIn(0, 255) }.toIntArray()
+        }
+
+        private fun bytes(vararg values: Int) = ByteArray(values.size) { values[it].toByte() }
+    }
+
+    @Test
+    fun planar_writesUPlaneThenVPlane() {
+        for (format in intArrayOf(CodecCapabilities.COLOR_FormatYUV420Planar, CodecCapabilities.COLOR_FormatYUV420PackedPlanar)) {
+            for (kernel in ConvertKernel.values()) {
+                val yuv = ConvertKernelTest.convert(RED_GREEN, 4, 2, format, kernel)
+                assertArrayEquals("format=$format $kernel", bytes(*RED_GREEN_Y, 90, 54, 240, 34), yuv)
+            }
+        }
+    }
+
+    @Test
+    fun semiPlanar_writesInterleavedUV() {
+        for (format in intArrayOf(CodecCapabilities.COLOR_FormatYUV420SemiPlanar, CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar)) {
+            for (kernel in ConvertKernel.values()) {
+                val yuv = ConvertKernelTest.convert(RED_GREEN, 4, 2, format, kernel)
+                assertArrayEquals("format=$format $kernel", bytes(*RED_GREEN_Y, 90, 240, 54, 34), yuv)
+            }
+        }
+    }
+
+    @Test
+    fun everyColorSpace_matchesReferenceFormula() {
+        for (colorSpace in YuvColorSpace.values()) {
+            for (format in ConvertKernelTest.FORMATS) {
+                for (kernel in ConvertKernel.values()) {
+                    for (color in COLORS) {
+                        // 纯色的2x2，各种取样方式的色度都一样
+                        val yuv = ConvertKernelTest.convert(IntArray(4) { color }, 2, 2, format, kernel, colorSpace)
+                        val actual = intArrayOf(yuv[0].toInt() and 0xff, yuv[4].toInt() and 0xff, yuv[5].toInt() and 0xff)
+                        val expected = reference(color, colorSpace)
+                        for (i in 0..2) {
+                            assertTrue(
+                                "$colorSpace format=$format $kernel color=${Integer.toHexString(color)} " +
+                                        "expected ${expected.contentToString()} but was ${actual.contentToString()}",
+                                abs(expected[i] - actual[i]) <= TOLERANCE
+                            )
+                        }
+                        for (i in 1..3) {
+                            assertTrue("$colorSpace luma differs inside a solid block", yuv[i] == yuv[0])
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    fun limitedRange_staysInsideNominalRange() {
+        for (colorSpace in arrayOf(YuvColorSpace.BT601_LIMITED, YuvColorSpace.BT709_LIMITED)) {
+            val argb = ConvertKernelTest.randomArgb(64, 64)
+            for (format in ConvertKernelTest.FORMATS) {
+                for (kernel in ConvertKernel.values()) {
+                    val yuv = ConvertKernelTest.convert(argb, 64, 64, format, kernel, colorSpace)
+                    val lumaSize = 64 * 64
+                    for (i in yuv.indices) {
+                        val value = yuv[i].toInt() and 0xff
+                        val max = if (i < lumaSize) 235 else 240
+                        assertTrue("$colorSpace format=$format $kernel [$i]=$value", value in 16..max)
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.keyss.view_record.video
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Description: QualityGovernor按截图、转换各自的耗时选择降截图比例还是帧率
+ * 30fps的帧间隔约33ms，每个窗口喂一帧，时间直接传入
+ */
+class QualityGovernorTest {
+    private var now = 0L
+
+    private fun governor() = QualityGovernor(30, 10, 4_000_000, 1_000_000, 0.5f, 4)
+
+    /**
+     * 喂一个统计窗口
+     */
+    private fun QualityGovernor.window(captureMs: Long, convertMs: Long) {
+        onFrameCost(captureMs * 1_000_000, convertMs * 1_000_000, now)
+        now += QualityGovernor.WINDOW_MS
+        onFrameCost(captureMs * 1_000_000, convertMs * 1_000_000, now)
+    }
+
+    @Test
+    fun convertBound_stepsFpsOnly() {
+        val governor = governor()
+        repeat(2) { governor.window(5, 40) }
+        assertEquals(0, governor.scaleIndex)
+        assertEquals(2, governor.fpsIndex)
+        assertEquals(1.0, governor.currentLevel.captureScale.toDouble(), 0.0)
+        assertEquals(4_000_000, governor.currentLevel.bitRate)
+        assertEquals(20, governor.currentLevel.fps)
+    }
+
+    @Test
+    fun captureBound_stepsCaptureScaleAndBitRate() {
+        val governor = governor()
+        governor.window(30, 5)
+        assertEquals(1, governor.scaleIndex)
+        assertEquals(0, governor.fpsIndex)
+        assertEquals(0.875, governor.currentLevel.captureScale.toDouble(), 1e-6)
+        assertEquals(3_250_000, governor.currentLevel.bitRate)
+        assertEquals(30, governor.currentLevel.fps)
+    }
+
+    @Test
+    fun captureBoundAtMinimumScale_fallsBackToFps() {
+        val governor = governor()
+        repeat(4) { governor.window(30, 5) }
+        assertEquals(4, governor.scaleIndex)
+        governor.window(30, 5)
+        assertEquals(1, governor.fpsIndex)
+    }
+
+    @Test
+    fun captureScaleDisabled_stepsFpsOnly() {
+        val governor = governor()
+        governor.setCaptureScaleEnabled(false)
+        governor.window(30, 5)
+        assertEquals(0, governor.scaleIndex)
+        assertEquals(1, governor.fpsIndex)
+    }
+
+    @Test
+    fun lowLoad_restoresFpsBeforeCaptureScale() {
+        val governor = governor()
+        governor.window(30, 5)
+        governor.window(5, 40)
+        assertEquals(1, governor.scaleIndex)
+        assertEquals(1, governor.fpsIndex)
+        repeat(3) { governor.window(1, 1) }
+        assertEquals(1, governor.scaleIndex)
+        assertEquals(0, governor.fpsIndex)
+        repeat(3) { governor.window(1, 1) }
+        assertEquals(0, governor.scaleIndex)
+    }
+}